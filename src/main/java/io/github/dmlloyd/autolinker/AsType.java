@@ -43,6 +43,11 @@ public enum AsType {
 
     ptr,
     void_,
+
+    /**
+     * An array of {@code struct iovec} which is built from a {@code ByteBuffer[]} or {@code MemorySegment[]} argument.
+     */
+    iovec,
     ;
 
     AsType() {
@@ -0,0 +1,99 @@
+package io.github.dmlloyd.autolinker;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * A call site of an asynchronous method, which returns a {@code CompletableFuture} of the result of the function.
+ * One instance exists for each such call site.
+ * <p>
+ * The arguments are snapshotted on the calling thread according to the direction of each array argument:
+ * arrays which are read by the function ({@code in} and {@code in_out}) are copied, so that the caller may
+ * reuse them as soon as the method returns, and arrays which are written by the function ({@code out} and {@code in_out})
+ * have their contents in place by the time that the future is completed.
+ * The stub (which copies the arguments to and from native memory, using temporary memory which belongs to the executing thread)
+ * is run by the executor which is given as an argument, or by a shared pool of platform threads if none was given.
+ * <p>
+ * If any argument is {@linkplain Blocking#isConfined confined}, the call is made directly and the returned future is already complete.
+ */
+final class Async {
+    private static final MethodHandle INVOKE;
+
+    static {
+        try {
+            INVOKE = MethodHandles.lookup().findVirtual(Async.class, "invoke", MethodType.methodType(CompletableFuture.class, Object[].class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private final MethodHandle target;
+    /**
+     * The snapshot mode of each argument ({@code i}, {@code o}, {@code b}, or {@code -}).
+     */
+    private final String modes;
+
+    private Async(final MethodHandle target, final String modes) {
+        this.target = target.asType(target.type().generic());
+        this.modes = modes;
+    }
+
+    /**
+     * {@return a method handle which calls the given target asynchronously}
+     * The handle accepts the arguments of the target followed by an {@code Executor} (which may be {@code null}),
+     * and returns a {@code CompletableFuture}.
+     *
+     * @param target the method which makes the call (must not be {@code null})
+     * @param modes the snapshot mode of each argument (must not be {@code null})
+     */
+    static MethodHandle handle(MethodHandle target, String modes) {
+        int cnt = target.type().parameterCount();
+        return INVOKE.bindTo(new Async(target, modes)).asCollector(Object[].class, cnt + 1);
+    }
+
+    private CompletableFuture<Object> invoke(Object[] args) throws Throwable {
+        int cnt = args.length - 1;
+        Executor executor = (Executor) args[cnt];
+        Object[] callArgs = new Object[cnt];
+        System.arraycopy(args, 0, callArgs, 0, cnt);
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        if (Blocking.isConfined(callArgs)) {
+            try {
+                future.complete(target.invokeWithArguments(callArgs));
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+            return future;
+        }
+        String modes = this.modes;
+        for (int i = 0; i < cnt; i ++) {
+            Object array = callArgs[i];
+            char mode = modes.charAt(i);
+            if (array != null && (mode == 'i' || mode == 'b')) {
+                int length = Array.getLength(array);
+                Object copy = Array.newInstance(array.getClass().componentType(), length);
+                System.arraycopy(array, 0, copy, 0, length);
+                callArgs[i] = copy;
+            }
+        }
+        (executor == null ? Blocking.POOL : executor).execute(() -> {
+            try {
+                Object result = target.invokeWithArguments(callArgs);
+                for (int i = 0; i < cnt; i ++) {
+                    if (modes.charAt(i) == 'b' && args[i] != null) {
+                        // copy the output back from the snapshot
+                        System.arraycopy(callArgs[i], 0, args[i], 0, Array.getLength(args[i]));
+                    }
+                }
+                future.complete(result);
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        });
+        return future;
+    }
+}
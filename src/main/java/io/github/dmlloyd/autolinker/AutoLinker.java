@@ -1,6 +1,7 @@
 package io.github.dmlloyd.autolinker;
 
 import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDesc;
 import java.lang.constant.ConstantDescs;
 import java.lang.constant.DirectMethodHandleDesc;
 import java.lang.constant.DynamicCallSiteDesc;
@@ -10,27 +11,41 @@ import java.lang.invoke.ConstantCallSite;
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodType;
+import java.lang.ref.Reference;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.Parameter;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.RecordComponent;
+import java.lang.reflect.Type;
 import java.lang.reflect.UndeclaredThrowableException;
+import java.lang.reflect.WildcardType;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Optional;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
 
 import io.github.dmlloyd.classfile.ClassBuilder;
 import io.github.dmlloyd.classfile.ClassFile;
 import io.github.dmlloyd.classfile.CodeBuilder;
 import io.github.dmlloyd.classfile.Label;
+import io.github.dmlloyd.classfile.Opcode;
 import io.github.dmlloyd.classfile.TypeKind;
 import io.github.dmlloyd.classfile.extras.reflect.AccessFlag;
 import io.smallrye.common.constraint.Assert;
@@ -66,374 +81,1706 @@ public final class AutoLinker {
             }
         }
     };
+    private final ClassValue<MethodHandle> structViews = new ClassValue<MethodHandle>() {
+        protected MethodHandle computeValue(final Class<?> type) {
+            String packageName = type.getPackageName();
+            String simpleName = type.getSimpleName();
+            byte[] bytes = compileStructViewFor(type, ClassDesc.of(packageName, simpleName + "$$StructView"));
+            try {
+                MethodHandles.Lookup definedLookup = lookup.defineHiddenClass(bytes, true);
+                return definedLookup.findConstructor(definedLookup.lookupClass(), MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Object.class));
+            } catch (NoSuchMethodException e) {
+                NoSuchMethodError e2 = new NoSuchMethodError(e.getMessage());
+                e2.setStackTrace(e.getStackTrace());
+                throw e2;
+            } catch (IllegalAccessException e) {
+                IllegalAccessError e2 = new IllegalAccessError(e.getMessage());
+                e2.setStackTrace(e.getStackTrace());
+                throw e2;
+            }
+        }
+    };
+
+    /**
+     * Construct a new instance.
+     *
+     * @param lookup the lookup to use for resolution (must not be {@code null})
+     */
+    public AutoLinker(final MethodHandles.Lookup lookup) {
+        this.lookup = Assert.checkNotNullParam("lookup", lookup);
+    }
+
+    /**
+     * Autolink the given interface.
+     * Each method on the interface which is annotated with {@link Link}
+     * will be implemented to automatically link against the corresponding native function.
+     * If the interface fails to be linked, this method will throw a run time exception.
+     *
+     * @param interface_ the interface (must not be {@code null})
+     * @return the autolinked implementation of the interface (not {@code null})
+     * @param <T> the type of the interface
+     */
+    public <T> T autoLink(Class<? extends T> interface_) {
+        return interface_.cast(linkables.get(interface_));
+    }
+
+    /**
+     * Create a new view of a native structure.
+     * Each method of the interface which is annotated with {@link Link.offset} is implemented to
+     * read or write the member at that offset, relative to the current position of the view,
+     * and each method which is annotated with {@link Link.rebase} is implemented to move the view.
+     * The view is initially positioned at offset zero of {@code MemorySegment.NULL},
+     * so it must be moved before any member is accessed.
+     * <p>
+     * Views are mutable and are not thread-safe.
+     * A single view may be moved over many structures, such as the elements of a native array,
+     * without allocating any objects.
+     *
+     * @param interface_ the view interface (must not be {@code null})
+     * @return the new view (not {@code null})
+     * @param <T> the type of the interface
+     */
+    public <T> T newStructView(Class<T> interface_) {
+        try {
+            return interface_.cast((Object) structViews.get(interface_).invokeExact());
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new UndeclaredThrowableException(t);
+        }
+    }
+
+    /**
+     * {@return the value of {@code errno} which was captured by the most recent call made by the current thread
+     * to a method which is annotated with {@link Link.errno}}
+     * If no such call was made, zero is returned.
+     */
+    public static int lastErrno() {
+        return CallState.errno();
+    }
+
+    /**
+     * {@return the value of {@code GetLastError()} which was captured by the most recent call made by the current thread
+     * to a method which is annotated with {@link Link.errno}}
+     * If no such call was made, zero is returned.
+     *
+     * @throws UnsupportedOperationException if the current platform is not Windows
+     */
+    public static int lastError() {
+        return CallState.getLastError();
+    }
+
+    /**
+     * {@return the value of {@code WSAGetLastError()} which was captured by the most recent call made by the current thread
+     * to a method which is annotated with {@link Link.errno}}
+     * If no such call was made, zero is returned.
+     *
+     * @throws UnsupportedOperationException if the current platform is not Windows
+     */
+    public static int lastSocketError() {
+        return CallState.wsaGetLastError();
+    }
+
+    /**
+     * Compile an auto-linker class for the given type.
+     * This can be used to generate an offline linker class.
+     *
+     * @param interface_ the interface (must not be {@code null})
+     * @param classDesc the descriptor of the class to generate (must not be {@code null})
+     * @return the class bytes
+     */
+    public static byte[] compileAutoLinkerFor(final Class<?> interface_, final ClassDesc classDesc) {
+        if (! interface_.isInterface()) {
+            throw new IllegalArgumentException(interface_ + " is not an interface");
+        }
+        HashSet<Class<?>> visitedInterfaces = new HashSet<>();
+        ArrayDeque<Class<?>> breadthQueue = new ArrayDeque<>();
+        breadthQueue.add(interface_);
+        populateQueue(interface_, breadthQueue, visitedInterfaces);
+        ClassFile cf = ClassFile.of(ClassFile.StackMapsOption.GENERATE_STACK_MAPS);
+        return cf.build(classDesc, zb -> {
+            zb.withFlags(AccessFlag.FINAL);
+            zb.withVersion(ClassFile.JAVA_22_VERSION, 0);
+            zb.withInterfaceSymbols(interface_.describeConstable().orElseThrow());
+            // create trivial constructor
+            zb.withMethod("<init>", MTD_void, ClassFile.ACC_PUBLIC, mb -> {
+                mb.withCode(cb -> {
+                    cb.aload(0);
+                    cb.invokespecial(ConstantDescs.CD_Object, "<init>", MTD_void);
+                    cb.return_();
+                });
+            });
+            HashMap<String, HashSet<MethodType>> visitedMethods = new HashMap<>();
+            for (Class<?> current = breadthQueue.pollFirst(); current != null; current = breadthQueue.pollFirst()) {
+                processMethods(zb, classDesc, current, visitedMethods);
+            }
+        });
+    }
+
+    /**
+     * Compile a structure view class for the given type.
+     * This can be used to generate an offline view class.
+     *
+     * @param interface_ the interface (must not be {@code null})
+     * @param classDesc the descriptor of the class to generate (must not be {@code null})
+     * @return the class bytes
+     * @see #newStructView(Class)
+     */
+    public static byte[] compileStructViewFor(final Class<?> interface_, final ClassDesc classDesc) {
+        return StructView.compile(interface_, classDesc);
+    }
+
+    private static void populateQueue(final Class<?> type, final ArrayDeque<Class<?>> breadthQueue, final HashSet<Class<?>> visitedInterfaces) {
+        Class<?>[] interfaces = type.getInterfaces();
+        List<Class<?>> filteredSupers = new ArrayList<>(interfaces.length);
+        for (Class<?> superInterface : interfaces) {
+            if (visitedInterfaces.add(superInterface)) {
+                filteredSupers.add(superInterface);
+            }
+        }
+        breadthQueue.addAll(filteredSupers);
+        for (Class<?> filteredSuper : filteredSupers) {
+            populateQueue(filteredSuper, breadthQueue, visitedInterfaces);
+        }
+    }
+
+    private static void processMethods(final ClassBuilder zb, final ClassDesc classDesc, final Class<?> interface_, final HashMap<String, HashSet<MethodType>> visitedMethods) {
+        for (Method method : interface_.getDeclaredMethods()) {
+            int mods = method.getModifiers();
+            if (Modifier.isStatic(mods)) {
+                continue;
+            }
+            Link link = method.getAnnotation(Link.class);
+            if (link == null) {
+                // just don't implement it
+                continue;
+            }
+            MethodType type = MethodType.methodType(method.getReturnType(), method.getParameterTypes());
+            if (visitedMethods.computeIfAbsent(method.getName(), AutoLinker::newHashSet).add(type)) {
+                if (! Modifier.isAbstract(mods)) {
+                    // exclude method on all levels
+                    continue;
+                }
+                if (method.isAnnotationPresent(Link.variable.class)) {
+                    // the variable is accessed like a structure member at offset zero
+                    StructView.Accessor accessor = new StructView.Accessor(method, 0);
+                    String linkName = method.getName() + "$$var_" + Integer.toHexString(type.hashCode());
+                    addVariableMethod(zb, linkName, StructType.memorySize(accessor.memoryCarrier()));
+                    zb.withMethod(method.getName(), type.describeConstable().orElseThrow(), ClassFile.ACC_PUBLIC | ClassFile.ACC_FINAL | ClassFile.ACC_SYNTHETIC, mb -> {
+                        mb.withCode(cb -> emitVariableAccess(cb, classDesc, method, link, accessor, linkName));
+                    });
+                    continue;
+                }
+                List<Transformation> transformations = new ArrayList<>(method.getParameterCount() + 4);
+                boolean async = method.getReturnType() == CompletableFuture.class;
+                // the executor of an asynchronous method is not passed to the stub
+                int executorIdx = async ? executorParameter(method) : -1;
+                Parameter[] parameters = withoutParameter(method.getParameters(), executorIdx);
+                // the transformation which consumes each parameter
+                Transformation[] argTransformations = new Transformation[parameters.length];
+                // the element transformation of each array parameter whose elements must be converted
+                Transformation[] elementTransformations = new Transformation[parameters.length];
+                for (int i = 0; i < parameters.length; i++) {
+                    final Parameter parameter = parameters[i];
+                    if (parameter.getType() == LazyLink.ARENA) {
+                        // not passed to the function
+                        continue;
+                    }
+                    if (parameter.getType() == List.class && ! isStringList(parameter.getParameterizedType())) {
+                        throw new IllegalArgumentException("Parameter " + parameter + " of method " + method + " must be a List<String>");
+                    }
+                    if (parameter.getType() == EnumSet.class) {
+                        flagsType(parameter.getParameterizedType(), parameter);
+                    }
+                    if (parameter.getAnnotation(Link.va_start.class) != null) {
+                        transformations.add(Transformation.START_VA);
+                    }
+                    Transformation transformation;
+                    if (parameter.getAnnotation(Link.capture.class) != null) {
+                        transformation = Transformation.CAPTURE;
+                    } else if (parameter.getAnnotation(Link.target.class) != null) {
+                        if (parameter.getType() != long.class && parameter.getType() != LazyLink.MEMORY_SEGMENT) {
+                            throw new IllegalArgumentException("Target parameter " + parameter + " of method " + method + " must be a MemorySegment or long");
+                        }
+                        if (transformations.contains(Transformation.TARGET)) {
+                            throw new IllegalArgumentException("Method " + method + " has more than one target parameter");
+                        }
+                        transformation = Transformation.TARGET;
+                    } else if (method.isVarArgs() && i == parameters.length - 1 && parameter.getType() == Object[].class) {
+                        if (transformations.contains(Transformation.TARGET)) {
+                            throw new IllegalArgumentException("Method " + method + " cannot have both a target parameter and variadic arguments");
+                        }
+                        if (transformations.contains(Transformation.START_VA)) {
+                            throw new IllegalArgumentException("Method " + method + " cannot have both a va_start parameter and variadic arguments");
+                        }
+                        transformation = Transformation.VARIADIC;
+                    } else {
+                        Link.as linkAs = parameter.getAnnotation(Link.as.class);
+                        if (linkAs != null) {
+                            transformation = transformationFor(linkAs.value());
+                            Class<?> paramType = parameter.getType();
+                            Class<?> memoryCarrier = transformation.memoryCarrier();
+                            if (paramType.isArray() && paramType.componentType().isPrimitive() && memoryCarrier != null && memoryCarrier.isPrimitive()) {
+                                // an array whose elements have a different native type
+                                Class<?> componentType = paramType.componentType();
+                                if (memoryCarrier != componentType && ! (isIntegral(memoryCarrier) && isIntegral(componentType) && primitiveSize(memoryCarrier) == primitiveSize(componentType))) {
+                                    // only signedness differs otherwise, so no conversion would be needed
+                                    elementTransformations[i] = transformation;
+                                }
+                                transformation = Transformation.PTR;
+                            }
+                        } else {
+                            // determine type
+                            transformation = Transformation.forJavaType(parameter.getType());
+                        }
+                        transformation = addressTransformation(parameter.getType(), transformation);
+                    }
+                    transformations.add(transformation);
+                    argTransformations[i] = transformation;
+                }
+                if (returnType(method) == EnumSet.class || returnType(method) == NativeFlags.class) {
+                    flagsType(genericReturnType(method), method);
+                }
+                Link.as returnLinkAs = method.getAnnotation(Link.as.class);
+                Transformation returnTransformation;
+                if (ResultType.isResult(returnType(method))) {
+                    ResultType resultType = ResultType.of(returnType(method));
+                    if (resultType.returnTransformation() != null && returnLinkAs != null) {
+                        throw new IllegalArgumentException("Method " + method + " cannot give a return type when a record component receives the return value");
+                    }
+                    returnTransformation = resultType.returnTransformation() != null ? resultType.returnTransformation()
+                        : returnLinkAs != null ? transformationFor(returnLinkAs.value())
+                        : Transformation.VOID;
+                    for (int index : resultType.parameterIndexes()) {
+                        insertResult(method, transformations, index);
+                    }
+                } else {
+                    returnTransformation = addressTransformation(returnType(method), returnLinkAs != null
+                        ? transformationFor(returnLinkAs.value())
+                        : Transformation.forJavaType(returnType(method)));
+                }
+                returnSizeCheck(method, parameters, returnTransformation);
+                advanceCheck(method, parameters, argTransformations, returnTransformation);
+                Set<String> frees = ownedCheck(method, parameters, returnTransformation);
+                Link.string string = method.getAnnotation(Link.string.class);
+                if (string != null) {
+                    if (returnType(method) != String.class) {
+                        throw new IllegalArgumentException("Method " + method + " must return String to configure string decoding");
+                    }
+                    if (string.maxLength() < 0) {
+                        throw new IllegalArgumentException("Method " + method + " has a negative maximum string length");
+                    }
+                    // fail early on an unknown character set
+                    Charset.forName(string.charset());
+                }
+                Link.checkReturn checkReturn = method.getAnnotation(Link.checkReturn.class);
+                if (method.getAnnotation(Link.errno.class) != null && transformations.contains(Transformation.CAPTURE)) {
+                    throw new IllegalArgumentException("Method " + method + " cannot both capture errno and have a capture parameter");
+                }
+                if (checkReturn != null) {
+                    checkReturnCheck(method, parameters, returnTransformation, checkReturn);
+                }
+                // the exception factory of checkReturn also needs errno
+                boolean errno = (method.getAnnotation(Link.errno.class) != null || checkReturn != null) && ! transformations.contains(Transformation.CAPTURE);
+                Link.critical critical = method.getAnnotation(Link.critical.class);
+                if (critical != null && method.isAnnotationPresent(Link.blocking.class)) {
+                    throw new IllegalArgumentException("Critical method " + method + " cannot be blocking");
+                }
+                Link.parallel parallel = method.getAnnotation(Link.parallel.class);
+                if (parallel != null && (async || method.isAnnotationPresent(Link.blocking.class))) {
+                    throw new IllegalArgumentException("Parallel method " + method + " cannot be asynchronous or blocking");
+                }
+                String partitions = parallel == null ? null : partitionCheck(method, parameters, parallel);
+                if (parallel != null && method.isAnnotationPresent(Link.errno.class)) {
+                    // the buffer belongs to the thread which ran each chunk
+                    throw new IllegalArgumentException("Parallel method " + method + " cannot capture errno into the library-managed buffer");
+                }
+                if (async) {
+                    if (method.isAnnotationPresent(Link.blocking.class)) {
+                        throw new IllegalArgumentException("Asynchronous method " + method + " cannot be blocking");
+                    }
+                    if (method.isAnnotationPresent(Link.errno.class)) {
+                        // the buffer belongs to the executor thread
+                        throw new IllegalArgumentException("Asynchronous method " + method + " cannot capture errno into the library-managed buffer");
+                    }
+                }
+                boolean heap = critical != null && critical.heap();
+                boolean adaptive = heap && critical.heapThreshold() >= 0;
+                // FFM does not allow critical functions to capture call state, so errno is read by a second call instead
+                boolean emulateCapture = critical != null && (errno || transformations.contains(Transformation.CAPTURE));
+                List<Transformation> criticalTransformations = transformations;
+                if (emulateCapture && ! errno) {
+                    for (Parameter parameter : parameters) {
+                        Link.capture capture = parameter.getAnnotation(Link.capture.class);
+                        if (capture != null && ! List.of(capture.value()).equals(List.of("errno"))) {
+                            throw new IllegalArgumentException("Critical method " + method + " may only capture errno");
+                        }
+                    }
+                    // the capture segment is written by the stub rather than being passed to the function
+                    criticalTransformations = new ArrayList<>(transformations);
+                    criticalTransformations.replaceAll(t -> t == Transformation.CAPTURE ? Transformation.VOID : t);
+                }
+                List<Transformation> finalCriticalTransformations = criticalTransformations;
+                MethodTypeDesc downcallType = downcallType(transformations, returnTransformation, errno);
+                MethodTypeDesc criticalDowncallType = emulateCapture ? downcallType(criticalTransformations, returnTransformation, false) : downcallType;
+
+                // add the bootstrap for the indy
+                int hash = type.hashCode();
+                String linkName = method.getName() + "$$link_" + Integer.toHexString(hash);
+                addLinkMethod(zb, classDesc, linkName, parameters, criticalTransformations, returnTransformation, returnType(method), critical != null, heap, errno && ! emulateCapture);
+                String copyLinkName = linkName + "$$copy";
+                if (adaptive) {
+                    // large calls use a non-critical handle so that GC is not held off while the function runs
+                    addLinkMethod(zb, classDesc, copyLinkName, parameters, transformations, returnTransformation, returnType(method), false, false, errno);
+                }
+                String errnoLinkName = emulateCapture ? linkName + "$$errno" : null;
+                if (emulateCapture) {
+                    addLinkMethod(zb, classDesc, errnoLinkName, new Parameter[0], List.of(), Transformation.PTR, LazyLink.MEMORY_SEGMENT, true, false, false);
+                }
+                for (String free : frees) {
+                    addFreeMethod(zb, classDesc, freeMethodName(method, free), free);
+                }
+                for (int i = 0; i < parameters.length; i++) {
+                    if (argTransformations[i] == Transformation.CALLBACK) {
+                        if (critical != null) {
+                            throw new IllegalArgumentException("Critical method " + method + " cannot accept a callback");
+                        }
+                        addCallbackMethods(zb, classDesc, callbackMethodName(method, i), Callback.of(parameters[i].getType()));
+                    }
+                }
+                // add the method
+                Consumer<CodeBuilder> body;
+                if (adaptive) {
+                    // each linkage gets its own method, so that the dispatching method stays small enough to inline
+                    MethodTypeDesc stubDesc = MethodType.methodType(returnType(method), Arrays.stream(parameters).map(Parameter::getType).toArray(Class<?>[]::new)).describeConstable().orElseThrow();
+                    String criticalName = method.getName() + "$$critical_" + Integer.toHexString(hash);
+                    String copyName = method.getName() + "$$copy_" + Integer.toHexString(hash);
+                    zb.withMethod(criticalName, stubDesc, ClassFile.ACC_PRIVATE | ClassFile.ACC_STATIC | ClassFile.ACC_SYNTHETIC, mb -> mb.withCode(cb -> {
+                        emitStub(cb, classDesc, method, link, parameters, finalCriticalTransformations, elementTransformations, returnTransformation, criticalDowncallType, linkName, true, errno && ! emulateCapture, errnoLinkName, checkReturn);
+                    }));
+                    zb.withMethod(copyName, stubDesc, ClassFile.ACC_PRIVATE | ClassFile.ACC_STATIC | ClassFile.ACC_SYNTHETIC, mb -> mb.withCode(cb -> {
+                        emitStub(cb, classDesc, method, link, parameters, transformations, elementTransformations, returnTransformation, downcallType, copyLinkName, false, errno, null, checkReturn);
+                    }));
+                    body = cb -> {
+                        // sum up the size of all array arguments
+                        cb.lconst_0();
+                        for (int i = 0; i < parameters.length; i++) {
+                            Class<?> argType = parameters[i].getType();
+                            if (argTransformations[i] == Transformation.PTR && elementTransformations[i] == null && argType.isArray() && argType.componentType().isPrimitive()) {
+                                // null arrays have no size
+                                Label skip = cb.newLabel();
+                                cb.aload(cb.parameterSlot(i));
+                                cb.ifnull(skip);
+                                cb.aload(cb.parameterSlot(i));
+                                cb.arraylength();
+                                cb.i2l();
+                                int shift = Integer.numberOfTrailingZeros(primitiveSize(argType.componentType()));
+                                if (shift > 0) {
+                                    pushInt(cb, shift);
+                                    cb.lshl();
+                                }
+                                cb.ladd();
+                                cb.labelBinding(skip);
+                            }
+                        }
+                        cb.ldc(Long.valueOf(critical.heapThreshold()));
+                        cb.lcmp();
+                        Label copy = cb.newLabel();
+                        cb.ifgt(copy);
+                        emitInvokeStub(cb, classDesc, parameters, criticalName, stubDesc);
+                        cb.labelBinding(copy);
+                        emitInvokeStub(cb, classDesc, parameters, copyName, stubDesc);
+                    };
+                } else {
+                    body = cb -> emitStub(cb, classDesc, method, link, parameters, finalCriticalTransformations, elementTransformations, returnTransformation, criticalDowncallType, linkName, heap, errno && ! emulateCapture, errnoLinkName, checkReturn);
+                }
+                MethodTypeDesc typeDesc = type.describeConstable().orElseThrow();
+                if (async) {
+                    // the stub is run by the executor, after the arguments are snapshotted by the async call site
+                    MethodTypeDesc stubDesc = MethodType.methodType(returnType(method), Arrays.stream(parameters).map(Parameter::getType).toArray(Class<?>[]::new)).describeConstable().orElseThrow();
+                    String asyncName = method.getName() + "$$async_" + Integer.toHexString(hash);
+                    zb.withMethod(asyncName, stubDesc, ClassFile.ACC_PRIVATE | ClassFile.ACC_STATIC | ClassFile.ACC_SYNTHETIC, mb -> mb.withCode(body));
+                    zb.withMethod(method.getName(), typeDesc, ClassFile.ACC_PUBLIC | ClassFile.ACC_FINAL | ClassFile.ACC_SYNTHETIC, mb -> {
+                        mb.withCode(cb -> {
+                            Parameter[] allParameters = method.getParameters();
+                            for (int i = 0; i < allParameters.length; i++) {
+                                if (i != executorIdx) {
+                                    cb.loadLocal(TypeKind.from(allParameters[i].getType()), cb.parameterSlot(i));
+                                }
+                            }
+                            if (executorIdx == -1) {
+                                cb.aconst_null();
+                            } else {
+                                cb.aload(cb.parameterSlot(executorIdx));
+                            }
+                            cb.invokedynamic(DynamicCallSiteDesc.of(
+                                BSM_async,
+                                "async",
+                                stubDesc.changeReturnType(CD_CompletableFuture).insertParameterTypes(stubDesc.parameterCount(), CD_Executor),
+                                MethodHandleDesc.ofMethod(DirectMethodHandleDesc.Kind.STATIC, classDesc, asyncName, stubDesc),
+                                snapshotModes(parameters)
+                            ));
+                            cb.areturn();
+                        });
+                    });
+                } else if (parallel != null) {
+                    // the stub is run by the parallel call site, once for each chunk
+                    String parallelName = method.getName() + "$$parallel_" + Integer.toHexString(hash);
+                    zb.withMethod(parallelName, typeDesc, ClassFile.ACC_PRIVATE | ClassFile.ACC_STATIC | ClassFile.ACC_SYNTHETIC, mb -> mb.withCode(body));
+                    List<ConstantDesc> bootstrapArgs = new ArrayList<>(4);
+                    bootstrapArgs.add(MethodHandleDesc.ofMethod(DirectMethodHandleDesc.Kind.STATIC, classDesc, parallelName, typeDesc));
+                    bootstrapArgs.add(Integer.valueOf(parallel.chunk()));
+                    bootstrapArgs.add(partitions);
+                    if (method.getReturnType() != void.class) {
+                        bootstrapArgs.add(reducer(method, parallel));
+                    }
+                    zb.withMethod(method.getName(), typeDesc, ClassFile.ACC_PUBLIC | ClassFile.ACC_FINAL | ClassFile.ACC_SYNTHETIC, mb -> {
+                        mb.withCode(cb -> {
+                            for (int i = 0; i < parameters.length; i++) {
+                                cb.loadLocal(TypeKind.from(parameters[i].getType()), cb.parameterSlot(i));
+                            }
+                            cb.invokedynamic(DynamicCallSiteDesc.of(BSM_parallel, "parallel", typeDesc, bootstrapArgs.toArray(ConstantDesc[]::new)));
+                            cb.return_(TypeKind.from(method.getReturnType()));
+                        });
+                    });
+                } else if (method.isAnnotationPresent(Link.blocking.class)) {
+                    // the stub is run by the blocking call site, on another thread if called from a virtual thread
+                    String blockingName = method.getName() + "$$blocking_" + Integer.toHexString(hash);
+                    zb.withMethod(blockingName, typeDesc, ClassFile.ACC_PRIVATE | ClassFile.ACC_STATIC | ClassFile.ACC_SYNTHETIC, mb -> mb.withCode(body));
+                    zb.withMethod(method.getName(), typeDesc, ClassFile.ACC_PUBLIC | ClassFile.ACC_FINAL | ClassFile.ACC_SYNTHETIC, mb -> {
+                        mb.withCode(cb -> {
+                            for (int i = 0; i < parameters.length; i++) {
+                                cb.loadLocal(TypeKind.from(parameters[i].getType()), cb.parameterSlot(i));
+                            }
+                            cb.invokedynamic(DynamicCallSiteDesc.of(
+                                BSM_blocking,
+                                "blocking",
+                                typeDesc,
+                                MethodHandleDesc.ofMethod(DirectMethodHandleDesc.Kind.STATIC, classDesc, blockingName, typeDesc),
+                                // capture parameters are written directly, but the errno buffer belongs to the thread
+                                Integer.valueOf(errno ? 1 : 0)
+                            ));
+                            cb.return_(TypeKind.from(method.getReturnType()));
+                        });
+                    });
+                } else {
+                    zb.withMethod(method.getName(), typeDesc, ClassFile.ACC_PUBLIC | ClassFile.ACC_FINAL | ClassFile.ACC_SYNTHETIC, mb -> mb.withCode(body));
+                }
+            }
+        }
+    }
+
+    /**
+     * Validate the {@link Link.advance} annotations of the given method.
+     */
+    private static void advanceCheck(final Method method, final Parameter[] parameters, final Transformation[] argTransformations, final Transformation returnTransformation) {
+        for (int i = 0; i < parameters.length; i++) {
+            Parameter parameter = parameters[i];
+            if (parameter.isAnnotationPresent(Link.advance.class)) {
+                if (parameter.getType() != ByteBuffer[].class || argTransformations[i] != Transformation.IOVEC) {
+                    throw new IllegalArgumentException("Parameter " + parameter + " of method " + method + " must be a ByteBuffer[] which is passed as iovec to advance its buffers");
+                }
+                Class<?> carrier = returnTransformation.carrier();
+                if (carrier != int.class && carrier != long.class) {
+                    throw new IllegalArgumentException("Method " + method + " must return an integral value to advance its buffers");
+                }
+            }
+        }
+    }
+
+    /**
+     * Validate the {@link Link.owned} annotations of the given method.
+     *
+     * @return the names of the functions which free owned memory (not {@code null})
+     */
+    private static Set<String> ownedCheck(final Method method, final Parameter[] parameters, final Transformation returnTransformation) {
+        Set<String> frees = new LinkedHashSet<>();
+        Link.owned owned = method.getAnnotation(Link.owned.class);
+        if (owned != null) {
+            if (returnTransformation != Transformation.PTR || returnType(method) != LazyLink.MEMORY_SEGMENT) {
+                throw new IllegalArgumentException("Method " + method + " must return MemorySegment to own the returned memory");
+            }
+            frees.add(owned.free());
+        }
+        if (ResultType.isResult(returnType(method))) {
+            for (RecordComponent component : ResultType.of(returnType(method)).components()) {
+                Link.owned componentOwned = component.getAnnotation(Link.owned.class);
+                if (componentOwned != null) {
+                    if (component.getType() != LazyLink.MEMORY_SEGMENT) {
+                        throw new IllegalArgumentException("Record component " + component + " must be a MemorySegment to own memory");
+                    }
+                    frees.add(componentOwned.free());
+                }
+            }
+        }
+        for (String free : frees) {
+            if (free.isEmpty()) {
+                throw new IllegalArgumentException("Method " + method + " must give the name of the function to free owned memory");
+            }
+        }
+        if (! frees.isEmpty() && arenaParameter(parameters) == -1) {
+            throw new IllegalArgumentException("Method " + method + " must have an Arena parameter to own memory");
+        }
+        return frees;
+    }
+
+    /**
+     * {@return the index of the first {@code Arena} parameter, or {@code -1} if there is none}
+     */
+    private static int arenaParameter(final Parameter[] parameters) {
+        for (int i = 0; i < parameters.length; i++) {
+            if (parameters[i].getType() == LazyLink.ARENA) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * {@return the index of the {@code Executor} parameter of the given asynchronous method, or {@code -1} if there is none}
+     */
+    private static int executorParameter(final Method method) {
+        Parameter[] parameters = method.getParameters();
+        int idx = -1;
+        for (int i = 0; i < parameters.length; i++) {
+            if (parameters[i].getType() == Executor.class) {
+                if (idx != -1) {
+                    throw new IllegalArgumentException("Method " + method + " has more than one executor parameter");
+                }
+                idx = i;
+            }
+        }
+        return idx;
+    }
+
+    private static Parameter[] withoutParameter(final Parameter[] parameters, final int index) {
+        if (index == -1) {
+            return parameters;
+        }
+        Parameter[] result = new Parameter[parameters.length - 1];
+        System.arraycopy(parameters, 0, result, 0, index);
+        System.arraycopy(parameters, index + 1, result, index, result.length - index);
+        return result;
+    }
+
+    /**
+     * {@return the Java type of the value which is returned by the stub of the given method}
+     * This is the return type of the method, except for asynchronous methods, for which it is the
+     * type of the result of the returned {@code CompletableFuture} (unboxed, if it is a primitive wrapper).
+     */
+    private static Class<?> returnType(final Method method) {
+        if (method.getReturnType() != CompletableFuture.class) {
+            return method.getReturnType();
+        }
+        Type resultType = genericReturnType(method);
+        Class<?> rawType = resultType instanceof ParameterizedType pt ? (Class<?>) pt.getRawType() : (Class<?>) resultType;
+        return rawType == Void.class ? void.class : MethodType.methodType(rawType).unwrap().returnType();
+    }
+
+    /**
+     * {@return the generic Java type of the value which is returned by the stub of the given method}
+     *
+     * @see #returnType(Method)
+     */
+    private static Type genericReturnType(final Method method) {
+        if (method.getReturnType() != CompletableFuture.class) {
+            return method.getGenericReturnType();
+        }
+        if (method.getGenericReturnType() instanceof ParameterizedType pt) {
+            Type resultType = pt.getActualTypeArguments()[0];
+            if (resultType instanceof Class<?> || resultType instanceof ParameterizedType) {
+                return resultType;
+            }
+        }
+        throw new IllegalArgumentException("Method " + method + " must give the result type of its CompletableFuture");
+    }
+
+    /**
+     * {@return the snapshot mode of each stub parameter of an asynchronous method}
+     * The mode of each array parameter is its {@linkplain Link.dir direction}: {@code i} for {@code in},
+     * {@code o} for {@code out}, or {@code b} for {@code in_out} (the default); other parameters have the mode {@code -}.
+     *
+     * @see Async
+     */
+    private static String snapshotModes(final Parameter[] parameters) {
+        StringBuilder b = new StringBuilder(parameters.length);
+        for (Parameter parameter : parameters) {
+            if (parameter.getType().isArray()) {
+                Link.dir dir = parameter.getAnnotation(Link.dir.class);
+                b.append(dir == null || dir.value() == Direction.in_out ? 'b' : dir.value() == Direction.in ? 'i' : 'o');
+            } else {
+                b.append('-');
+            }
+        }
+        return b.toString();
+    }
+
+    /**
+     * Validate the {@link Link.partition} annotations of the given parallel method.
+     *
+     * @return the partitioning of each parameter, separated by commas (not {@code null})
+     * @see Parallel
+     */
+    private static String partitionCheck(final Method method, final Parameter[] parameters, final Link.parallel parallel) {
+        if (parallel.chunk() <= 0) {
+            throw new IllegalArgumentException("Method " + method + " must give a positive chunk size");
+        }
+        StringJoiner joiner = new StringJoiner(",");
+        int counts = 0;
+        int slices = 0;
+        for (Parameter parameter : parameters) {
+            Link.partition partition = parameter.getAnnotation(Link.partition.class);
+            Class<?> type = parameter.getType();
+            if (partition == null) {
+                joiner.add("-");
+            } else if (type == int.class || type == long.class) {
+                joiner.add("n");
+                counts++;
+            } else if (type.isArray() || type == LazyLink.MEMORY_SEGMENT) {
+                if (partition.value() <= 0) {
+                    throw new IllegalArgumentException("Parameter " + parameter + " of method " + method + " must give a positive partition factor");
+                }
+                Link.dir dir = parameter.getAnnotation(Link.dir.class);
+                // arrays which are only read are not copied back
+                char kind = type == LazyLink.MEMORY_SEGMENT ? 's' : dir != null && dir.value() == Direction.in ? 'i' : 'a';
+                joiner.add(kind + Integer.toString(partition.value()));
+                slices++;
+            } else {
+                throw new IllegalArgumentException("Partitioned parameter " + parameter + " of method " + method + " must be an int or long element count, an array, or a MemorySegment");
+            }
+        }
+        if (counts != 1) {
+            throw new IllegalArgumentException("Method " + method + " must have exactly one partitioned element count parameter");
+        }
+        if (slices == 0) {
+            throw new IllegalArgumentException("Method " + method + " must have a partitioned array or MemorySegment parameter");
+        }
+        Class<?> returnType = method.getReturnType();
+        if (returnType == void.class) {
+            if (! parallel.reduce().isEmpty()) {
+                throw new IllegalArgumentException("Method " + method + " must not give a reducer because it does not return a value");
+            }
+        } else {
+            reducer(method, parallel);
+        }
+        return joiner.toString();
+    }
+
+    /**
+     * {@return the method handle descriptor of the reducer of the given parallel method}
+     */
+    private static DirectMethodHandleDesc reducer(final Method method, final Link.parallel parallel) {
+        Class<?> returnType = method.getReturnType();
+        if (parallel.reduce().isEmpty()) {
+            throw new IllegalArgumentException("Method " + method + " must give a reducer to combine its results");
+        }
+        Class<?> declaringClass = method.getDeclaringClass();
+        Method reducer;
+        try {
+            reducer = declaringClass.getDeclaredMethod(parallel.reduce(), returnType, returnType);
+        } catch (NoSuchMethodException e) {
+            reducer = null;
+        }
+        int mods = reducer == null ? 0 : reducer.getModifiers();
+        if (reducer == null || ! Modifier.isStatic(mods) || Modifier.isPrivate(mods) || reducer.getReturnType() != returnType) {
+            throw new IllegalArgumentException("Reducer " + parallel.reduce() + " of method " + method + " must be a non-private static method of " + declaringClass
+                + " which accepts two values of type " + returnType.getName() + " and returns that type");
+        }
+        ClassDesc rt = returnType.describeConstable().orElseThrow();
+        return MethodHandleDesc.ofMethod(
+            declaringClass.isInterface() ? DirectMethodHandleDesc.Kind.INTERFACE_STATIC : DirectMethodHandleDesc.Kind.STATIC,
+            declaringClass.describeConstable().orElseThrow(),
+            reducer.getName(),
+            MethodTypeDesc.of(rt, rt, rt)
+        );
+    }
+
+    private static String freeMethodName(final Method method, final String free) {
+        MethodType type = MethodType.methodType(method.getReturnType(), method.getParameterTypes());
+        return method.getName() + "$$free_" + Integer.toHexString(type.hashCode()) + "_" + free;
+    }
+
+    /**
+     * Add a method which calls the given function to free memory, along with its link bootstrap.
+     * The method is the target of the cleanup action of owned segments.
+     */
+    private static void addFreeMethod(final ClassBuilder zb, final ClassDesc classDesc, final String methodName, final String free) {
+        String linkName = methodName + "$$link";
+        addLinkMethod(zb, classDesc, linkName, new Parameter[0], List.of(Transformation.PTR), Transformation.VOID, void.class, false, false, false);
+        zb.withMethod(methodName, MTD_void_MemorySegment, ClassFile.ACC_PRIVATE | ClassFile.ACC_STATIC | ClassFile.ACC_SYNTHETIC, mb -> {
+            mb.withCode(cb -> {
+                cb.aload(0);
+                cb.invokedynamic(DynamicCallSiteDesc.of(
+                    MethodHandleDesc.ofMethod(
+                        DirectMethodHandleDesc.Kind.STATIC,
+                        classDesc,
+                        linkName,
+                        MTD_link
+                    ),
+                    free,
+                    MTD_void_MemorySegment
+                ));
+                cb.return_();
+            });
+        });
+    }
+
+    private static String callbackMethodName(final Method method, final int index) {
+        MethodType type = MethodType.methodType(method.getReturnType(), method.getParameterTypes());
+        return method.getName() + "$$callback_" + Integer.toHexString(type.hashCode()) + "_" + index;
+    }
+
+    /**
+     * Add the adapter method of a callback parameter, which is the target of its upcall stubs, along with the bootstrap
+     * of the call site which produces the upcall stubs and the method which creates each upcall stub.
+     */
+    private static void addCallbackMethods(final ClassBuilder zb, final ClassDesc classDesc, final String methodName, final Callback callback) {
+        String adapterName = methodName + "$$adapter";
+        String upcallStubName = methodName + "$$upcallStub";
+        MethodTypeDesc adapterType = callback.adapterType();
+        zb.withMethod(adapterName, adapterType, ClassFile.ACC_PRIVATE | ClassFile.ACC_STATIC | ClassFile.ACC_SYNTHETIC, mb -> {
+            mb.withCode(callback::emitAdapter);
+        });
+        // creating an upcall stub is restricted, so it is done here, where native access is checked against the caller
+        zb.withMethod(upcallStubName, MTD_MemorySegment_MethodHandle_FunctionDescriptor_Arena, ClassFile.ACC_PRIVATE | ClassFile.ACC_STATIC | ClassFile.ACC_SYNTHETIC, mb -> {
+            mb.withCode(cb -> {
+                cb.invokestatic(CD_Linker, "nativeLinker", MTD_Linker, true);
+                cb.aload(0);
+                cb.aload(1);
+                cb.aload(2);
+                cb.iconst_0();
+                cb.anewarray(CD_Linker_Option);
+                cb.invokeinterface(CD_Linker, "upcallStub", MTD_MemorySegment_MethodHandle_FunctionDescriptor_Arena_Linker_Option_array);
+                cb.areturn();
+            });
+        });
+        zb.withMethod(methodName, MTD_link, ClassFile.ACC_PRIVATE | ClassFile.ACC_STATIC | ClassFile.ACC_SYNTHETIC, mb -> {
+            mb.withCode(cb -> {
+                cb.aload(0);
+                cb.aload(1);
+                cb.aload(2);
+                cb.ldc(MethodHandleDesc.ofMethod(DirectMethodHandleDesc.Kind.STATIC, classDesc, adapterName, adapterType));
+                callback.emitDescriptor(cb);
+                cb.ldc(MethodHandleDesc.ofMethod(DirectMethodHandleDesc.Kind.STATIC, classDesc, upcallStubName, MTD_MemorySegment_MethodHandle_FunctionDescriptor_Arena));
+                cb.invokestatic(CD_Bootstraps, "callback", MTD_callback);
+                cb.areturn();
+            });
+        });
+    }
+
+    /**
+     * Validate the {@link Link.returnSize} annotations of the given method.
+     */
+    private static void returnSizeCheck(final Method method, final Parameter[] parameters, final Transformation returnTransformation) {
+        Link.returnSize returnSize = method.getAnnotation(Link.returnSize.class);
+        int cnt = 0;
+        for (Parameter parameter : parameters) {
+            if (parameter.isAnnotationPresent(Link.returnSize.class)) {
+                Class<?> type = parameter.getType();
+                if (! type.isPrimitive() || ! isIntegral(type)) {
+                    throw new IllegalArgumentException("Parameter " + parameter + " of method " + method + " must be integral to give the return size");
+                }
+                cnt++;
+            }
+        }
+        if (returnSize != null) {
+            if (returnSize.value() < 0) {
+                throw new IllegalArgumentException("Method " + method + " must give a non-negative return size");
+            }
+            cnt++;
+        }
+        Class<?> returnType = returnType(method);
+        if (cnt > 1) {
+            throw new IllegalArgumentException("Method " + method + " has more than one return size");
+        } else if (cnt == 1) {
+            if (returnTransformation != Transformation.PTR || returnType != LazyLink.MEMORY_SEGMENT && returnType != ByteBuffer.class) {
+                throw new IllegalArgumentException("Method " + method + " must return a pointer as MemorySegment or ByteBuffer to give a return size");
+            }
+        } else if (returnType == ByteBuffer.class) {
+            throw new IllegalArgumentException("Method " + method + " must give a return size to return ByteBuffer");
+        }
+    }
+
+    /**
+     * Insert a result pointer so that it becomes the native parameter with the given index.
+     */
+    private static void insertResult(final Method method, final List<Transformation> transformations, final int index) {
+        int count = 0;
+        int pos = 0;
+        for (; pos < transformations.size(); pos++) {
+            if (transformations.get(pos).hasLayout()) {
+                if (count == index) {
+                    break;
+                }
+                count++;
+            }
+        }
+        if (count != index) {
+            throw new IllegalArgumentException("Method " + method + " has no native parameter at index " + index + " for its result");
+        }
+        transformations.add(pos, Transformation.RESULT);
+    }
+
+    private static MethodTypeDesc downcallType(final List<Transformation> transformations, final Transformation returnTransformation, final boolean errno) {
+        MethodTypeDesc downcallType = MethodTypeDesc.of(
+            returnTransformation.carrier().describeConstable().orElseThrow(),
+            transformations.stream().map(Transformation::carrier).filter(c -> c != void.class).map(Class::describeConstable).map(Optional::orElseThrow).toArray(ClassDesc[]::new)
+        );
+        if (errno) {
+            // the call state segment is passed first
+            downcallType = downcallType.insertParameterTypes(0, CD_MemorySegment);
+        }
+        if (returnTransformation == Transformation.STRUCT) {
+            // the allocator for the returned struct is passed before everything else
+            downcallType = downcallType.insertParameterTypes(0, CD_SegmentAllocator);
+        }
+        if (transformations.contains(Transformation.TARGET)) {
+            // the function address is passed before even that
+            downcallType = downcallType.insertParameterTypes(0, ConstantDescs.CD_long);
+        }
+        return downcallType;
+    }
+
+    /**
+     * Emit code to push the native linker and the symbol lookup which is used to find symbols,
+     * which is the lookup of the class loader of the generated class, falling back to the default lookup.
+     */
+    private static void emitSymbolLookup(final CodeBuilder cb) {
+        // first get our linker
+        cb.invokestatic(CD_Linker, "nativeLinker", MTD_Linker, true);
+        // stack: linker
+        cb.dup();
+        // stack: linker linker
+        // now get the caller-sensitive symbol lookup
+        cb.invokestatic(CD_SymbolLookup, "loaderLookup", MTD_SymbolLookup, true);
+        // stack: linker linker loaderLookup
+        cb.swap();
+        // stack: linker loaderLookup linker
+        // now configure it to fall back to the default lookup
+        cb.invokeinterface(CD_Linker, "defaultLookup", MTD_SymbolLookup);
+        // stack: linker loaderLookup defaultLookup
+        cb.invokeinterface(CD_SymbolLookup, "or", MTD_SymbolLookup_SymbolLookup);
+        // stack: linker combinedLookup
+    }
+
+    /**
+     * Add the bootstrap method for accesses to a native variable.
+     * The symbol is resolved and given the size of the variable when the call site is linked,
+     * and the access itself is built by {@link Bootstraps#variable}.
+     */
+    private static void addVariableMethod(final ClassBuilder zb, final String linkName, final long size) {
+        zb.withMethod(linkName, MTD_link, ClassFile.ACC_PRIVATE | ClassFile.ACC_STATIC | ClassFile.ACC_SYNTHETIC, mb -> {
+            mb.withCode(cb -> {
+                emitSymbolLookup(cb);
+                // stack: linker combinedLookup
+                cb.swap();
+                cb.pop();
+                // stack: combinedLookup
+                cb.aload(1);
+                cb.invokeinterface(CD_SymbolLookup, "find", MTD_Optional_String);
+                // stack: optional
+                cb.dup();
+                cb.invokevirtual(CD_Optional, "isPresent", MTD_boolean);
+                cb.ifThen(tb -> {
+                    // stack: optional
+                    tb.invokevirtual(CD_Optional, "get", MTD_Object);
+                    // the symbol has no size until it is reinterpreted, which is restricted
+                    tb.checkcast(CD_MemorySegment);
+                    tb.ldc(Long.valueOf(size));
+                    tb.invokeinterface(CD_MemorySegment, "reinterpret", MTD_MemorySegment_long);
+                    int symbolSlot = tb.allocateLocal(TypeKind.REFERENCE);
+                    tb.astore(symbolSlot);
+                    tb.aload(0);
+                    tb.aload(1);
+                    tb.aload(2);
+                    tb.aload(symbolSlot);
+                    tb.invokestatic(CD_Bootstraps, "variable", MTD_variable);
+                    tb.areturn();
+                });
+                // otherwise, linkage has failed
+                cb.pop();
+                cb.new_(CD_UnsatisfiedLinkError);
+                cb.dup();
+                cb.invokespecial(CD_UnsatisfiedLinkError, "<init>", MTD_void);
+                cb.athrow();
+            });
+        });
+    }
+
+    /**
+     * Emit the implementation of a method which reads or writes a native variable.
+     */
+    private static void emitVariableAccess(final CodeBuilder cb, final ClassDesc classDesc, final Method method, final Link link, final StructView.Accessor accessor, final String linkName) {
+        Class<?> type = accessor.type;
+        Class<?> valueType = accessor.valueType;
+        Class<?> memoryCarrier = accessor.memoryCarrier();
+        ClassDesc carrierDesc = memoryCarrier.describeConstable().orElseThrow();
+        String altName = link.name();
+        String varName = altName != null && ! altName.isEmpty() ? altName : method.getName();
+        DirectMethodHandleDesc bootstrap = MethodHandleDesc.ofMethod(DirectMethodHandleDesc.Kind.STATIC, classDesc, linkName, MTD_link);
+        if (accessor.setter) {
+            int valueVar = cb.parameterSlot(0);
+            if (valueType != type) {
+                TypeKind valueKind = TypeKind.from(valueType);
+                valueVar = cb.allocateLocal(valueKind);
+                cb.aload(cb.parameterSlot(0));
+                StructType.emitToValue(cb, type, valueType);
+                cb.storeLocal(valueKind, valueVar);
+            }
+            accessor.transformation.applyArgument(cb, valueVar, valueType, false, -1, Direction.in);
+            cb.invokedynamic(DynamicCallSiteDesc.of(bootstrap, varName, MethodTypeDesc.of(ConstantDescs.CD_void, carrierDesc)));
+            cb.return_();
+        } else {
+            cb.invokedynamic(DynamicCallSiteDesc.of(bootstrap, varName, MethodTypeDesc.of(carrierDesc)));
+            accessor.transformation.emitReturn(cb, valueType);
+            StructType.emitFromValue(cb, type, valueType);
+            cb.return_(TypeKind.from(type));
+        }
+    }
+
+    /**
+     * Emit code to push the function descriptor and the linker options of a linked function.
+     */
+    private static void emitDescriptorAndOptions(final CodeBuilder cb, final Parameter[] parameters, final List<Transformation> transformations, final Transformation returnTransformation, final Class<?> returnType, final boolean critical, final boolean heap, final boolean errno) {
+        // get the return type, if any
+        boolean nonVoid = returnTransformation != Transformation.VOID;
+        if (nonVoid) {
+            returnTransformation.emitLayout(cb, returnType);
+        }
+        // the parameters which correspond to native arguments
+        Parameter[] nativeParameters = Arrays.stream(parameters).filter(p -> p.getType() != LazyLink.ARENA).toArray(Parameter[]::new);
+        // get the function descriptor
+        int layoutCnt = (int) transformations.stream().filter(Transformation::hasLayout).count();
+        pushInt(cb, layoutCnt);
+        cb.anewarray(CD_MemoryLayout);
+        int idx = 0;
+        int paramIdx = 0;
+        for (Transformation transformation : transformations) {
+            if (transformation.hasLayout()) {
+                cb.dup();
+                pushInt(cb, idx ++);
+                transformation.emitLayout(cb, transformation.consumeArgument() && paramIdx < nativeParameters.length ? nativeParameters[paramIdx].getType() : null);
+                cb.aastore();
+            }
+            if (transformation.consumeArgument()) {
+                paramIdx++;
+            }
+        }
+        if (nonVoid) {
+            cb.invokestatic(CD_FunctionDescriptor, "of", MTD_FunctionDescriptor_MemoryLayout_MemoryLayout_array, true);
+        } else {
+            cb.invokestatic(CD_FunctionDescriptor, "ofVoid", MTD_FunctionDescriptor_MemoryLayout_array, true);
+        }
+        // stack: descriptor
+        // now we just need the options
+        int optCnt = (critical ? 1 : 0) + (errno ? 1 : 0) + (int) transformations.stream().filter(Transformation::hasOption).count();
+        pushInt(cb, optCnt);
+        cb.anewarray(CD_Linker_Option);
+        idx = 0;
+        int argIdx = 0;
+        for (Transformation transformation : transformations) {
+            if (transformation.hasOption()) {
+                cb.dup();
+                pushInt(cb, idx ++);
+                transformation.applyOption(cb, argIdx, nativeParameters[argIdx]);
+                cb.aastore();
+            }
+            if (transformation.consumeArgument()) {
+                argIdx++;
+            }
+        }
+        if (errno) {
+            cb.dup();
+            pushInt(cb, idx ++);
+            pushInt(cb, CallState.NAMES.length);
+            cb.anewarray(ConstantDescs.CD_String);
+            for (int i = 0; i < CallState.NAMES.length; i++) {
+                cb.dup();
+                pushInt(cb, i);
+                cb.ldc(CallState.NAMES[i]);
+                cb.aastore();
+            }
+            cb.invokestatic(CD_Linker_Option, "captureCallState", MTD_Linker_Option_String_array, true);
+            cb.aastore();
+        }
+        if (critical) {
+            cb.dup();
+            pushInt(cb, idx);
+            if (heap) {
+                cb.iconst_1();
+            } else {
+                cb.iconst_0();
+            }
+            cb.invokestatic(CD_Linker_Option, "critical", MTD_Linker_Option_boolean, true);
+            cb.aastore();
+        }
+        // stack: descriptor options
+    }
+
+    private static void addLinkMethod(final ClassBuilder zb, final ClassDesc classDesc, final String linkName, final Parameter[] parameters, final List<Transformation> transformations, final Transformation returnTransformation, final Class<?> returnType, final boolean critical, final boolean heap, final boolean errno) {
+        String downcallName = linkName + "$$downcall";
+        if (transformations.contains(Transformation.VARIADIC)) {
+            // each shape is linked at run time, but linking is restricted, so it is done here, where native access is checked against the caller
+            zb.withMethod(downcallName, MTD_MethodHandle_MemorySegment_FunctionDescriptor_Linker_Option_array, ClassFile.ACC_PRIVATE | ClassFile.ACC_STATIC | ClassFile.ACC_SYNTHETIC, mb -> {
+                mb.withCode(cb -> {
+                    cb.invokestatic(CD_Linker, "nativeLinker", MTD_Linker, true);
+                    cb.aload(0);
+                    cb.aload(1);
+                    cb.aload(2);
+                    cb.invokeinterface(CD_Linker, "downcallHandle", MTD_MethodHandle_MemorySegment_FunctionDescriptor_Linker_Option_array);
+                    cb.areturn();
+                });
+            });
+        }
+        zb.withMethod(linkName, MTD_link, ClassFile.ACC_PRIVATE | ClassFile.ACC_STATIC | ClassFile.ACC_SYNTHETIC, mb -> {
+            mb.withCode(cb -> {
+                if (transformations.contains(Transformation.TARGET)) {
+                    // there is no symbol; the function address is given to each call
+                    cb.aload(0);
+                    cb.aload(1);
+                    cb.aload(2);
+                    cb.invokestatic(CD_Linker, "nativeLinker", MTD_Linker, true);
+                    emitDescriptorAndOptions(cb, parameters, transformations, returnTransformation, returnType, critical, heap, errno);
+                    // stack: lookup name type linker descriptor options
+                    cb.invokeinterface(CD_Linker, "downcallHandle", MTD_MethodHandle_FunctionDescriptor_Linker_Option_array);
+                    // stack: lookup name type handle
+                    cb.invokestatic(CD_Bootstraps, "target", MTD_target);
+                    cb.areturn();
+                    return;
+                }
+                emitSymbolLookup(cb);
+                // stack: linker combinedLookup
+                // now look up our symbol
+                cb.aload(1);
+                // stack: linker combinedLookup name
+                cb.invokeinterface(CD_SymbolLookup, "find", MTD_Optional_String);
+                // stack: linker optional
+                cb.dup();
+                // stack: linker optional optional
+                cb.invokevirtual(CD_Optional, "isPresent", MTD_boolean);
+                // stack: linker optional boolean
+                cb.ifThen(tb -> {
+                    // stack: linker optional
+                    tb.invokevirtual(CD_Optional, "get", MTD_Object);
+                    tb.checkcast(CD_MemorySegment);
+                    // stack: linker fnPtr
+                    emitDescriptorAndOptions(tb, parameters, transformations, returnTransformation, returnType, critical, heap, errno);
+                    // stack: linker fnPtr descriptor options
+                    if (transformations.contains(Transformation.VARIADIC)) {
+                        // the variadic arguments are linked for each shape at run time, using the downcall method
+                        int[] slots = new int[3];
+                        for (int i = 2; i >= 0; i --) {
+                            slots[i] = tb.allocateLocal(TypeKind.REFERENCE);
+                            tb.astore(slots[i]);
+                        }
+                        // stack: linker
+                        tb.pop();
+                        // stack: --
+                        tb.aload(0);
+                        tb.aload(1);
+                        tb.aload(2);
+                        tb.ldc(MethodHandleDesc.ofMethod(DirectMethodHandleDesc.Kind.STATIC, classDesc, downcallName, MTD_MethodHandle_MemorySegment_FunctionDescriptor_Linker_Option_array));
+                        for (int slot : slots) {
+                            tb.aload(slot);
+                        }
+                        tb.invokestatic(CD_Bootstraps, "variadic", MTD_variadic);
+                        tb.areturn();
+                        return;
+                    }
+                    // finally link the function
+                    tb.invokeinterface(CD_Linker, "downcallHandle", MTD_MethodHandle_MemorySegment_FunctionDescriptor_Linker_Option_array);
+                    // stack: handle
+                    tb.aload(2);
+                    // stack: handle exp_type
+                    tb.invokevirtual(ConstantDescs.CD_MethodHandle, "asType", MTD_MethodHandle_MethodType);
+                    // now make a constant call site for it
+                    tb.new_(CD_ConstantCallSite);
+                    // stack: handle ccs
+                    tb.dup_x1();
+                    // stack: ccs handle ccs
+                    tb.swap();
+                    // stack: ccs ccs handle
+                    tb.invokespecial(CD_ConstantCallSite, "<init>", MTD_void_MethodHandle);
+                    // stack: ccs
+                    tb.areturn();
+                    // stack: -- (done)
+                });
+
+                // otherwise, linkage has failed
+                // stack: linker optional
+                cb.pop();
+                cb.pop();
+                // stack: --
+                cb.new_(CD_UnsatisfiedLinkError);
+                // stack: ule
+                cb.dup();
+                // stack: ule ule
+                cb.invokespecial(CD_UnsatisfiedLinkError, "<init>", MTD_void);
+                // stack: ule
+                cb.athrow();
+                // stack: -- (done)
+            });
+        });
+    }
+
+    /**
+     * Emit a call to the given stub method with all of the parameters of the current method, and return its result.
+     */
+    private static void emitInvokeStub(final CodeBuilder cb, final ClassDesc classDesc, final Parameter[] parameters, final String name, final MethodTypeDesc stubDesc) {
+        for (int i = 0; i < parameters.length; i++) {
+            cb.loadLocal(TypeKind.from(parameters[i].getType()), cb.parameterSlot(i));
+        }
+        cb.invokestatic(classDesc, name, stubDesc);
+        cb.return_(TypeKind.from(stubDesc.returnType()));
+    }
+
+    private static void emitStub(final CodeBuilder cb, final ClassDesc classDesc, final Method method, final Link link, final Parameter[] parameters, final List<Transformation> transformations, final Transformation[] elementTransformations, final Transformation returnTransformation, final MethodTypeDesc downcallType, final String linkName, final boolean heap, final boolean errno, final String errnoLinkName, final Link.checkReturn checkReturn) {
+        boolean arena = false;
+        boolean closeArena = false;
+        int arenaIdx = -1;
+        // first, see if we need to set up an allocation arena
+        Iterator<Transformation> iterator = transformations.iterator();
+        int paramCnt = parameters.length;
+        for (int i = 0; i < paramCnt; i++) {
+            final Class<?> argType = parameters[i].getType();
+            if (argType == LazyLink.ARENA) {
+                arena = true;
+                // just ignore extra arenas, I guess
+                if (arenaIdx == -1) {
+                    arenaIdx = cb.parameterSlot(i);
+                }
+                continue;
+            }
+            boolean isNativeEnum = NativeEnum.class.isAssignableFrom(argType) || argType == EnumSet.class;
+            boolean isNativeHandle = NativeHandle.class.isAssignableFrom(argType);
+            while (iterator.hasNext()) {
+                final Transformation transformation = iterator.next();
+                if (transformation.consumeArgument() && elementTransformations[i] != null) {
+                    // converted arrays are always copied
+                    arena = true;
+                } else if (transformation.needsArena(isNativeEnum ? int.class : isNativeHandle ? long.class : argType, heap)) {
+                    arena = true;
+                }
+                if (transformation.consumeArgument()) {
+                    break;
+                }
+            }
+        }
+        if (returnTransformation == Transformation.STRUCT) {
+            // returned structs are allocated from the arena
+            arena = true;
+        }
+        Class<?> returnType = returnType(method);
+        ResultType resultType = ResultType.isResult(returnType) ? ResultType.of(returnType) : null;
+        if (resultType != null && resultType.parameterIndexes().length > 0) {
+            // result out-parameters are allocated from the arena
+            arena = true;
+        }
+        // set up the arena, if any
+        if (arena && arenaIdx == -1) {
+            closeArena = true;
+            arenaIdx = cb.allocateLocal(TypeKind.REFERENCE);
+            cb.invokestatic(CD_Arena, "ofConfined", MTD_Arena, true);
+            cb.astore(arenaIdx);
+        }
+        Label tryRegionStart = cb.newBoundLabel();
+        ArrayDeque<Consumer<CodeBuilder>> cleanups = new ArrayDeque<>();
+        int resultSeg = resultType == null ? -1 : resultType.emitAllocate(cb, arenaIdx);
+        int resultOrdinal = 0;
+        for (int i = 0; i < paramCnt; i++) {
+            if (parameters[i].getAnnotation(Link.target.class) != null) {
+                // the function address is the first argument
+                if (parameters[i].getType() == long.class) {
+                    cb.lload(cb.parameterSlot(i));
+                } else {
+                    cb.aload(cb.parameterSlot(i));
+                    cb.invokeinterface(CD_MemorySegment, "address", MTD_long);
+                }
+            }
+        }
+        if (returnTransformation == Transformation.STRUCT) {
+            // the allocator for the returned struct
+            cb.aload(arenaIdx);
+        }
+        if (errno) {
+            // the call state segment is the first argument
+            cb.invokedynamic(DynamicCallSiteDesc.of(BSM_callState, "callState", MTD_MemorySegment));
+        }
+        // reset and begin again
+        iterator = transformations.iterator();
+        for (int i = 0; i < paramCnt; i++) {
+            Parameter parameter = parameters[i];
+            Link.dir dirAnn = parameter.getAnnotation(Link.dir.class);
+            Direction dir = dirAnn == null ? null : dirAnn.value();
+            final Class<?> argType = parameter.getType();
+            if (argType == LazyLink.ARENA) {
+                // skip
+                continue;
+            }
+            boolean isNativeEnum = NativeEnum.class.isAssignableFrom(argType) || argType == EnumSet.class;
+            boolean isNativeHandle = NativeHandle.class.isAssignableFrom(argType);
+            int ne = -1;
+            int nh = -1;
+            int paramSlot = cb.parameterSlot(i);
+            if (isNativeEnum) {
+                cb.aload(paramSlot);
+                if (argType == EnumSet.class) {
+                    emitFlags(cb, argType, int.class, parameter.getParameterizedType());
+                } else {
+                    StructType.emitToValue(cb, argType, int.class);
+                }
+                ne = cb.allocateLocal(TypeKind.INT);
+                cb.istore(ne);
+            } else if (isNativeHandle) {
+                cb.aload(paramSlot);
+                if (argType.isInterface()) {
+                    cb.invokeinterface(argType.describeConstable().orElseThrow(), "address", MTD_long);
+                } else {
+                    cb.invokevirtual(argType.describeConstable().orElseThrow(), "address", MTD_long);
+                }
+                nh = cb.allocateLocal(TypeKind.LONG);
+                cb.lstore(nh);
+            }
+            while (iterator.hasNext()) {
+                final Transformation transformation = iterator.next();
+                Consumer<CodeBuilder> cleanup;
+                if (transformation == Transformation.RESULT) {
+                    resultType.emitArgument(cb, resultSeg, resultOrdinal++);
+                    continue;
+                }
+                if (transformation == Transformation.CALLBACK) {
+                    // upcall stubs are owned by the caller's arena, if any
+                    cb.aload(paramSlot);
+                    if (closeArena || arenaIdx == -1) {
+                        cb.aconst_null();
+                    } else {
+                        cb.aload(arenaIdx);
+                    }
+                    cb.invokedynamic(DynamicCallSiteDesc.of(
+                        MethodHandleDesc.ofMethod(DirectMethodHandleDesc.Kind.STATIC, classDesc, callbackMethodName(method, i), MTD_link),
+                        "callback",
+                        MethodTypeDesc.of(CD_MemorySegment, argType.describeConstable().orElseThrow(), CD_Arena)
+                    ));
+                    break;
+                }
+                if (transformation.consumeArgument() && elementTransformations[i] != null) {
+                    cleanup = elementTransformations[i].applyArrayArgument(cb, paramSlot, argType, arenaIdx, dir);
+                } else if (isNativeEnum) {
+                    cleanup = transformation.applyArgument(cb, ne, int.class, heap, arenaIdx, dir);
+                } else if (isNativeHandle) {
+                    cleanup = transformation.applyArgument(cb, nh, long.class, heap, arenaIdx, dir);
+                } else {
+                    cleanup = transformation.applyArgument(cb, paramSlot, argType, heap, arenaIdx, dir);
+                }
+                if (cleanup != null) {
+                    cleanups.addLast(cleanup);
+                }
+                if (transformation.consumeArgument()) {
+                    break;
+                }
+            }
+        }
+        // trailing result pointers
+        while (iterator.hasNext()) {
+            if (iterator.next() == Transformation.RESULT) {
+                resultType.emitArgument(cb, resultSeg, resultOrdinal++);
+            }
+        }
+
+        String altName = link.name();
+        String fnName = altName != null && ! altName.isEmpty() ? altName : method.getName();
+        cb.invokedynamic(DynamicCallSiteDesc.of(
+            MethodHandleDesc.ofMethod(
+                DirectMethodHandleDesc.Kind.STATIC,
+                classDesc,
+                linkName,
+                MTD_link
+            ),
+            fnName,
+            downcallType
+        ));
+        if (checkReturn != null) {
+            emitReturnCheck(cb, classDesc, parameters, returnTransformation, checkReturn, errnoLinkName);
+        } else if (errnoLinkName != null) {
+            emitErrnoRead(cb, classDesc, parameters, returnTransformation, errnoLinkName);
+        }
+        // advance buffers by the number of bytes transferred
+        for (int i = 0; i < paramCnt; i++) {
+            if (parameters[i].isAnnotationPresent(Link.advance.class)) {
+                int cntSlot = cb.allocateLocal(TypeKind.LONG);
+                if (returnTransformation.carrier() == int.class) {
+                    cb.dup();
+                    cb.i2l();
+                } else {
+                    cb.dup2();
+                }
+                cb.lstore(cntSlot);
+                cb.aload(cb.parameterSlot(i));
+                cb.lload(cntSlot);
+                cb.invokedynamic(DynamicCallSiteDesc.of(BSM_advance, "advance", MTD_void_ByteBuffer_array_long));
+            }
+        }
+        // apply all cleanups
+        while (! cleanups.isEmpty()) {
+            cleanups.removeLast().accept(cb);
+        }
+        if (resultType != null) {
+            resultType.emitConstruct(cb, resultSeg, returnTransformation, (xb, component) -> {
+                Link.owned owned = component.getAnnotation(Link.owned.class);
+                if (owned != null) {
+                    // attach the owned segment to the arena, unless it is NULL
+                    int segSlot = xb.allocateLocal(TypeKind.REFERENCE);
+                    xb.astore(segSlot);
+                    xb.aload(segSlot);
+                    xb.invokeinterface(CD_MemorySegment, "address", MTD_long);
+                    xb.lconst_0();
+                    xb.lcmp();
+                    xb.ifThen(Opcode.IFNE, tb -> {
+                        tb.aload(segSlot);
+                        tb.lconst_0();
+                        emitReinterpret(tb, classDesc, method, parameters, owned);
+                        tb.astore(segSlot);
+                    });
+                    xb.aload(segSlot);
+                }
+            });
+        } else if (returnType == EnumSet.class || returnType == NativeFlags.class) {
+            returnTransformation.emitReturn(cb, int.class);
+            emitFlags(cb, int.class, returnType, genericReturnType(method));
+        } else if (NativeEnum.class.isAssignableFrom(returnType)) {
+            returnTransformation.emitReturn(cb, int.class);
+            StructType.emitFromValue(cb, returnType, int.class);
+        } else if (returnTransformation == Transformation.PTR && (hasReturnSize(method, parameters) || method.isAnnotationPresent(Link.owned.class))) {
+            emitSizedReturn(cb, classDesc, method, parameters, returnType);
+        } else if (returnType == String.class && returnTransformation == Transformation.PTR) {
+            Link.string string = method.getAnnotation(Link.string.class);
+            int maxLength = string == null ? Integer.MAX_VALUE - 8 : string.maxLength();
+            String charset = string == null ? "UTF-8" : string.charset();
+            // the bounds of the string are given here, where native access is checked against the caller
+            cb.ldc(Long.valueOf((long) maxLength + CString.terminatorSize(Charset.forName(charset))));
+            cb.invokeinterface(CD_MemorySegment, "reinterpret", MTD_MemorySegment_long);
+            cb.invokedynamic(DynamicCallSiteDesc.of(
+                BSM_string,
+                "string",
+                MTD_String_MemorySegment,
+                Integer.valueOf(maxLength),
+                charset,
+                Integer.valueOf(string == null ? 0 : string.cacheSize())
+            ));
+        } else if (NativeHandle.class.isAssignableFrom(returnType)) {
+            returnTransformation.emitReturn(cb, long.class);
+            cb.invokestatic(returnType.describeConstable().orElseThrow(), "fromAddress", MethodTypeDesc.of(returnType.describeConstable().orElseThrow(), ConstantDescs.CD_long), returnType.isInterface());
+        } else {
+            returnTransformation.emitReturn(cb, returnType);
+        }
+        if (closeArena) {
+            Label tryRegionEnd = cb.newBoundLabel();
+            Label catcher = cb.newLabel();
+            cb.exceptionCatch(tryRegionStart, tryRegionEnd, catcher, Optional.empty());
+            // clean up arena
+            cb.aload(arenaIdx);
+            cb.invokeinterface(CD_Arena, "close", MTD_void);
+            cb.return_(TypeKind.from(returnType));
+            cb.labelBinding(catcher);
+            // clean up arena (catch)
+            cb.aload(arenaIdx);
+            cb.invokeinterface(CD_Arena, "close", MTD_void);
+            // rethrow the exception
+            cb.athrow();
+        } else {
+            cb.return_(TypeKind.from(returnType));
+        }
+    }
+
+    private static boolean hasReturnSize(final Method method, final Parameter[] parameters) {
+        if (method.isAnnotationPresent(Link.returnSize.class)) {
+            return true;
+        }
+        for (Parameter parameter : parameters) {
+            if (parameter.isAnnotationPresent(Link.returnSize.class)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Emit code to convert the returned pointer on the stack to a segment of the size which is given by {@link Link.returnSize}.
+     * The segment is associated with the first {@code Arena} parameter, if any,
+     * and is freed when the arena is closed if the method is annotated with {@link Link.owned}.
+     * {@code NULL} pointers are not resized.
+     */
+    private static void emitSizedReturn(final CodeBuilder cb, final ClassDesc classDesc, final Method method, final Parameter[] parameters, final Class<?> returnType) {
+        int segSlot = cb.allocateLocal(TypeKind.REFERENCE);
+        cb.astore(segSlot);
+        cb.aload(segSlot);
+        cb.invokeinterface(CD_MemorySegment, "address", MTD_long);
+        cb.lconst_0();
+        cb.lcmp();
+        Label isNull = cb.newLabel();
+        Label done = cb.newLabel();
+        cb.ifeq(isNull);
+        cb.aload(segSlot);
+        Link.returnSize returnSize = method.getAnnotation(Link.returnSize.class);
+        boolean sized = returnSize != null;
+        for (int i = 0; i < parameters.length; i++) {
+            Parameter parameter = parameters[i];
+            if (parameter.isAnnotationPresent(Link.returnSize.class)) {
+                TypeKind tk = TypeKind.from(parameter.getType());
+                cb.loadLocal(tk, cb.parameterSlot(i));
+                if (tk != TypeKind.LONG) {
+                    cb.i2l();
+                }
+                sized = true;
+            }
+        }
+        if (returnSize != null) {
+            cb.ldc(Long.valueOf(returnSize.value()));
+        } else if (! sized) {
+            // owned memory of unknown size
+            cb.lconst_0();
+        }
+        emitReinterpret(cb, classDesc, method, parameters, method.getAnnotation(Link.owned.class));
+        Transformation.PTR.emitReturn(cb, returnType);
+        cb.goto_(done);
+        cb.labelBinding(isNull);
+        if (returnType == ByteBuffer.class) {
+            cb.aconst_null();
+        } else {
+            cb.aload(segSlot);
+        }
+        cb.labelBinding(done);
+    }
+
+    /**
+     * Emit code to reinterpret the segment on the stack using the size on the stack.
+     * The segment is associated with the first {@code Arena} parameter, if any,
+     * and is freed when the arena is closed if {@code owned} is given.
+     */
+    private static void emitReinterpret(final CodeBuilder cb, final ClassDesc classDesc, final Method method, final Parameter[] parameters, final Link.owned owned) {
+        int arenaIdx = arenaParameter(parameters);
+        if (arenaIdx == -1) {
+            cb.invokeinterface(CD_MemorySegment, "reinterpret", MTD_MemorySegment_long);
+            return;
+        }
+        cb.aload(cb.parameterSlot(arenaIdx));
+        if (owned == null) {
+            cb.aconst_null();
+        } else {
+            // a non-capturing lambda is a constant, so no allocation occurs here
+            cb.invokedynamic(DynamicCallSiteDesc.of(
+                BSM_metafactory,
+                "accept",
+                MTD_Consumer,
+                MTD_void_Object,
+                MethodHandleDesc.ofMethod(DirectMethodHandleDesc.Kind.STATIC, classDesc, freeMethodName(method, owned.free()), MTD_void_MemorySegment),
+                MTD_void_MemorySegment
+            ));
+        }
+        cb.invokeinterface(CD_MemorySegment, "reinterpret", MTD_MemorySegment_long_Arena_Consumer);
+    }
+
+    /**
+     * Emit a read of the current thread's {@code errno} into the capture segment, if the call result
+     * on the top of the stack indicates a failure.
+     * Integral results indicate a failure when they are negative,
+     * pointer results indicate a failure when they are {@code NULL}, and
+     * boolean results indicate a failure when they are {@code false}.
+     * For other result types (including structures, which are returned by value), {@code errno} is always read.
+     */
+    private static void emitErrnoRead(final CodeBuilder cb, final ClassDesc classDesc, final Parameter[] parameters, final Transformation returnTransformation, final String errnoLinkName) {
+        Class<?> carrier = returnTransformation.carrier();
+        TypeKind tk = TypeKind.from(carrier);
+        int resultSlot = -1;
+        if (tk != TypeKind.VOID) {
+            resultSlot = cb.allocateLocal(tk);
+            cb.storeLocal(tk, resultSlot);
+        }
+        Label done = cb.newLabel();
+        switch (tk) {
+            case BYTE, SHORT, CHAR, INT -> {
+                cb.iload(resultSlot);
+                cb.ifge(done);
+            }
+            case LONG -> {
+                cb.lload(resultSlot);
+                cb.lconst_0();
+                cb.lcmp();
+                cb.ifge(done);
+            }
+            case BOOLEAN -> {
+                cb.iload(resultSlot);
+                cb.ifne(done);
+            }
+            case REFERENCE -> {
+                if (carrier == LazyLink.MEMORY_SEGMENT && returnTransformation != Transformation.STRUCT) {
+                    cb.aload(resultSlot);
+                    cb.invokeinterface(CD_MemorySegment, "address", MTD_long);
+                    cb.lconst_0();
+                    cb.lcmp();
+                    cb.ifne(done);
+                }
+            }
+            default -> {}
+        }
+        emitErrnoStore(cb, classDesc, parameters, errnoLinkName);
+        cb.labelBinding(done);
+        if (resultSlot != -1) {
+            cb.loadLocal(tk, resultSlot);
+        }
+    }
 
     /**
-     * Construct a new instance.
-     *
-     * @param lookup the lookup to use for resolution (must not be {@code null})
+     * Emit a read of the current thread's {@code errno} into the capture segment.
      */
-    public AutoLinker(final MethodHandles.Lookup lookup) {
-        this.lookup = Assert.checkNotNullParam("lookup", lookup);
+    private static void emitErrnoStore(final CodeBuilder cb, final ClassDesc classDesc, final Parameter[] parameters, final String errnoLinkName) {
+        emitCaptureSegment(cb, parameters);
+        cb.getstatic(CD_ValueLayout, "JAVA_INT", CD_ValueLayout_OfInt);
+        cb.ldc(Long.valueOf(CallState.ERRNO_OFFSET));
+        // read errno from its thread-local location
+        cb.invokedynamic(DynamicCallSiteDesc.of(
+            MethodHandleDesc.ofMethod(
+                DirectMethodHandleDesc.Kind.STATIC,
+                classDesc,
+                errnoLinkName,
+                MTD_link
+            ),
+            ERRNO_LOCATION,
+            MTD_MemorySegment
+        ));
+        cb.ldc(Long.valueOf(Integer.BYTES));
+        cb.invokeinterface(CD_MemorySegment, "reinterpret", MTD_MemorySegment_long);
+        cb.getstatic(CD_ValueLayout, "JAVA_INT", CD_ValueLayout_OfInt);
+        cb.lconst_0();
+        cb.invokeinterface(CD_MemorySegment, "get", MTD_int_ValueLayout_OfInt_long);
+        // stack: segment layout offset errno
+        cb.invokeinterface(CD_MemorySegment, "set", MTD_void_ValueLayout_OfInt_long_int);
     }
 
     /**
-     * Autolink the given interface.
-     * Each method on the interface which is annotated with {@link Link}
-     * will be implemented to automatically link against the corresponding native function.
-     * If the interface fails to be linked, this method will throw a run time exception.
-     *
-     * @param interface_ the interface (must not be {@code null})
-     * @return the autolinked implementation of the interface (not {@code null})
-     * @param <T> the type of the interface
+     * Emit a push of the segment into which call state is captured,
+     * which is either the {@link Link.capture} parameter or the library-managed call state segment.
      */
-    public <T> T autoLink(Class<? extends T> interface_) {
-        return interface_.cast(linkables.get(interface_));
+    private static void emitCaptureSegment(final CodeBuilder cb, final Parameter[] parameters) {
+        for (int i = 0; i < parameters.length; i++) {
+            if (parameters[i].getAnnotation(Link.capture.class) != null) {
+                cb.aload(cb.parameterSlot(i));
+                return;
+            }
+        }
+        cb.invokedynamic(DynamicCallSiteDesc.of(BSM_callState, "callState", MTD_MemorySegment));
     }
 
     /**
-     * Compile an auto-linker class for the given type.
-     * This can be used to generate an offline linker class.
-     *
-     * @param interface_ the interface (must not be {@code null})
-     * @param classDesc the descriptor of the class to generate (must not be {@code null})
-     * @return the class bytes
+     * Validate the {@link Link.checkReturn} annotation of the given method.
      */
-    public static byte[] compileAutoLinkerFor(final Class<?> interface_, final ClassDesc classDesc) {
-        if (! interface_.isInterface()) {
-            throw new IllegalArgumentException(interface_ + " is not an interface");
+    private static void checkReturnCheck(final Method method, final Parameter[] parameters, final Transformation returnTransformation, final Link.checkReturn checkReturn) {
+        Class<?> carrier = returnTransformation.carrier();
+        if (checkReturn.onNegative() && ! (carrier.isPrimitive() && isIntegral(carrier))) {
+            throw new IllegalArgumentException("Method " + method + " must return an integral value to check for negative values");
         }
-        HashSet<Class<?>> visitedInterfaces = new HashSet<>();
-        ArrayDeque<Class<?>> breadthQueue = new ArrayDeque<>();
-        breadthQueue.add(interface_);
-        populateQueue(interface_, breadthQueue, visitedInterfaces);
-        ClassFile cf = ClassFile.of(ClassFile.StackMapsOption.GENERATE_STACK_MAPS);
-        return cf.build(classDesc, zb -> {
-            zb.withFlags(AccessFlag.FINAL);
-            zb.withVersion(ClassFile.JAVA_22_VERSION, 0);
-            zb.withInterfaceSymbols(interface_.describeConstable().orElseThrow());
-            // create trivial constructor
-            zb.withMethod("<init>", MTD_void, ClassFile.ACC_PUBLIC, mb -> {
-                mb.withCode(cb -> {
-                    cb.aload(0);
-                    cb.invokespecial(ConstantDescs.CD_Object, "<init>", MTD_void);
-                    cb.return_();
-                });
-            });
-            HashMap<String, HashSet<MethodType>> visitedMethods = new HashMap<>();
-            for (Class<?> current = breadthQueue.pollFirst(); current != null; current = breadthQueue.pollFirst()) {
-                processMethods(zb, classDesc, current, visitedMethods);
+        if (checkReturn.onNull() && ! (carrier == LazyLink.MEMORY_SEGMENT && returnTransformation != Transformation.STRUCT || carrier == int.class || carrier == long.class)) {
+            throw new IllegalArgumentException("Method " + method + " must return a pointer to check for null values");
+        }
+        if (! checkReturn.onNegative() && ! checkReturn.onNull()) {
+            throw new IllegalArgumentException("Method " + method + " does not specify a return value condition to check");
+        }
+        for (Parameter parameter : parameters) {
+            Link.capture capture = parameter.getAnnotation(Link.capture.class);
+            if (capture != null && ! List.of(capture.value()).contains("errno")) {
+                throw new IllegalArgumentException("Method " + method + " must capture errno to check its return value");
             }
-        });
+        }
+        Method factory = exceptionFactory(checkReturn.exception());
+        if (Exception.class.isAssignableFrom(factory.getReturnType()) && ! RuntimeException.class.isAssignableFrom(factory.getReturnType())) {
+            // make sure that the checked exception is declared
+            boolean declared = false;
+            for (Class<?> exceptionType : method.getExceptionTypes()) {
+                if (exceptionType.isAssignableFrom(factory.getReturnType())) {
+                    declared = true;
+                    break;
+                }
+            }
+            if (! declared) {
+                throw new IllegalArgumentException("Method " + method + " must declare " + factory.getReturnType().getName() + " to check its return value");
+            }
+        }
     }
 
-    private static void populateQueue(final Class<?> type, final ArrayDeque<Class<?>> breadthQueue, final HashSet<Class<?>> visitedInterfaces) {
-        Class<?>[] interfaces = type.getInterfaces();
-        List<Class<?>> filteredSupers = new ArrayList<>(interfaces.length);
-        for (Class<?> superInterface : interfaces) {
-            if (visitedInterfaces.add(superInterface)) {
-                filteredSupers.add(superInterface);
+    /**
+     * {@return the exception factory method of the given class}
+     * The method must be a {@code static} method named {@code create} which accepts either an {@code int}
+     * or a {@link NativeEnum} type and which returns a {@code Throwable}.
+     */
+    private static Method exceptionFactory(final Class<?> factoryClass) {
+        for (Method method : factoryClass.getDeclaredMethods()) {
+            if (method.getName().equals("create") && Modifier.isStatic(method.getModifiers()) && method.getParameterCount() == 1 && Throwable.class.isAssignableFrom(method.getReturnType())) {
+                Class<?> paramType = method.getParameterTypes()[0];
+                if (paramType == int.class || NativeEnum.class.isAssignableFrom(paramType)) {
+                    return method;
+                }
             }
         }
-        breadthQueue.addAll(filteredSupers);
-        for (Class<?> filteredSuper : filteredSupers) {
-            populateQueue(filteredSuper, breadthQueue, visitedInterfaces);
-        }
+        throw new IllegalArgumentException("Exception factory " + factoryClass + " has no static create method which accepts an int or NativeEnum and returns a Throwable");
     }
 
-    private static void processMethods(final ClassBuilder zb, final ClassDesc classDesc, final Class<?> interface_, final HashMap<String, HashSet<MethodType>> visitedMethods) {
-        for (Method method : interface_.getDeclaredMethods()) {
-            int mods = method.getModifiers();
-            if (Modifier.isStatic(mods)) {
-                continue;
-            }
-            Link link = method.getAnnotation(Link.class);
-            if (link == null) {
-                // just don't implement it
-                continue;
+    /**
+     * Emit a check of the call result on the top of the stack, which throws an exception
+     * from the exception factory if the result indicates a failure.
+     */
+    private static void emitReturnCheck(final CodeBuilder cb, final ClassDesc classDesc, final Parameter[] parameters, final Transformation returnTransformation, final Link.checkReturn checkReturn, final String errnoLinkName) {
+        TypeKind tk = TypeKind.from(returnTransformation.carrier());
+        int resultSlot = cb.allocateLocal(tk);
+        cb.storeLocal(tk, resultSlot);
+        Label failed = cb.newLabel();
+        Label done = cb.newLabel();
+        if (checkReturn.onNegative()) {
+            cb.loadLocal(tk, resultSlot);
+            if (tk == TypeKind.LONG) {
+                cb.lconst_0();
+                cb.lcmp();
             }
-            MethodType type = MethodType.methodType(method.getReturnType(), method.getParameterTypes());
-            if (visitedMethods.computeIfAbsent(method.getName(), AutoLinker::newHashSet).add(type)) {
-                if (! Modifier.isAbstract(mods)) {
-                    // exclude method on all levels
-                    continue;
-                }
-                List<Transformation> transformations = new ArrayList<>(method.getParameterCount() + 4);
-                Parameter[] parameters = method.getParameters();
-                for (final Parameter parameter : parameters) {
-                    if (parameter.getAnnotation(Link.va_start.class) != null) {
-                        transformations.add(Transformation.START_VA);
-                    }
-                    if (parameter.getAnnotation(Link.capture.class) != null) {
-                        transformations.add(Transformation.CAPTURE);
-                        continue;
-                    }
-                    Link.as linkAs = parameter.getAnnotation(Link.as.class);
-                    if (linkAs != null) {
-                        transformations.add(transformationFor(linkAs.value()));
-                    } else {
-                        // determine type
-                        transformations.add(Transformation.forJavaType(parameter.getType()));
-                    }
+            cb.iflt(failed);
+        }
+        if (checkReturn.onNull()) {
+            cb.loadLocal(tk, resultSlot);
+            switch (tk) {
+                case REFERENCE -> {
+                    cb.invokeinterface(CD_MemorySegment, "address", MTD_long);
+                    cb.lconst_0();
+                    cb.lcmp();
                 }
-                Transformation returnTransformation;
-                Link.as returnLinkAs = method.getAnnotation(Link.as.class);
-                if (returnLinkAs != null) {
-                    returnTransformation = transformationFor(returnLinkAs.value());
-                } else {
-                    returnTransformation = Transformation.forJavaType(method.getReturnType());
+                case LONG -> {
+                    cb.lconst_0();
+                    cb.lcmp();
                 }
-                MethodTypeDesc downcallType = MethodTypeDesc.of(
-                    returnTransformation.carrier().describeConstable().orElseThrow(),
-                    transformations.stream().map(Transformation::carrier).filter(c -> c != void.class).map(Class::describeConstable).map(Optional::orElseThrow).toArray(ClassDesc[]::new)
-                );
-                Link.critical critical = method.getAnnotation(Link.critical.class);
-
-                // add the bootstrap for the indy
-                int hash = type.hashCode();
-                String linkName = method.getName() + "$$link_" + Integer.toHexString(hash);
-                zb.withMethod(linkName, MTD_link, ClassFile.ACC_PRIVATE | ClassFile.ACC_STATIC | ClassFile.ACC_SYNTHETIC, mb -> {
-                    mb.withCode(cb -> {
-                        // first get our linker
-                        cb.invokestatic(CD_Linker, "nativeLinker", MTD_Linker, true);
-                        // stack: linker
-                        cb.dup();
-                        // stack: linker linker
-                        // now get the caller-sensitive symbol lookup
-                        cb.invokestatic(CD_SymbolLookup, "loaderLookup", MTD_SymbolLookup, true);
-                        // stack: linker linker loaderLookup
-                        cb.swap();
-                        // stack: linker loaderLookup linker
-                        // now configure it to fall back to the default lookup
-                        cb.invokeinterface(CD_Linker, "defaultLookup", MTD_SymbolLookup);
-                        // stack: linker loaderLookup defaultLookup
-                        cb.invokeinterface(CD_SymbolLookup, "or", MTD_SymbolLookup_SymbolLookup);
-                        // stack: linker combinedLookup
-                        // now look up our symbol
-                        cb.aload(1);
-                        // stack: linker combinedLookup name
-                        cb.invokeinterface(CD_SymbolLookup, "find", MTD_Optional_String);
-                        // stack: linker optional
-                        cb.dup();
-                        // stack: linker optional optional
-                        cb.invokevirtual(CD_Optional, "isPresent", MTD_boolean);
-                        // stack: linker optional boolean
-                        cb.ifThen(tb -> {
-                            // stack: linker optional
-                            tb.invokevirtual(CD_Optional, "get", MTD_Object);
-                            tb.checkcast(CD_MemorySegment);
-                            // stack: linker fnPtr
-                            // get the return type, if any
-                            boolean nonVoid = returnTransformation != Transformation.VOID;
-                            if (nonVoid) {
-                                returnTransformation.emitLayout(tb);
-                            }
-                            // get the function descriptor
-                            int layoutCnt = (int) transformations.stream().filter(Transformation::hasLayout).count();
-                            pushInt(tb, layoutCnt);
-                            tb.anewarray(CD_MemoryLayout);
-                            int idx = 0;
-                            for (Transformation transformation : transformations) {
-                                if (transformation.hasLayout()) {
-                                    tb.dup();
-                                    pushInt(tb, idx ++);
-                                    transformation.emitLayout(tb);
-                                    tb.aastore();
-                                }
-                            }
-                            if (nonVoid) {
-                                tb.invokestatic(CD_FunctionDescriptor, "of", MTD_FunctionDescriptor_MemoryLayout_MemoryLayout_array, true);
-                            } else {
-                                tb.invokestatic(CD_FunctionDescriptor, "ofVoid", MTD_FunctionDescriptor_MemoryLayout_array, true);
-                            }
-                            // stack: linker fnPtr descriptor
-                            // now we just need the options
-                            int optCnt = (critical != null ? 1 : 0) + (int) transformations.stream().filter(Transformation::hasOption).count();
-                            pushInt(tb, optCnt);
-                            tb.anewarray(CD_Linker_Option);
-                            idx = 0;
-                            int argIdx = 0;
-                            for (Transformation transformation : transformations) {
-                                if (transformation.hasOption()) {
-                                    tb.dup();
-                                    pushInt(tb, idx ++);
-                                    transformation.applyOption(tb, argIdx, parameters[argIdx]);
-                                    tb.aastore();
-                                }
-                                if (transformation.consumeArgument()) {
-                                    argIdx++;
-                                }
-                            }
-                            if (critical != null) {
-                                tb.dup();
-                                pushInt(tb, idx);
-                                if (critical.heap()) {
-                                    tb.iconst_1();
-                                } else {
-                                    tb.iconst_0();
-                                }
-                                tb.invokestatic(CD_Linker_Option, "critical", MTD_Linker_Option_boolean, true);
-                                tb.aastore();
-                            }
-                            // stack: linker fnPtr descriptor options
-                            // finally link the function
-                            tb.invokeinterface(CD_Linker, "downcallHandle", MTD_MethodHandle_MemorySegment_FunctionDescriptor_Linker_Option_array);
-                            // stack: handle
-                            tb.aload(2);
-                            // stack: handle exp_type
-                            tb.invokevirtual(ConstantDescs.CD_MethodHandle, "asType", MTD_MethodHandle_MethodType);
-                            // now make a constant call site for it
-                            tb.new_(CD_ConstantCallSite);
-                            // stack: handle ccs
-                            tb.dup_x1();
-                            // stack: ccs handle ccs
-                            tb.swap();
-                            // stack: ccs ccs handle
-                            tb.invokespecial(CD_ConstantCallSite, "<init>", MTD_void_MethodHandle);
-                            // stack: ccs
-                            tb.areturn();
-                            // stack: -- (done)
-                        });
-
-                        // otherwise, linkage has failed
-                        // stack: linker optional
-                        cb.pop();
-                        cb.pop();
-                        // stack: --
-                        cb.new_(CD_UnsatisfiedLinkError);
-                        // stack: ule
-                        cb.dup();
-                        // stack: ule ule
-                        cb.invokespecial(CD_UnsatisfiedLinkError, "<init>", MTD_void);
-                        // stack: ule
-                        cb.athrow();
-                        // stack: -- (done)
-                    });
-                });
-                // add the method
-                zb.withMethod(method.getName(), type.describeConstable().orElseThrow(), ClassFile.ACC_PUBLIC | ClassFile.ACC_FINAL | ClassFile.ACC_SYNTHETIC, mb -> {
-                    mb.withCode(cb -> {
-                        boolean arena = false;
-                        boolean closeArena = false;
-                        int arenaIdx = -1;
-                        // first, see if we need to set up an allocation arena
-                        boolean heap = critical != null && critical.heap();
-                        Iterator<Transformation> iterator = transformations.iterator();
-                        int paramCnt = method.getParameterCount();
-                        for (int i = 0; i < paramCnt; i++) {
-                            final Class<?> argType = parameters[i].getType();
-                            if (argType == LazyLink.ARENA) {
-                                arena = true;
-                                // just ignore extra arenas, I guess
-                                if (arenaIdx == -1) {
-                                    arenaIdx = cb.parameterSlot(i);
-                                }
-                                continue;
-                            }
-                            boolean isNativeEnum = NativeEnum.class.isAssignableFrom(argType);
-                            while (iterator.hasNext()) {
-                                final Transformation transformation = iterator.next();
-                                if (transformation.needsArena(isNativeEnum ? int.class : argType, heap)) {
-                                    arena = true;
-                                }
-                                if (transformation.consumeArgument()) {
-                                    break;
-                                }
-                            }
-                        }
-                        // set up the arena, if any
-                        if (arena && arenaIdx == -1) {
-                            closeArena = true;
-                            arenaIdx = cb.allocateLocal(TypeKind.REFERENCE);
-                            cb.invokestatic(CD_Arena, "ofConfined", MTD_Arena, true);
-                            cb.astore(arenaIdx);
-                        }
-                        Label tryRegionStart = cb.newBoundLabel();
-                        ArrayDeque<Consumer<CodeBuilder>> cleanups = new ArrayDeque<>();
-                        // reset and begin again
-                        iterator = transformations.iterator();
-                        for (int i = 0; i < paramCnt; i++) {
-                            Parameter parameter = parameters[i];
-                            Link.dir dirAnn = parameter.getAnnotation(Link.dir.class);
-                            Direction dir = dirAnn == null ? null : dirAnn.value();
-                            final Class<?> argType = parameter.getType();
-                            if (argType == LazyLink.ARENA) {
-                                // skip
-                                continue;
-                            }
-                            boolean isNativeEnum = NativeEnum.class.isAssignableFrom(argType);
-                            int ne = -1;
-                            int paramSlot = cb.parameterSlot(i);
-                            if (isNativeEnum) {
-                                cb.aload(paramSlot);
-                                if (argType.isInterface()) {
-                                    cb.invokeinterface(argType.describeConstable().orElseThrow(), "nativeCode", MTD_int);
-                                } else {
-                                    cb.invokevirtual(argType.describeConstable().orElseThrow(), "nativeCode", MTD_int);
-                                }
-                                ne = cb.allocateLocal(TypeKind.INT);
-                                cb.istore(ne);
-                            }
-                            while (iterator.hasNext()) {
-                                final Transformation transformation = iterator.next();
-                                Consumer<CodeBuilder> cleanup;
-                                if (isNativeEnum) {
-                                    cleanup = transformation.applyArgument(cb, ne, int.class, heap, arenaIdx, dir);
-                                } else {
-                                    cleanup = transformation.applyArgument(cb, paramSlot, argType, heap, arenaIdx, dir);
-                                }
-                                if (cleanup != null) {
-                                    cleanups.addLast(cleanup);
-                                }
-                                if (transformation.consumeArgument()) {
-                                    break;
-                                }
-                            }
-                        }
-
-                        String altName = link.name();
-                        String fnName = altName != null && ! altName.isEmpty() ? altName : method.getName();
-                        cb.invokedynamic(DynamicCallSiteDesc.of(
-                            MethodHandleDesc.ofMethod(
-                                DirectMethodHandleDesc.Kind.STATIC,
-                                classDesc,
-                                linkName,
-                                MTD_link
-                            ),
-                            fnName,
-                            downcallType
-                        ));
-                        // apply all cleanups
-                        while (! cleanups.isEmpty()) {
-                            cleanups.removeLast().accept(cb);
-                        }
-                        Class<?> returnType = method.getReturnType();
-                        if (NativeEnum.class.isAssignableFrom(returnType)) {
-                            returnTransformation.emitReturn(cb, int.class);
-                            cb.invokestatic(returnType.describeConstable().orElseThrow(), "fromNativeCode", MethodTypeDesc.of(returnType.describeConstable().orElseThrow(), ConstantDescs.CD_int), returnType.isInterface());
-                        } else {
-                            returnTransformation.emitReturn(cb, returnType);
-                        }
-                        if (closeArena) {
-                            Label tryRegionEnd = cb.newBoundLabel();
-                            Label catcher = cb.newLabel();
-                            cb.exceptionCatch(tryRegionStart, tryRegionEnd, catcher, Optional.empty());
-                            // clean up arena
-                            cb.aload(arenaIdx);
-                            cb.invokeinterface(CD_Arena, "close", MTD_void);
-                            cb.return_(TypeKind.from(returnType));
-                            cb.labelBinding(catcher);
-                            // clean up arena (catch)
-                            cb.aload(arenaIdx);
-                            cb.invokeinterface(CD_Arena, "close", MTD_void);
-                            // rethrow the exception
-                            cb.athrow();
-                        } else {
-                            cb.return_(TypeKind.from(returnType));
-                        }
-                    });
-                });
+                default -> {}
             }
+            cb.ifeq(failed);
+        }
+        cb.goto_(done);
+        cb.labelBinding(failed);
+        if (errnoLinkName != null) {
+            // critical functions only capture errno on failure
+            emitErrnoStore(cb, classDesc, parameters, errnoLinkName);
         }
+        // read the captured errno
+        emitCaptureSegment(cb, parameters);
+        cb.getstatic(CD_ValueLayout, "JAVA_INT", CD_ValueLayout_OfInt);
+        cb.ldc(Long.valueOf(CallState.ERRNO_OFFSET));
+        cb.invokeinterface(CD_MemorySegment, "get", MTD_int_ValueLayout_OfInt_long);
+        Method factory = exceptionFactory(checkReturn.exception());
+        Class<?> paramType = factory.getParameterTypes()[0];
+        if (paramType != int.class) {
+            // map errno to the native enumeration
+            StructType.emitFromValue(cb, paramType, int.class);
+        }
+        Class<?> factoryClass = factory.getDeclaringClass();
+        cb.invokestatic(factoryClass.describeConstable().orElseThrow(), "create", MethodTypeDesc.of(factory.getReturnType().describeConstable().orElseThrow(), paramType.describeConstable().orElseThrow()), factoryClass.isInterface());
+        cb.athrow();
+        cb.labelBinding(done);
+        cb.loadLocal(tk, resultSlot);
     }
 
     static void pushInt(CodeBuilder cb, int val) {
@@ -470,11 +1817,106 @@ public final class AutoLinker {
         }
     }
 
+    /**
+     * {@return the enum type of the given {@code EnumSet} or {@code NativeFlags} type}
+     *
+     * @param type the generic type (must not be {@code null})
+     * @param element the element which has the type, for error messages (must not be {@code null})
+     * @throws IllegalArgumentException if the type does not give an enum type which implements {@code NativeEnum}
+     */
+    static Class<?> flagsType(Type type, Object element) {
+        if (type instanceof ParameterizedType pt && pt.getActualTypeArguments()[0] instanceof Class<?> arg && arg.isEnum() && NativeEnum.class.isAssignableFrom(arg)) {
+            return arg;
+        }
+        throw new IllegalArgumentException("The type of " + element + " must give an enum type which implements NativeEnum");
+    }
+
+    /**
+     * Emit code to convert between a set of flags and its {@code int} mask.
+     *
+     * @param cb the code builder (not {@code null})
+     * @param from the type of the value on the stack (not {@code null})
+     * @param to the type to convert to (not {@code null})
+     * @param genericType the generic type of the set (not {@code null})
+     */
+    private static void emitFlags(final CodeBuilder cb, final Class<?> from, final Class<?> to, final Type genericType) {
+        cb.invokedynamic(DynamicCallSiteDesc.of(
+            BSM_flags,
+            "flags",
+            MethodTypeDesc.of(to.describeConstable().orElseThrow(), from.describeConstable().orElseThrow()),
+            flagsType(genericType, genericType).describeConstable().orElseThrow()
+        ));
+    }
+
+    private static boolean isStringList(Type type) {
+        if (type instanceof ParameterizedType pt) {
+            Type arg = pt.getActualTypeArguments()[0];
+            if (arg instanceof WildcardType wt) {
+                // List<? extends String>
+                Type[] upperBounds = wt.getUpperBounds();
+                arg = wt.getLowerBounds().length == 0 && upperBounds.length == 1 ? upperBounds[0] : null;
+            }
+            return arg == String.class;
+        }
+        return false;
+    }
+
+    static boolean isIntegral(Class<?> type) {
+        return type == byte.class || type == short.class || type == char.class || type == int.class || type == long.class;
+    }
+
+    static void emitValueLayout(CodeBuilder cb, Class<?> memoryCarrier) {
+        if (memoryCarrier == LazyLink.MEMORY_SEGMENT) {
+            cb.getstatic(CD_ValueLayout, "ADDRESS", CD_AddressLayout);
+        } else {
+            cb.getstatic(CD_ValueLayout, "JAVA_" + memoryCarrier.getName().toUpperCase(Locale.ROOT), valueLayoutType(memoryCarrier));
+        }
+    }
+
+    static ClassDesc valueLayoutType(Class<?> memoryCarrier) {
+        return switch (TypeKind.from(memoryCarrier)) {
+            case BOOLEAN -> CD_ValueLayout_OfBoolean;
+            case BYTE -> CD_ValueLayout_OfByte;
+            case CHAR -> CD_ValueLayout_OfChar;
+            case SHORT -> CD_ValueLayout_OfShort;
+            case INT -> CD_ValueLayout_OfInt;
+            case LONG -> CD_ValueLayout_OfLong;
+            case FLOAT -> CD_ValueLayout_OfFloat;
+            case DOUBLE -> CD_ValueLayout_OfDouble;
+            case REFERENCE -> CD_AddressLayout;
+            default -> throw new IllegalArgumentException("No value layout for " + memoryCarrier);
+        };
+    }
+
+    static int primitiveSize(Class<?> type) {
+        return switch (TypeKind.from(type)) {
+            case BYTE, BOOLEAN -> 1;
+            case SHORT, CHAR -> 2;
+            case INT, FLOAT -> 4;
+            case LONG, DOUBLE -> 8;
+            default -> throw new IllegalArgumentException("No size for " + type);
+        };
+    }
+
     private static <T> HashSet<T> newHashSet(Object ignored) {
         return new HashSet<>();
     }
 
-    private static Transformation transformationFor(final AsType asType) {
+    /**
+     * {@return the transformation to use for a pointer which is represented in Java as an address}
+     * Such pointers are passed as pointer-sized integers, so that no {@code MemorySegment} is created.
+     *
+     * @param type the Java type of the argument or return value (must not be {@code null})
+     * @param transformation the transformation which was determined for the type (must not be {@code null})
+     */
+    static Transformation addressTransformation(final Class<?> type, final Transformation transformation) {
+        if (transformation == Transformation.PTR && (type == long.class || NativeHandle.class.isAssignableFrom(type))) {
+            return c_uintptr_t;
+        }
+        return transformation;
+    }
+
+    static Transformation transformationFor(final AsType asType) {
         return switch (asType) {
             case signed_char, int8_t, char_ -> Transformation.S8;
             case unsigned_char, char8_t, uint8_t -> Transformation.U8;
@@ -495,6 +1937,8 @@ public final class AutoLinker {
 
             case ptr -> Transformation.PTR;
             case void_ -> Transformation.VOID;
+
+            case iovec -> Transformation.IOVEC;
         };
     }
 
@@ -503,7 +1947,9 @@ public final class AutoLinker {
     static final ClassDesc CD_Buffer = Buffer.class.describeConstable().orElseThrow();
     static final ClassDesc CD_ByteBuffer = ByteBuffer.class.describeConstable().orElseThrow();
     static final ClassDesc CD_Charset = Charset.class.describeConstable().orElseThrow();
+    static final ClassDesc CD_CompletableFuture = CompletableFuture.class.describeConstable().orElseThrow();
     static final ClassDesc CD_ConstantCallSite = ConstantCallSite.class.describeConstable().orElseThrow();
+    static final ClassDesc CD_Executor = Executor.class.describeConstable().orElseThrow();
     static final ClassDesc CD_FunctionDescriptor = ClassDesc.of("java.lang.foreign.FunctionDescriptor");
     static final ClassDesc CD_Linker = ClassDesc.of("java.lang.foreign.Linker");
     static final ClassDesc CD_Linker_Option = ClassDesc.of("java.lang.foreign.Linker$Option");
@@ -511,6 +1957,7 @@ public final class AutoLinker {
     static final ClassDesc CD_MemoryLayout = ClassDesc.of("java.lang.foreign.MemoryLayout");
     static final ClassDesc CD_MemorySegment = ClassDesc.of("java.lang.foreign.MemorySegment");
     static final ClassDesc CD_Optional = Optional.class.describeConstable().orElseThrow();
+    static final ClassDesc CD_Reference = Reference.class.describeConstable().orElseThrow();
     static final ClassDesc CD_SegmentAllocator = ClassDesc.of("java.lang.foreign.SegmentAllocator");
     static final ClassDesc CD_StandardCharsets = StandardCharsets.class.describeConstable().orElseThrow();
     static final ClassDesc CD_SymbolLookup = ClassDesc.of("java.lang.foreign.SymbolLookup");
@@ -525,16 +1972,195 @@ public final class AutoLinker {
     static final ClassDesc CD_ValueLayout_OfShort = ClassDesc.of("java.lang.foreign.ValueLayout$OfShort");
 
     static final ClassDesc CD_UnsatisfiedLinkError = UnsatisfiedLinkError.class.describeConstable().orElseThrow();
+    static final ClassDesc CD_Bootstraps = Bootstraps.class.describeConstable().orElseThrow();
 
     private static final MethodTypeDesc MTD_Arena = MethodTypeDesc.of(
         CD_Arena
     );
+    static final MethodTypeDesc MTD_MemorySegment = MethodTypeDesc.of(
+        CD_MemorySegment
+    );
+    static final MethodTypeDesc MTD_MemorySegment_long = MethodTypeDesc.of(
+        CD_MemorySegment,
+        ConstantDescs.CD_long
+    );
+    static final MethodTypeDesc MTD_MemorySegment_long_Arena_Consumer = MethodTypeDesc.of(
+        CD_MemorySegment,
+        ConstantDescs.CD_long,
+        CD_Arena,
+        Consumer.class.describeConstable().orElseThrow()
+    );
+    static final MethodTypeDesc MTD_void_MemorySegment = MethodTypeDesc.of(
+        ConstantDescs.CD_void,
+        CD_MemorySegment
+    );
+    static final MethodTypeDesc MTD_void_Object = MethodTypeDesc.of(
+        ConstantDescs.CD_void,
+        ConstantDescs.CD_Object
+    );
+    static final MethodTypeDesc MTD_Consumer = MethodTypeDesc.of(
+        Consumer.class.describeConstable().orElseThrow()
+    );
+    static final MethodTypeDesc MTD_int_ValueLayout_OfInt_long = MethodTypeDesc.of(
+        ConstantDescs.CD_int,
+        CD_ValueLayout_OfInt,
+        ConstantDescs.CD_long
+    );
+    static final MethodTypeDesc MTD_void_ValueLayout_OfInt_long_int = MethodTypeDesc.of(
+        ConstantDescs.CD_void,
+        CD_ValueLayout_OfInt,
+        ConstantDescs.CD_long,
+        ConstantDescs.CD_int
+    );
     private static final MethodTypeDesc MTD_link = MethodTypeDesc.of(
         ConstantDescs.CD_CallSite,
         ConstantDescs.CD_MethodHandles_Lookup,
         ConstantDescs.CD_String,
         ConstantDescs.CD_MethodType
     );
+    static final DirectMethodHandleDesc BSM_callState = MethodHandleDesc.ofMethod(
+        DirectMethodHandleDesc.Kind.STATIC,
+        CD_Bootstraps,
+        "callState",
+        MTD_link
+    );
+    static final DirectMethodHandleDesc BSM_metafactory = MethodHandleDesc.ofMethod(
+        DirectMethodHandleDesc.Kind.STATIC,
+        ClassDesc.of("java.lang.invoke.LambdaMetafactory"),
+        "metafactory",
+        MethodTypeDesc.of(ConstantDescs.CD_CallSite, ConstantDescs.CD_MethodHandles_Lookup, ConstantDescs.CD_String, ConstantDescs.CD_MethodType, ConstantDescs.CD_MethodType, ConstantDescs.CD_MethodHandle, ConstantDescs.CD_MethodType)
+    );
+    static final DirectMethodHandleDesc BSM_string = MethodHandleDesc.ofMethod(
+        DirectMethodHandleDesc.Kind.STATIC,
+        CD_Bootstraps,
+        "string",
+        MethodTypeDesc.of(ConstantDescs.CD_CallSite, ConstantDescs.CD_MethodHandles_Lookup, ConstantDescs.CD_String, ConstantDescs.CD_MethodType, ConstantDescs.CD_int, ConstantDescs.CD_String, ConstantDescs.CD_int)
+    );
+    static final DirectMethodHandleDesc BSM_stringArray = MethodHandleDesc.ofMethod(
+        DirectMethodHandleDesc.Kind.STATIC,
+        CD_Bootstraps,
+        "stringArray",
+        MTD_link
+    );
+    static final DirectMethodHandleDesc BSM_iovec = MethodHandleDesc.ofMethod(
+        DirectMethodHandleDesc.Kind.STATIC,
+        CD_Bootstraps,
+        "iovec",
+        MTD_link
+    );
+    static final DirectMethodHandleDesc BSM_advance = MethodHandleDesc.ofMethod(
+        DirectMethodHandleDesc.Kind.STATIC,
+        CD_Bootstraps,
+        "advance",
+        MTD_link
+    );
+    static final DirectMethodHandleDesc BSM_flags = MethodHandleDesc.ofMethod(
+        DirectMethodHandleDesc.Kind.STATIC,
+        CD_Bootstraps,
+        "flags",
+        MethodTypeDesc.of(
+            ConstantDescs.CD_CallSite,
+            ConstantDescs.CD_MethodHandles_Lookup,
+            ConstantDescs.CD_String,
+            ConstantDescs.CD_MethodType,
+            ConstantDescs.CD_Class
+        )
+    );
+    static final DirectMethodHandleDesc BSM_blocking = MethodHandleDesc.ofMethod(
+        DirectMethodHandleDesc.Kind.STATIC,
+        CD_Bootstraps,
+        "blocking",
+        MethodTypeDesc.of(
+            ConstantDescs.CD_CallSite,
+            ConstantDescs.CD_MethodHandles_Lookup,
+            ConstantDescs.CD_String,
+            ConstantDescs.CD_MethodType,
+            ConstantDescs.CD_MethodHandle,
+            ConstantDescs.CD_int
+        )
+    );
+    static final DirectMethodHandleDesc BSM_async = MethodHandleDesc.ofMethod(
+        DirectMethodHandleDesc.Kind.STATIC,
+        CD_Bootstraps,
+        "async",
+        MethodTypeDesc.of(
+            ConstantDescs.CD_CallSite,
+            ConstantDescs.CD_MethodHandles_Lookup,
+            ConstantDescs.CD_String,
+            ConstantDescs.CD_MethodType,
+            ConstantDescs.CD_MethodHandle,
+            ConstantDescs.CD_String
+        )
+    );
+    static final DirectMethodHandleDesc BSM_parallel = MethodHandleDesc.ofMethod(
+        DirectMethodHandleDesc.Kind.STATIC,
+        CD_Bootstraps,
+        "parallel",
+        MethodTypeDesc.of(
+            ConstantDescs.CD_CallSite,
+            ConstantDescs.CD_MethodHandles_Lookup,
+            ConstantDescs.CD_String,
+            ConstantDescs.CD_MethodType,
+            ConstantDescs.CD_MethodHandle,
+            ConstantDescs.CD_int,
+            ConstantDescs.CD_String,
+            ConstantDescs.CD_MethodHandle.arrayType()
+        )
+    );
+    static final DirectMethodHandleDesc BSM_nativeCode = MethodHandleDesc.ofMethod(
+        DirectMethodHandleDesc.Kind.STATIC,
+        CD_Bootstraps,
+        "nativeCode",
+        MTD_link
+    );
+    static final DirectMethodHandleDesc BSM_fromNativeCode = MethodHandleDesc.ofMethod(
+        DirectMethodHandleDesc.Kind.STATIC,
+        CD_Bootstraps,
+        "fromNativeCode",
+        MTD_link
+    );
+    static final MethodTypeDesc MTD_void_ByteBuffer_array_long = MethodTypeDesc.of(
+        ConstantDescs.CD_void,
+        CD_ByteBuffer.arrayType(),
+        ConstantDescs.CD_long
+    );
+    static final MethodTypeDesc MTD_variable = MethodTypeDesc.of(
+        ConstantDescs.CD_CallSite,
+        ConstantDescs.CD_MethodHandles_Lookup,
+        ConstantDescs.CD_String,
+        ConstantDescs.CD_MethodType,
+        ConstantDescs.CD_Object
+    );
+    static final MethodTypeDesc MTD_variadic = MethodTypeDesc.of(
+        ConstantDescs.CD_CallSite,
+        ConstantDescs.CD_MethodHandles_Lookup,
+        ConstantDescs.CD_String,
+        ConstantDescs.CD_MethodType,
+        ConstantDescs.CD_MethodHandle,
+        ConstantDescs.CD_Object,
+        ConstantDescs.CD_Object,
+        ConstantDescs.CD_Object
+    );
+    static final MethodTypeDesc MTD_target = MethodTypeDesc.of(
+        ConstantDescs.CD_CallSite,
+        ConstantDescs.CD_MethodHandles_Lookup,
+        ConstantDescs.CD_String,
+        ConstantDescs.CD_MethodType,
+        ConstantDescs.CD_MethodHandle
+    );
+    static final MethodTypeDesc MTD_callback = MethodTypeDesc.of(
+        ConstantDescs.CD_CallSite,
+        ConstantDescs.CD_MethodHandles_Lookup,
+        ConstantDescs.CD_String,
+        ConstantDescs.CD_MethodType,
+        ConstantDescs.CD_MethodHandle,
+        ConstantDescs.CD_Object,
+        ConstantDescs.CD_MethodHandle
+    );
+    static final MethodTypeDesc MTD_String_MemorySegment = MethodTypeDesc.of(
+        ConstantDescs.CD_String,
+        CD_MemorySegment
+    );
     static final MethodTypeDesc MTD_Linker = MethodTypeDesc.of(
         CD_Linker
     );
@@ -563,6 +2189,9 @@ public final class AutoLinker {
     static final MethodTypeDesc MTD_int = MethodTypeDesc.of(
         ConstantDescs.CD_int
     );
+    static final MethodTypeDesc MTD_long = MethodTypeDesc.of(
+        ConstantDescs.CD_long
+    );
     static final MethodTypeDesc MTD_Object = MethodTypeDesc.of(
         ConstantDescs.CD_Object
     );
@@ -585,6 +2214,24 @@ public final class AutoLinker {
         CD_FunctionDescriptor,
         CD_Linker_Option_array
     );
+    static final MethodTypeDesc MTD_MethodHandle_FunctionDescriptor_Linker_Option_array = MethodTypeDesc.of(
+        ConstantDescs.CD_MethodHandle,
+        CD_FunctionDescriptor,
+        CD_Linker_Option_array
+    );
+    static final MethodTypeDesc MTD_MemorySegment_MethodHandle_FunctionDescriptor_Arena = MethodTypeDesc.of(
+        CD_MemorySegment,
+        ConstantDescs.CD_MethodHandle,
+        CD_FunctionDescriptor,
+        CD_Arena
+    );
+    static final MethodTypeDesc MTD_MemorySegment_MethodHandle_FunctionDescriptor_Arena_Linker_Option_array = MethodTypeDesc.of(
+        CD_MemorySegment,
+        ConstantDescs.CD_MethodHandle,
+        CD_FunctionDescriptor,
+        CD_Arena,
+        CD_Linker_Option_array
+    );
     static final MethodTypeDesc MTD_void = MethodTypeDesc.of(
         ConstantDescs.CD_void
     );
@@ -601,6 +2248,16 @@ public final class AutoLinker {
     private static final Transformation c_unsigned_long;
     private static final Transformation c_intptr_t;
     private static final Transformation c_uintptr_t;
+    /**
+     * The name of the function which returns the address of the current thread's {@code errno}.
+     */
+    private static final String ERRNO_LOCATION = switch (OS.current()) {
+        case LINUX -> "__errno_location";
+        case MAC, OTHER -> "__error";
+        case WINDOWS -> "_errno";
+        case SOLARIS -> "___errno";
+        case AIX -> "_Errno";
+    };
 
     static {
         if (CPU.host().pointerSizeBits() == 32 || OS.current() == OS.WINDOWS) {
@@ -0,0 +1,198 @@
+package io.github.dmlloyd.autolinker;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A call site of a function which may block for a long time.
+ * One instance exists for each such call site.
+ * <p>
+ * A downcall pins the carrier thread of a virtual thread for its whole duration,
+ * so when such a function is called from a virtual thread, the call is instead made on a
+ * platform thread from a shared pool while the virtual thread waits (without pinning its carrier).
+ * Calls from platform threads are made directly.
+ * <p>
+ * The pool has at most {@value #DEFAULT_MAX_THREADS} threads by default, which may be changed
+ * using the {@value #MAX_THREADS_PROPERTY} system property.
+ * When all of the threads are busy, further calls wait for a free thread, so calls which wait for each other
+ * (for example, both ends of a pipe) may deadlock if there are more of them than there are threads.
+ * <p>
+ * If any argument is {@linkplain #isConfined confined}, the call is made directly.
+ * Call state which is captured by the function (such as {@code errno}) is copied to the calling thread.
+ */
+final class Blocking {
+    private static final MethodHandle INVOKE;
+    /**
+     * {@code Thread.currentThread().isVirtual()}, as {@code ()boolean}, or {@code null} if virtual threads are not supported.
+     */
+    private static final MethodHandle IS_VIRTUAL;
+    /**
+     * The shared pool of platform threads which run blocking and {@linkplain Async asynchronous} calls.
+     */
+    static final ExecutorService POOL;
+    /**
+     * The name of the system property which gives the maximum number of threads of the {@linkplain #POOL pool}.
+     */
+    static final String MAX_THREADS_PROPERTY = "io.github.dmlloyd.autolinker.maxThreads";
+    /**
+     * The default maximum number of threads of the {@linkplain #POOL pool}.
+     */
+    static final int DEFAULT_MAX_THREADS = 256;
+    /**
+     * A thread which never runs, for testing whether memory is confined to some thread.
+     */
+    private static final Thread NOBODY = new Thread(() -> {}, "autolinker-nobody");
+
+    static {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            INVOKE = lookup.findVirtual(Blocking.class, "invoke", MethodType.methodType(Object.class, Object[].class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+        MethodHandle isVirtual;
+        try {
+            isVirtual = MethodHandles.filterReturnValue(
+                lookup.findStatic(Thread.class, "currentThread", MethodType.methodType(Thread.class)),
+                lookup.findVirtual(Thread.class, "isVirtual", MethodType.methodType(boolean.class))
+            );
+        } catch (NoSuchMethodException | IllegalAccessException ignored) {
+            isVirtual = null;
+        }
+        IS_VIRTUAL = isVirtual;
+        AtomicInteger cnt = new AtomicInteger(1);
+        int maxThreads = Integer.getInteger(MAX_THREADS_PROPERTY, DEFAULT_MAX_THREADS).intValue();
+        if (maxThreads < 1) {
+            throw new IllegalArgumentException("Invalid value " + maxThreads + " for " + MAX_THREADS_PROPERTY);
+        }
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "autolinker-call-" + cnt.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // idle threads exit, so the pool is only as large as is needed
+        pool.allowCoreThreadTimeOut(true);
+        POOL = pool;
+    }
+
+    private final MethodHandle target;
+    private final boolean captureState;
+
+    private Blocking(final MethodHandle target, final boolean captureState) {
+        this.target = target;
+        this.captureState = captureState;
+    }
+
+    /**
+     * {@return a method handle which calls the given target, from another thread if called from a virtual thread}
+     *
+     * @param target the method which makes the call (must not be {@code null})
+     * @param captureState {@code true} if the call captures call state which must be copied to the calling thread
+     */
+    static MethodHandle handle(MethodHandle target, boolean captureState) {
+        if (IS_VIRTUAL == null) {
+            // no virtual threads
+            return target;
+        }
+        MethodType type = target.type();
+        MethodHandle offload = INVOKE.bindTo(new Blocking(target, captureState)).asCollector(Object[].class, type.parameterCount()).asType(type);
+        return MethodHandles.guardWithTest(MethodHandles.dropArguments(IS_VIRTUAL, 0, type.parameterList()), offload, target);
+    }
+
+    private Object invoke(Object[] args) throws Throwable {
+        if (isConfined(args)) {
+            return target.invokeWithArguments(args);
+        }
+        Object callerState = captureState ? CallState.segment() : null;
+        FutureTask<Object> task = new FutureTask<>(() -> {
+            try {
+                return call(args, callerState);
+            } catch (Exception | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new UndeclaredThrowableException(t);
+            }
+        });
+        POOL.execute(task);
+        Object result;
+        boolean intr = false;
+        try {
+            for (;;) {
+                try {
+                    // the native call cannot be interrupted, so wait for it regardless
+                    result = task.get();
+                    break;
+                } catch (InterruptedException e) {
+                    intr = true;
+                } catch (ExecutionException e) {
+                    throw e.getCause();
+                }
+            }
+        } finally {
+            if (intr) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return result;
+    }
+
+    private Object call(Object[] args, Object callerState) throws Throwable {
+        try {
+            return target.invokeWithArguments(args);
+        } finally {
+            if (callerState != null) {
+                CallState.copy(CallState.segment(), callerState);
+            }
+        }
+    }
+
+    /**
+     * Determine whether any of the given arguments is a segment or arena which is confined to some thread,
+     * and thus cannot be accessed from another thread.
+     * Calls which are made on another thread ({@linkplain Blocking blocking}, {@linkplain Async asynchronous},
+     * and {@linkplain Parallel parallel} calls) are instead made directly when this is the case.
+     * <p>
+     * The confinement of an arena cannot be tested directly.
+     * An arena which shares its scope with a segment argument is confined if that segment is;
+     * any other arena is assumed to be confined.
+     *
+     * @param args the arguments (must not be {@code null})
+     * @return {@code true} if any argument is confined, or {@code false} if none is
+     */
+    static boolean isConfined(Object[] args) throws Throwable {
+        for (Object arg : args) {
+            if (LazyLink.MEMORY_SEGMENT.isInstance(arg)) {
+                if (! (boolean) LazyLink.SEGMENT_IS_ACCESSIBLE_BY.invokeExact(arg, NOBODY)) {
+                    return true;
+                }
+            } else if (LazyLink.ARENA.isInstance(arg) && ! hasScope(args, (Object) LazyLink.ARENA_SCOPE.invokeExact(arg))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * {@return {@code true} if any of the given arguments is a segment in the given scope}
+     *
+     * @param args the arguments (must not be {@code null})
+     * @param scope the scope (must not be {@code null})
+     */
+    private static boolean hasScope(Object[] args, Object scope) throws Throwable {
+        for (Object arg : args) {
+            if (LazyLink.MEMORY_SEGMENT.isInstance(arg) && scope.equals((Object) LazyLink.SEGMENT_SCOPE.invokeExact(arg))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,269 @@
+package io.github.dmlloyd.autolinker;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.ConstantCallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.VarHandle;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Bootstrap methods which are used by generated link classes to access run time support.
+ * These methods are not intended to be called directly.
+ */
+public final class Bootstraps {
+    private Bootstraps() {}
+
+    /**
+     * Bootstrap a call site which returns the call state segment of the current thread.
+     *
+     * @param lookup the caller lookup (ignored)
+     * @param name the call site name (ignored)
+     * @param type the call site type, which must be {@code ()MemorySegment}
+     * @return the call site (not {@code null})
+     */
+    public static CallSite callState(MethodHandles.Lookup lookup, String name, MethodType type) {
+        return new ConstantCallSite(CallState.SEGMENT.asType(type));
+    }
+
+    /**
+     * Bootstrap a call site which decodes a returned string.
+     *
+     * @param lookup the caller lookup (ignored)
+     * @param name the call site name (ignored)
+     * @param type the call site type, which must be {@code (MemorySegment)String}, where the segment is large enough
+     *      to hold a string of the maximum length and its terminator
+     * @param maxLength the maximum length of the string, in bytes
+     * @param charset the name of the character set of the string
+     * @param cacheSize the number of decoded strings to cache, or zero to disable caching
+     * @return the call site (not {@code null})
+     */
+    public static CallSite string(MethodHandles.Lookup lookup, String name, MethodType type, int maxLength, String charset, int cacheSize) {
+        return new ConstantCallSite(CString.DECODE.bindTo(new CString(maxLength, Charset.forName(charset), cacheSize)).asType(type));
+    }
+
+    /**
+     * Bootstrap a call site which copies a string array or list to a {@code NULL}-terminated array of strings.
+     *
+     * @param lookup the caller lookup (ignored)
+     * @param name the call site name (ignored)
+     * @param type the call site type, which must be {@code (Arena, String[])MemorySegment} or {@code (Arena, List)MemorySegment}
+     * @return the call site (not {@code null})
+     */
+    public static CallSite stringArray(MethodHandles.Lookup lookup, String name, MethodType type) {
+        return new ConstantCallSite((type.parameterType(1) == List.class ? CStringArray.ALLOCATE_LIST : CStringArray.ALLOCATE_ARRAY).asType(type));
+    }
+
+    /**
+     * Bootstrap a call site which builds an array of {@code struct iovec} from an array of buffers or segments.
+     *
+     * @param lookup the caller lookup (ignored)
+     * @param name the call site name (ignored)
+     * @param type the call site type, which must be {@code (Arena, ByteBuffer[])MemorySegment} or {@code (Arena, MemorySegment[])MemorySegment}
+     * @return the call site (not {@code null})
+     */
+    public static CallSite iovec(MethodHandles.Lookup lookup, String name, MethodType type) {
+        return new ConstantCallSite((type.parameterType(1) == ByteBuffer[].class ? IoVec.ALLOCATE_BUFFERS : IoVec.ALLOCATE_SEGMENTS).asType(type));
+    }
+
+    /**
+     * Bootstrap a call site which advances the positions of an array of buffers by a number of transferred bytes.
+     *
+     * @param lookup the caller lookup (ignored)
+     * @param name the call site name (ignored)
+     * @param type the call site type, which must be {@code (ByteBuffer[], long)void}
+     * @return the call site (not {@code null})
+     */
+    public static CallSite advance(MethodHandles.Lookup lookup, String name, MethodType type) {
+        return new ConstantCallSite(IoVec.ADVANCE.asType(type));
+    }
+
+    /**
+     * Create a call site which reads or writes a native variable.
+     * This method is called by the generated bootstrap method of each variable access,
+     * after the symbol of the variable has been resolved.
+     *
+     * @param lookup the caller lookup (ignored)
+     * @param name the call site name (ignored)
+     * @param type the call site type, which must be {@code ()C} to read the variable or {@code (C)void} to write it,
+     *      where {@code C} is a primitive type or {@code MemorySegment}
+     * @param segment the {@code MemorySegment} of the resolved symbol, with the size of the variable (must not be {@code null})
+     * @return the call site (not {@code null})
+     */
+    public static CallSite variable(MethodHandles.Lookup lookup, String name, MethodType type, Object segment) {
+        boolean set = type.returnType() == void.class;
+        Class<?> carrier = set ? type.parameterType(0) : type.returnType();
+        Object layout = LazyLink.valueLayout(carrier == LazyLink.MEMORY_SEGMENT ? "ADDRESS" : "JAVA_" + carrier.getName().toUpperCase(Locale.ROOT));
+        MethodHandle handle = LazyLink.varHandle(layout).toMethodHandle(set ? VarHandle.AccessMode.SET : VarHandle.AccessMode.GET);
+        // the segment and offset are constant, so each access is a plain load or store
+        return new ConstantCallSite(MethodHandles.insertArguments(handle, 0, segment, Long.valueOf(0)).asType(type));
+    }
+
+    /**
+     * Create a call site which produces the upcall stub for a callback argument.
+     * This method is called by the generated bootstrap method of each callback argument.
+     *
+     * @param lookup the caller lookup (ignored)
+     * @param name the call site name (ignored)
+     * @param type the call site type, which must be {@code (I, Arena)MemorySegment}, where {@code I} is the functional interface
+     * @param adapter the adapter method, which accepts the callback instance followed by the native arguments (must not be {@code null})
+     * @param descriptor the {@code FunctionDescriptor} of the callback (must not be {@code null})
+     * @param upcallStub the generated method which creates an upcall stub, of type {@code (MethodHandle, FunctionDescriptor, Arena)MemorySegment}
+     *      (must not be {@code null})
+     * @return the call site (not {@code null})
+     */
+    public static CallSite callback(MethodHandles.Lookup lookup, String name, MethodType type, MethodHandle adapter, Object descriptor, MethodHandle upcallStub) {
+        return new ConstantCallSite(Upcall.STUB.bindTo(new Upcall(adapter, descriptor, upcallStub)).asType(type));
+    }
+
+    /**
+     * Create a call site which calls a variadic function whose variadic arguments are given as an {@code Object[]}.
+     * This method is called by the generated bootstrap method of each such function,
+     * after the symbol of the function has been resolved.
+     * A downcall handle is linked for each distinct combination of variadic argument types;
+     * see {@link Variadic}.
+     *
+     * @param lookup the caller lookup (ignored)
+     * @param name the call site name (ignored)
+     * @param type the call site type, whose last parameter is {@code Object[]}
+     * @param downcall the generated method which links a downcall handle,
+     *      of type {@code (MemorySegment, FunctionDescriptor, Linker.Option[])MethodHandle} (must not be {@code null})
+     * @param function the {@code MemorySegment} of the resolved function (must not be {@code null})
+     * @param descriptor the {@code FunctionDescriptor} of the fixed arguments (must not be {@code null})
+     * @param options the {@code Linker.Option[]} (must not be {@code null})
+     * @return the call site (not {@code null})
+     */
+    public static CallSite variadic(MethodHandles.Lookup lookup, String name, MethodType type, MethodHandle downcall, Object function, Object descriptor, Object options) {
+        return new ConstantCallSite(new Variadic(downcall, function, descriptor, options, type).handle());
+    }
+
+    /**
+     * Create a call site which calls a function through a function pointer which is given as its first argument.
+     * This method is called by the generated bootstrap method of each such function.
+     * The call site caches a downcall handle for each of the first few function addresses which are seen;
+     * see {@link FunctionPointer}.
+     *
+     * @param lookup the caller lookup (ignored)
+     * @param name the call site name (ignored)
+     * @param type the call site type, whose first parameter is the {@code long} function address
+     * @param generic the downcall handle of the function, which accepts the function address as a leading {@code MemorySegment}
+     *      (must not be {@code null})
+     * @return the call site (not {@code null})
+     */
+    public static CallSite target(MethodHandles.Lookup lookup, String name, MethodType type, MethodHandle generic) {
+        return new FunctionPointer(generic, type);
+    }
+
+    /**
+     * Create a call site which converts a constant of a Java {@code enum} which implements {@link NativeEnum}
+     * to its native code, using a table which is indexed by ordinal.
+     *
+     * @param lookup the caller lookup (ignored)
+     * @param name the call site name (ignored)
+     * @param type the call site type, which must be {@code (E)int}, where {@code E} is the enum type
+     * @return the call site (not {@code null})
+     */
+    public static CallSite nativeCode(MethodHandles.Lookup lookup, String name, MethodType type) {
+        return new ConstantCallSite(EnumTable.encoder(type.parameterType(0)).asType(type));
+    }
+
+    /**
+     * Create a call site which converts a native code to a constant of a Java {@code enum} which implements {@link NativeEnum},
+     * using a table which is built from the {@code fromNativeCode} method of the type.
+     *
+     * @param lookup the caller lookup, which must have access to the {@code fromNativeCode} method of the type
+     * @param name the call site name (ignored)
+     * @param type the call site type, which must be {@code (int)E}, where {@code E} is the enum type
+     * @return the call site (not {@code null})
+     * @throws NoSuchMethodException if the type has no {@code fromNativeCode} method
+     * @throws IllegalAccessException if the {@code fromNativeCode} method is not accessible
+     */
+    public static CallSite fromNativeCode(MethodHandles.Lookup lookup, String name, MethodType type) throws NoSuchMethodException, IllegalAccessException {
+        Class<?> enumType = type.returnType();
+        MethodHandle factory = lookup.findStatic(enumType, "fromNativeCode", MethodType.methodType(enumType, int.class))
+            .asType(MethodType.methodType(Object.class, int.class));
+        EnumTable table;
+        try {
+            table = new EnumTable(enumType, factory);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new UndeclaredThrowableException(t);
+        }
+        return new ConstantCallSite(EnumTable.DECODE.bindTo(table).asType(type));
+    }
+
+    /**
+     * Create a call site which converts between a set of flags and its {@code int} mask,
+     * using a table of the native codes of the constants of the enum type which is indexed by ordinal.
+     *
+     * @param lookup the caller lookup (ignored)
+     * @param name the call site name (ignored)
+     * @param type the call site type, which must be one of {@code (EnumSet)int}, {@code (int)EnumSet}, or {@code (int)NativeFlags}
+     * @param enumType the enum type of the flags (must not be {@code null})
+     * @return the call site (not {@code null})
+     */
+    public static CallSite flags(MethodHandles.Lookup lookup, String name, MethodType type, Class<?> enumType) {
+        MethodHandle handle;
+        if (type.returnType() == int.class) {
+            handle = NativeFlags.MASK_OF.bindTo(EnumTable.codes(enumType));
+        } else if (type.returnType() == EnumSet.class) {
+            handle = MethodHandles.insertArguments(NativeFlags.ENUM_SET_OF, 0, enumType, EnumTable.codes(enumType));
+        } else {
+            handle = NativeFlags.FLAGS_OF.bindTo(enumType);
+        }
+        return new ConstantCallSite(handle.asType(type));
+    }
+
+    /**
+     * Create a call site for a method which may block for a long time,
+     * which runs the given stub on a platform thread when it is called from a virtual thread.
+     *
+     * @param lookup the caller lookup (ignored)
+     * @param name the call site name (ignored)
+     * @param type the call site type (must not be {@code null})
+     * @param target the stub which makes the call, whose type is the call site type (must not be {@code null})
+     * @param captureState {@code 1} if the stub captures call state which must be copied to the calling thread, or {@code 0} if it does not
+     * @return the call site (not {@code null})
+     */
+    public static CallSite blocking(MethodHandles.Lookup lookup, String name, MethodType type, MethodHandle target, int captureState) {
+        return new ConstantCallSite(Blocking.handle(target, captureState != 0).asType(type));
+    }
+
+    /**
+     * Create a call site for an asynchronous method, which snapshots the arguments and runs the given stub
+     * on the executor which is given as the last argument, or on a shared pool of platform threads if it is {@code null}.
+     *
+     * @param lookup the caller lookup (ignored)
+     * @param name the call site name (ignored)
+     * @param type the call site type, which is the type of the stub followed by an {@code Executor}, returning {@code CompletableFuture} (must not be {@code null})
+     * @param target the stub which makes the call (must not be {@code null})
+     * @param modes the snapshot mode of each argument of the stub (must not be {@code null})
+     * @return the call site (not {@code null})
+     */
+    public static CallSite async(MethodHandles.Lookup lookup, String name, MethodType type, MethodHandle target, String modes) {
+        return new ConstantCallSite(Async.handle(target, modes).asType(type));
+    }
+
+    /**
+     * Create a call site for a function whose partitioned arguments are split into chunks which are processed in parallel.
+     *
+     * @param lookup the caller lookup (ignored)
+     * @param name the call site name (ignored)
+     * @param type the call site type (must not be {@code null})
+     * @param target the stub which makes the call, whose type is the call site type (must not be {@code null})
+     * @param chunk the number of elements of each chunk
+     * @param partitions the partitioning of each argument, separated by commas (must not be {@code null})
+     * @param reducer the method which combines two results, which is given only if the function returns a value
+     * @return the call site (not {@code null})
+     */
+    public static CallSite parallel(MethodHandles.Lookup lookup, String name, MethodType type, MethodHandle target, int chunk, String partitions, MethodHandle... reducer) {
+        return new ConstantCallSite(Parallel.handle(target, reducer.length == 0 ? null : reducer[0], chunk, partitions).asType(type));
+    }
+}
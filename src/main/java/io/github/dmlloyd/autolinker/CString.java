@@ -0,0 +1,127 @@
+package io.github.dmlloyd.autolinker;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+/**
+ * A decoder for {@code NUL}-terminated strings which are returned from native functions.
+ * One decoder exists for each call site which returns a string.
+ */
+final class CString {
+    /**
+     * {@code CString.decode(Object)}, as {@code (CString, Object)String}.
+     */
+    static final MethodHandle DECODE;
+    private static final Object JAVA_BYTE = LazyLink.valueLayout("JAVA_BYTE");
+
+    static {
+        try {
+            DECODE = MethodHandles.lookup().findVirtual(CString.class, "decode", MethodType.methodType(String.class, Object.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private final int maxLength;
+    private final Charset charset;
+    private final int terminatorSize;
+    /**
+     * The direct-mapped cache of decoded strings, or {@code null} if there is none.
+     */
+    private final Entry[] cache;
+
+    CString(final int maxLength, final Charset charset, final int cacheSize) {
+        this.maxLength = maxLength;
+        this.charset = charset;
+        terminatorSize = terminatorSize(charset);
+        // round up to a power of two
+        cache = cacheSize <= 0 ? null : new Entry[Integer.highestOneBit(Math.min(cacheSize, 1 << 30) * 2 - 1)];
+    }
+
+    /**
+     * Decode the string at the given pointer.
+     *
+     * @param segment the segment which is returned by the function, which must already be large enough to hold
+     *     the maximum length of the string and its terminator (must not be {@code null})
+     * @return the decoded string, or {@code null} if the pointer is {@code NULL}
+     */
+    String decode(Object segment) {
+        try {
+            long address = (long) LazyLink.SEGMENT_ADDRESS.invokeExact(segment);
+            if (address == 0) {
+                return null;
+            }
+            Entry[] cache = this.cache;
+            int idx = 0;
+            if (cache != null) {
+                idx = hash(address) & cache.length - 1;
+                Entry entry = cache[idx];
+                if (entry != null && entry.address == address) {
+                    return entry.string;
+                }
+            }
+            int terminatorSize = this.terminatorSize;
+            // find the terminator, without reading past it
+            int length = 0;
+            outer: while (length < maxLength) {
+                for (int i = 0; i < terminatorSize; i ++) {
+                    if ((byte) LazyLink.SEGMENT_GET_BYTE.invokeExact(segment, (long) length + i) != 0) {
+                        length += terminatorSize;
+                        continue outer;
+                    }
+                }
+                break;
+            }
+            // truncated strings are cut at a whole character unit
+            length = Math.min(length, maxLength - maxLength % terminatorSize);
+            byte[] bytes = new byte[length];
+            LazyLink.SEGMENT_COPY_TO_ARRAY.invokeExact(segment, JAVA_BYTE, 0L, (Object) bytes, 0, length);
+            String string = new String(bytes, charset);
+            if (cache != null) {
+                // racy publication is safe because entries are immutable
+                cache[idx] = new Entry(address, string);
+            }
+            return string;
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new UndeclaredThrowableException(t);
+        }
+    }
+
+    private static int hash(long address) {
+        // addresses of strings are typically aligned
+        long h = address ^ address >>> 29;
+        return (int) (h ^ h >>> 7);
+    }
+
+    /**
+     * {@return the size in bytes of the {@code NUL} terminator of strings of the given character set}
+     *
+     * @param charset the character set (must not be {@code null})
+     */
+    static int terminatorSize(Charset charset) {
+        String name = charset.name().toUpperCase(Locale.ROOT);
+        if (name.startsWith("UTF-16")) {
+            return 2;
+        } else if (name.startsWith("UTF-32")) {
+            return 4;
+        } else {
+            return 1;
+        }
+    }
+
+    static final class Entry {
+        final long address;
+        final String string;
+
+        Entry(final long address, final String string) {
+            this.address = address;
+            this.string = string;
+        }
+    }
+}
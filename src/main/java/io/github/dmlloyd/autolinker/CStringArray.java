@@ -0,0 +1,93 @@
+package io.github.dmlloyd.autolinker;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import io.smallrye.common.cpu.CPU;
+
+/**
+ * Support for passing string arrays as {@code NULL}-terminated arrays of pointers to {@code NUL}-terminated strings
+ * (that is, {@code char **}).
+ * The pointer table and the bytes of every string are placed in a single contiguous allocation,
+ * with the pointer table first.
+ */
+final class CStringArray {
+    /**
+     * {@code CStringArray.allocate(Object, String[])}, as {@code (Object, String[])Object}.
+     */
+    static final MethodHandle ALLOCATE_ARRAY;
+    /**
+     * {@code CStringArray.allocate(Object, List)}, as {@code (Object, List)Object}.
+     */
+    static final MethodHandle ALLOCATE_LIST;
+
+    private static final int POINTER_SIZE = CPU.host().pointerSizeBits() >> 3;
+    private static final Object JAVA_BYTE = LazyLink.valueLayout("JAVA_BYTE");
+
+    static {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            ALLOCATE_ARRAY = lookup.findStatic(CStringArray.class, "allocate", MethodType.methodType(Object.class, Object.class, String[].class));
+            ALLOCATE_LIST = lookup.findStatic(CStringArray.class, "allocate", MethodType.methodType(Object.class, Object.class, List.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private CStringArray() {}
+
+    static Object allocate(Object arena, List<String> strings) {
+        return allocate(arena, strings.toArray(String[]::new));
+    }
+
+    /**
+     * Allocate and fill a native copy of the given string array.
+     * Strings are encoded using UTF-8, and {@code null} elements are passed as {@code NULL} pointers.
+     *
+     * @param arena the arena to allocate from (must not be {@code null})
+     * @param strings the strings (must not be {@code null})
+     * @return the segment of the pointer table (not {@code null})
+     */
+    static Object allocate(Object arena, String[] strings) {
+        int cnt = strings.length;
+        // encode everything up front to compute the total size
+        byte[][] encoded = new byte[cnt][];
+        long tableSize = ((long) cnt + 1) * POINTER_SIZE;
+        long size = tableSize;
+        for (int i = 0; i < cnt; i ++) {
+            String string = strings[i];
+            if (string != null) {
+                byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                encoded[i] = bytes;
+                size += bytes.length + 1;
+            }
+        }
+        try {
+            // the memory is zeroed, so the terminators and the final NULL pointer are already present
+            Object segment = (Object) LazyLink.ARENA_ALLOCATE.invokeExact(arena, size, (long) POINTER_SIZE);
+            long address = (long) LazyLink.SEGMENT_ADDRESS.invokeExact(segment);
+            long offset = tableSize;
+            for (int i = 0; i < cnt; i ++) {
+                byte[] bytes = encoded[i];
+                if (bytes != null) {
+                    LazyLink.SEGMENT_COPY_FROM_ARRAY.invokeExact((Object) bytes, 0, segment, JAVA_BYTE, offset, bytes.length);
+                    if (POINTER_SIZE == 8) {
+                        LazyLink.SEGMENT_SET_LONG.invokeExact(segment, (long) i << 3, address + offset);
+                    } else {
+                        LazyLink.SEGMENT_SET_INT.invokeExact(segment, (long) i << 2, (int) (address + offset));
+                    }
+                    offset += bytes.length + 1;
+                }
+            }
+            return segment;
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new UndeclaredThrowableException(t);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package io.github.dmlloyd.autolinker;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.VarHandle;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.UndeclaredThrowableException;
+
+import io.smallrye.common.os.OS;
+
+/**
+ * The library-managed call state buffer which is used for functions which capture {@code errno}.
+ */
+final class CallState {
+    /**
+     * The names of the call state values which are captured on this platform.
+     */
+    static final String[] NAMES;
+    /**
+     * {@code CallState.segment()}, as {@code ()Object}.
+     */
+    static final MethodHandle SEGMENT;
+    /**
+     * The offset of {@code errno} within the call state segment.
+     */
+    static final long ERRNO_OFFSET;
+
+    private static final Object LAYOUT;
+    private static final long SIZE;
+    private static final VarHandle ERRNO;
+    private static final VarHandle GET_LAST_ERROR;
+    private static final VarHandle WSA_GET_LAST_ERROR;
+    private static final ThreadLocal<Object> STATE = ThreadLocal.withInitial(CallState::allocate);
+
+    private CallState() {}
+
+    static {
+        if (OS.current() == OS.WINDOWS) {
+            NAMES = new String[] { "GetLastError", "WSAGetLastError", "errno" };
+        } else {
+            NAMES = new String[] { "errno" };
+        }
+        try {
+            Class<?> pathElement = Class.forName("java.lang.foreign.MemoryLayout$PathElement");
+            LAYOUT = Class.forName("java.lang.foreign.Linker$Option").getMethod("captureStateLayout").invoke(null);
+            SIZE = (long) LazyLink.MEMORY_LAYOUT.getMethod("byteSize").invoke(LAYOUT);
+            ERRNO = stateHandle(pathElement, "errno");
+            Object errnoPath = path(pathElement, "errno");
+            ERRNO_OFFSET = (long) LazyLink.MEMORY_LAYOUT.getMethod("byteOffset", errnoPath.getClass()).invoke(LAYOUT, errnoPath);
+            if (OS.current() == OS.WINDOWS) {
+                GET_LAST_ERROR = stateHandle(pathElement, "GetLastError");
+                WSA_GET_LAST_ERROR = stateHandle(pathElement, "WSAGetLastError");
+            } else {
+                GET_LAST_ERROR = null;
+                WSA_GET_LAST_ERROR = null;
+            }
+            SEGMENT = MethodHandles.lookup().findStatic(CallState.class, "segment", MethodType.methodType(Object.class));
+        } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException e) {
+            throw new RuntimeException(e);
+        } catch (InvocationTargetException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private static VarHandle stateHandle(Class<?> pathElement, String name) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+        Object path = path(pathElement, name);
+        return (VarHandle) LazyLink.MEMORY_LAYOUT.getMethod("varHandle", path.getClass()).invoke(LAYOUT, path);
+    }
+
+    private static Object path(Class<?> pathElement, String name) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+        Object path = Array.newInstance(pathElement, 1);
+        Array.set(path, 0, pathElement.getMethod("groupElement", String.class).invoke(null, name));
+        return path;
+    }
+
+    /**
+     * {@return the call state segment of the current thread}
+     */
+    static Object segment() {
+        return STATE.get();
+    }
+
+    /**
+     * Copy the captured call state from one call state segment to another.
+     *
+     * @param from the source segment (must not be {@code null})
+     * @param to the destination segment (must not be {@code null})
+     */
+    static void copy(Object from, Object to) throws Throwable {
+        LazyLink.SEGMENT_COPY.invokeExact(from, 0L, to, 0L, SIZE);
+    }
+
+    static int errno() {
+        return (int) ERRNO.get(segment(), 0L);
+    }
+
+    static int getLastError() {
+        if (GET_LAST_ERROR == null) {
+            throw new UnsupportedOperationException("GetLastError is not supported on this platform");
+        }
+        return (int) GET_LAST_ERROR.get(segment(), 0L);
+    }
+
+    static int wsaGetLastError() {
+        if (WSA_GET_LAST_ERROR == null) {
+            throw new UnsupportedOperationException("WSAGetLastError is not supported on this platform");
+        }
+        return (int) WSA_GET_LAST_ERROR.get(segment(), 0L);
+    }
+
+    private static Object allocate() {
+        try {
+            // the buffer is freed once its thread is gone
+            Object arena = (Object) LazyLink.ARENA_OF_AUTO.invokeExact();
+            return (Object) LazyLink.ARENA_ALLOCATE_LAYOUT.invokeExact(arena, LAYOUT);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new UndeclaredThrowableException(t);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package io.github.dmlloyd.autolinker;
+
+import static io.github.dmlloyd.autolinker.AutoLinker.CD_FunctionDescriptor;
+import static io.github.dmlloyd.autolinker.AutoLinker.CD_MemoryLayout;
+import static io.github.dmlloyd.autolinker.AutoLinker.MTD_FunctionDescriptor_MemoryLayout_MemoryLayout_array;
+import static io.github.dmlloyd.autolinker.AutoLinker.MTD_FunctionDescriptor_MemoryLayout_array;
+import static io.github.dmlloyd.autolinker.AutoLinker.pushInt;
+
+import java.lang.constant.ClassDesc;
+import java.lang.constant.MethodTypeDesc;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Parameter;
+
+import io.github.dmlloyd.classfile.CodeBuilder;
+import io.github.dmlloyd.classfile.TypeKind;
+
+/**
+ * The shape of a functional interface which is passed to a native function as a function pointer.
+ * Each callback is called through an upcall stub whose target is a generated adapter method,
+ * which converts the native arguments to the parameter types of the interface method
+ * and the return value of the interface method to the native return type,
+ * using the same transformations as a linked method (in reverse).
+ */
+final class Callback {
+    private static final ClassValue<Callback> callbacks = new ClassValue<Callback>() {
+        protected Callback computeValue(final Class<?> type) {
+            return new Callback(type);
+        }
+    };
+
+    private final Class<?> type;
+    private final Method method;
+    private final Transformation[] paramTransformations;
+    private final Transformation returnTransformation;
+
+    private Callback(final Class<?> type) {
+        if (! isCallback(type)) {
+            throw new IllegalArgumentException(type + " is not a functional interface");
+        }
+        this.type = type;
+        Method method = null;
+        for (Method candidate : type.getMethods()) {
+            if (Modifier.isAbstract(candidate.getModifiers()) && ! isObjectMethod(candidate)) {
+                method = candidate;
+                break;
+            }
+        }
+        if (method == null) {
+            throw new IllegalArgumentException(type + " has no abstract method");
+        }
+        this.method = method;
+        Parameter[] parameters = method.getParameters();
+        paramTransformations = new Transformation[parameters.length];
+        for (int i = 0; i < parameters.length; i++) {
+            Parameter parameter = parameters[i];
+            paramTransformations[i] = transformationOf(parameter.getType(), parameter.getAnnotation(Link.as.class), parameter);
+        }
+        Class<?> returnType = method.getReturnType();
+        returnTransformation = returnType == void.class ? Transformation.VOID : transformationOf(returnType, method.getAnnotation(Link.as.class), method);
+    }
+
+    private static Transformation transformationOf(final Class<?> type, final Link.as linkAs, final Object element) {
+        if (StructType.valueType(type) == null) {
+            throw new IllegalArgumentException("Callback " + element + " has a type which cannot be passed to a callback");
+        }
+        Transformation transformation = AutoLinker.addressTransformation(type, linkAs != null ? AutoLinker.transformationFor(linkAs.value()) : Transformation.forJavaType(type));
+        if (transformation.memoryCarrier() == null) {
+            throw new IllegalArgumentException("Callback " + element + " has a type which cannot be passed to a callback");
+        }
+        return transformation;
+    }
+
+    private static boolean isObjectMethod(final Method method) {
+        try {
+            Object.class.getMethod(method.getName(), method.getParameterTypes());
+            return true;
+        } catch (NoSuchMethodException ignored) {
+            return false;
+        }
+    }
+
+    /**
+     * {@return the callback shape for the given functional interface}
+     *
+     * @param type the functional interface (must not be {@code null})
+     * @throws IllegalArgumentException if the interface is not a functional interface, or has an unsupported parameter or return type
+     */
+    static Callback of(Class<?> type) {
+        return callbacks.get(type);
+    }
+
+    /**
+     * {@return <code>true</code> if the given type is an interface which is annotated with {@link FunctionalInterface}}
+     *
+     * @param type the type (must not be {@code null})
+     */
+    static boolean isCallback(Class<?> type) {
+        return type.isInterface() && type.isAnnotationPresent(FunctionalInterface.class);
+    }
+
+    /**
+     * {@return the type of the adapter method, which accepts the callback instance followed by the native arguments}
+     */
+    MethodTypeDesc adapterType() {
+        ClassDesc[] params = new ClassDesc[paramTransformations.length + 1];
+        params[0] = type.describeConstable().orElseThrow();
+        for (int i = 0; i < paramTransformations.length; i++) {
+            params[i + 1] = paramTransformations[i].carrier().describeConstable().orElseThrow();
+        }
+        return MethodTypeDesc.of(returnTransformation.carrier().describeConstable().orElseThrow(), params);
+    }
+
+    /**
+     * Emit the body of the adapter method, which calls the interface method of the callback instance.
+     *
+     * @param cb the code builder (not {@code null})
+     */
+    void emitAdapter(CodeBuilder cb) {
+        Class<?>[] paramTypes = method.getParameterTypes();
+        cb.aload(0);
+        for (int i = 0; i < paramTypes.length; i++) {
+            Class<?> paramType = paramTypes[i];
+            Class<?> valueType = StructType.valueType(paramType);
+            Transformation transformation = paramTransformations[i];
+            cb.loadLocal(TypeKind.from(transformation.carrier()), cb.parameterSlot(i + 1));
+            transformation.emitReturn(cb, valueType);
+            StructType.emitFromValue(cb, paramType, valueType);
+        }
+        cb.invokeinterface(type.describeConstable().orElseThrow(), method.getName(), MethodTypeDesc.ofDescriptor(methodDescriptor()));
+        Class<?> returnType = method.getReturnType();
+        if (returnType == void.class) {
+            cb.return_();
+        } else {
+            Class<?> valueType = StructType.valueType(returnType);
+            StructType.emitToValue(cb, returnType, valueType);
+            TypeKind valueKind = TypeKind.from(valueType);
+            int valueVar = cb.allocateLocal(valueKind);
+            cb.storeLocal(valueKind, valueVar);
+            returnTransformation.applyArgument(cb, valueVar, valueType, false, -1, Direction.in);
+            cb.return_(TypeKind.from(returnTransformation.carrier()));
+        }
+    }
+
+    /**
+     * Emit code to push the function descriptor of the callback.
+     *
+     * @param cb the code builder (not {@code null})
+     */
+    void emitDescriptor(CodeBuilder cb) {
+        boolean nonVoid = returnTransformation != Transformation.VOID;
+        if (nonVoid) {
+            returnTransformation.emitLayout(cb, method.getReturnType());
+        }
+        Class<?>[] paramTypes = method.getParameterTypes();
+        pushInt(cb, paramTypes.length);
+        cb.anewarray(CD_MemoryLayout);
+        for (int i = 0; i < paramTypes.length; i++) {
+            cb.dup();
+            pushInt(cb, i);
+            paramTransformations[i].emitLayout(cb, paramTypes[i]);
+            cb.aastore();
+        }
+        if (nonVoid) {
+            cb.invokestatic(CD_FunctionDescriptor, "of", MTD_FunctionDescriptor_MemoryLayout_MemoryLayout_array, true);
+        } else {
+            cb.invokestatic(CD_FunctionDescriptor, "ofVoid", MTD_FunctionDescriptor_MemoryLayout_array, true);
+        }
+    }
+
+    private String methodDescriptor() {
+        StringBuilder b = new StringBuilder();
+        b.append('(');
+        for (Class<?> paramType : method.getParameterTypes()) {
+            b.append(paramType.descriptorString());
+        }
+        b.append(')');
+        b.append(method.getReturnType().descriptorString());
+        return b.toString();
+    }
+}
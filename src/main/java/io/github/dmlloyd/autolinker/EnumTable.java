@@ -0,0 +1,198 @@
+package io.github.dmlloyd.autolinker;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+
+/**
+ * Lookup tables for converting the constants of a Java {@code enum} which implements {@link NativeEnum}
+ * to and from their native codes, which are built once when a call site is linked.
+ * <p>
+ * Constants are converted to codes by ordinal, using an array of the codes of all constants.
+ * Codes are converted to constants using a directly indexed array when the codes are dense,
+ * or a perfect hash table when they are sparse.
+ * Codes which are not in the table (and every code, if no table could be built) are converted using
+ * the {@code fromNativeCode} method of the type, so that the result is always the same as that of
+ * {@code fromNativeCode}.
+ */
+final class EnumTable {
+    /**
+     * {@code EnumTable.decode(int)}, as {@code (EnumTable, int)Object}.
+     */
+    static final MethodHandle DECODE;
+    private static final MethodHandle ORDINAL;
+    /**
+     * The largest range of codes (relative to the number of constants) which is indexed directly.
+     */
+    private static final int DENSE_FACTOR = 4;
+    private static final int DENSE_MIN = 64;
+    private static final int HASH_ATTEMPTS = 64;
+    /**
+     * The number of times that the hash table size may be doubled while searching for a perfect hash.
+     */
+    private static final int HASH_EXTRA_BITS = 3;
+
+    private static final ClassValue<Object[]> constants = new ClassValue<Object[]>() {
+        protected Object[] computeValue(final Class<?> type) {
+            return type.getEnumConstants();
+        }
+    };
+    private static final ClassValue<int[]> codes = new ClassValue<int[]>() {
+        protected int[] computeValue(final Class<?> type) {
+            Object[] constants = EnumTable.constants.get(type);
+            int[] codes = new int[constants.length];
+            for (int i = 0; i < constants.length; i ++) {
+                codes[i] = ((NativeEnum<?>) constants[i]).nativeCode();
+            }
+            return codes;
+        }
+    };
+
+    static {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            DECODE = lookup.findVirtual(EnumTable.class, "decode", MethodType.methodType(Object.class, int.class));
+            ORDINAL = lookup.findVirtual(Enum.class, "ordinal", MethodType.methodType(int.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private final MethodHandle factory;
+    // dense table
+    private final int min;
+    private final Object[] dense;
+    // perfect hash table
+    private final int[] keys;
+    private final Object[] values;
+    private final int multiplier;
+    private final int shift;
+
+    /**
+     * Construct a new instance.
+     *
+     * @param type the enum type (must not be {@code null})
+     * @param factory the {@code fromNativeCode} method of the type, as {@code (int)Object} (must not be {@code null})
+     */
+    EnumTable(final Class<?> type, final MethodHandle factory) throws Throwable {
+        this.factory = factory;
+        int[] codes = EnumTable.codes.get(type);
+        int[] distinct = Arrays.stream(codes).distinct().toArray();
+        int n = distinct.length;
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (int code : distinct) {
+            min = Math.min(min, code);
+            max = Math.max(max, code);
+        }
+        Object[] dense = null;
+        int[] keys = null;
+        Object[] values = null;
+        int multiplier = 0;
+        int shift = 0;
+        long range = (long) max - min + 1;
+        if (n == 0) {
+            // no table
+        } else if (range <= Math.max(DENSE_MIN, (long) n * DENSE_FACTOR)) {
+            dense = new Object[(int) range];
+            for (int code : distinct) {
+                dense[code - min] = valueOf(code);
+            }
+        } else {
+            // find a multiplicative hash with no collisions
+            int minBits = 32 - Integer.numberOfLeadingZeros(n);
+            search: for (int bits = minBits; bits <= minBits + HASH_EXTRA_BITS; bits ++) {
+                int size = 1 << bits;
+                int candidate = 0x9E3779B9;
+                for (int attempt = 0; attempt < HASH_ATTEMPTS; attempt ++) {
+                    int[] k = new int[size];
+                    boolean[] used = new boolean[size];
+                    boolean ok = true;
+                    for (int code : distinct) {
+                        int h = code * candidate >>> 32 - bits;
+                        if (used[h]) {
+                            ok = false;
+                            break;
+                        }
+                        used[h] = true;
+                        k[h] = code;
+                    }
+                    if (ok) {
+                        keys = k;
+                        values = new Object[size];
+                        for (int code : distinct) {
+                            values[code * candidate >>> 32 - bits] = valueOf(code);
+                        }
+                        multiplier = candidate;
+                        shift = 32 - bits;
+                        break search;
+                    }
+                    // next odd multiplier
+                    candidate = candidate * 0x2C1B3C6D + 0x297A2D39 | 1;
+                }
+            }
+        }
+        this.min = min;
+        this.dense = dense;
+        this.keys = keys;
+        this.values = values;
+        this.multiplier = multiplier;
+        this.shift = shift;
+    }
+
+    private Object valueOf(int code) throws Throwable {
+        // aliased codes map to whichever constant the factory chooses
+        try {
+            return (Object) factory.invokeExact(code);
+        } catch (RuntimeException e) {
+            // leave it to the factory to fail at run time
+            return null;
+        }
+    }
+
+    /**
+     * {@return the native codes of the constants of the given enum type, indexed by ordinal}
+     * The returned array must not be modified.
+     *
+     * @param type the enum type (must not be {@code null})
+     */
+    static int[] codes(Class<?> type) {
+        return codes.get(type);
+    }
+
+    /**
+     * {@return the constants of the given enum type, indexed by ordinal}
+     * The returned array must not be modified.
+     *
+     * @param type the enum type (must not be {@code null})
+     */
+    static Object[] constants(Class<?> type) {
+        return constants.get(type);
+    }
+
+    /**
+     * {@return a method handle which converts a constant of the given enum type to its native code, as <code>(Enum)int</code>}
+     *
+     * @param type the enum type (must not be {@code null})
+     */
+    static MethodHandle encoder(Class<?> type) {
+        return MethodHandles.filterReturnValue(ORDINAL, MethodHandles.arrayElementGetter(int[].class).bindTo(codes.get(type)));
+    }
+
+    Object decode(int code) throws Throwable {
+        Object[] dense = this.dense;
+        if (dense != null) {
+            int idx = code - min;
+            if (idx >= 0 && idx < dense.length && dense[idx] != null) {
+                return dense[idx];
+            }
+        } else if (keys != null) {
+            int h = code * multiplier >>> shift;
+            if (keys[h] == code && values[h] != null) {
+                return values[h];
+            }
+        }
+        return (Object) factory.invokeExact(code);
+    }
+}
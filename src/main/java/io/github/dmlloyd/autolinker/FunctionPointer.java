@@ -0,0 +1,79 @@
+package io.github.dmlloyd.autolinker;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+
+/**
+ * A call site of a function which is called through a function pointer which is given as an argument.
+ * One instance exists for each such call site.
+ * <p>
+ * The call site is an inline cache which is keyed by the function address.
+ * Each address which is seen is linked to a downcall handle which has the address as a constant,
+ * guarded by a comparison of the address,
+ * so that a call site which always calls the same function (or one of a few functions)
+ * costs about the same as a call to a function which is found by name.
+ * Once too many addresses have been seen, the call site falls back to a downcall handle
+ * which accepts the address as an argument.
+ */
+final class FunctionPointer extends MutableCallSite {
+    private static final MethodHandle MISS;
+    private static final MethodHandle IS_ADDRESS;
+    private static final MethodHandle OF_ADDRESS = LazyLink.SEGMENT_OF_ADDRESS.asType(MethodType.methodType(LazyLink.MEMORY_SEGMENT, long.class));
+    /**
+     * The most addresses which are cached before the call site becomes megamorphic.
+     */
+    private static final int MAX_CACHED = 4;
+
+    static {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            MISS = lookup.findVirtual(FunctionPointer.class, "miss", MethodType.methodType(Object.class, Object[].class));
+            IS_ADDRESS = lookup.findStatic(FunctionPointer.class, "isAddress", MethodType.methodType(boolean.class, long.class, long.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * The downcall handle which accepts the address as its first argument, as a {@code MemorySegment}.
+     */
+    private final MethodHandle generic;
+    private int cached;
+
+    /**
+     * Construct a new instance.
+     *
+     * @param generic the downcall handle which accepts the address as its first argument (must not be {@code null})
+     * @param type the call site type, whose first parameter is the {@code long} function address (must not be {@code null})
+     */
+    FunctionPointer(final MethodHandle generic, final MethodType type) {
+        super(type);
+        this.generic = generic;
+        setTarget(MISS.bindTo(this).asCollector(Object[].class, type.parameterCount()).asType(type));
+    }
+
+    private synchronized Object miss(Object[] args) throws Throwable {
+        long address = ((Long) args[0]).longValue();
+        MethodType type = type();
+        MethodHandle handle;
+        if (cached == MAX_CACHED) {
+            // megamorphic
+            handle = MethodHandles.filterArguments(generic, 0, OF_ADDRESS).asType(type);
+            setTarget(handle);
+        } else {
+            Object segment = (Object) LazyLink.SEGMENT_OF_ADDRESS.invokeExact(address);
+            handle = MethodHandles.dropArguments(MethodHandles.insertArguments(generic, 0, segment), 0, long.class).asType(type);
+            MethodHandle test = MethodHandles.insertArguments(IS_ADDRESS, 0, address);
+            // the new entry is checked first; earlier entries (and finally this method) are checked after
+            setTarget(MethodHandles.guardWithTest(test, handle, getTarget()));
+            cached++;
+        }
+        return handle.invokeWithArguments(args);
+    }
+
+    private static boolean isAddress(long expected, long actual) {
+        return expected == actual;
+    }
+}
@@ -0,0 +1,136 @@
+package io.github.dmlloyd.autolinker;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+import io.smallrye.common.cpu.CPU;
+
+/**
+ * Support for passing arrays of buffers or segments as arrays of {@code struct iovec}
+ * (that is, {@code { void *iov_base; size_t iov_len; }}).
+ * Only the descriptors are written to native memory; the data is never copied.
+ * <p>
+ * Since only addresses are written, nothing here keeps the buffers or segments alive;
+ * the caller must keep the array reachable until the call has returned.
+ * Segments of shared arenas must not be closed by another thread until the call has returned.
+ */
+final class IoVec {
+    /**
+     * {@code IoVec.allocate(Object, ByteBuffer[])}, as {@code (Object, ByteBuffer[])Object}.
+     */
+    static final MethodHandle ALLOCATE_BUFFERS;
+    /**
+     * {@code IoVec.allocate(Object, Object[])}, as {@code (Object, Object[])Object}.
+     */
+    static final MethodHandle ALLOCATE_SEGMENTS;
+    /**
+     * {@code IoVec.advance(ByteBuffer[], long)}, as {@code (ByteBuffer[], long)void}.
+     */
+    static final MethodHandle ADVANCE;
+
+    private static final int POINTER_SIZE = CPU.host().pointerSizeBits() >> 3;
+
+    static {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            ALLOCATE_BUFFERS = lookup.findStatic(IoVec.class, "allocate", MethodType.methodType(Object.class, Object.class, ByteBuffer[].class));
+            ALLOCATE_SEGMENTS = lookup.findStatic(IoVec.class, "allocate", MethodType.methodType(Object.class, Object.class, Object[].class));
+            ADVANCE = lookup.findStatic(IoVec.class, "advance", MethodType.methodType(void.class, ByteBuffer[].class, long.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private IoVec() {}
+
+    /**
+     * Allocate and fill an {@code iovec} array which describes the remaining bytes of each of the given buffers.
+     *
+     * @param arena the arena to allocate from (must not be {@code null})
+     * @param buffers the buffers, which must all be direct (must not be {@code null})
+     * @return the segment of the {@code iovec} array (not {@code null})
+     * @throws IllegalArgumentException if a buffer is not direct
+     */
+    static Object allocate(Object arena, ByteBuffer[] buffers) {
+        int cnt = buffers.length;
+        try {
+            Object iov = allocate(arena, cnt);
+            for (int i = 0; i < cnt; i ++) {
+                ByteBuffer buffer = buffers[i];
+                if (! buffer.isDirect()) {
+                    throw new IllegalArgumentException("Buffer at index " + i + " is not direct");
+                }
+                // the segment of a buffer starts at its position
+                Object segment = (Object) LazyLink.SEGMENT_OF_BUFFER.invokeExact((Buffer) buffer);
+                set(iov, i, (long) LazyLink.SEGMENT_ADDRESS.invokeExact(segment), buffer.remaining());
+            }
+            return iov;
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new UndeclaredThrowableException(t);
+        }
+    }
+
+    /**
+     * Allocate and fill an {@code iovec} array which describes each of the given segments.
+     *
+     * @param arena the arena to allocate from (must not be {@code null})
+     * @param segments the segments, which must all be native (must not be {@code null})
+     * @return the segment of the {@code iovec} array (not {@code null})
+     * @throws IllegalArgumentException if a segment is not native
+     */
+    static Object allocate(Object arena, Object[] segments) {
+        int cnt = segments.length;
+        try {
+            Object iov = allocate(arena, cnt);
+            for (int i = 0; i < cnt; i ++) {
+                Object segment = segments[i];
+                if (! (boolean) LazyLink.SEGMENT_IS_NATIVE.invokeExact(segment)) {
+                    throw new IllegalArgumentException("Segment at index " + i + " is not native");
+                }
+                set(iov, i, (long) LazyLink.SEGMENT_ADDRESS.invokeExact(segment), (long) LazyLink.SEGMENT_BYTE_SIZE.invokeExact(segment));
+            }
+            return iov;
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new UndeclaredThrowableException(t);
+        }
+    }
+
+    /**
+     * Advance the positions of the given buffers by the number of bytes which were transferred,
+     * filling (or draining) each buffer in turn.
+     * Negative counts (i.e. errors) are ignored.
+     *
+     * @param buffers the buffers (must not be {@code null})
+     * @param transferred the number of bytes which were transferred
+     */
+    static void advance(ByteBuffer[] buffers, long transferred) {
+        for (int i = 0; i < buffers.length && transferred > 0; i ++) {
+            ByteBuffer buffer = buffers[i];
+            int cnt = (int) Math.min(transferred, buffer.remaining());
+            buffer.position(buffer.position() + cnt);
+            transferred -= cnt;
+        }
+    }
+
+    private static Object allocate(Object arena, int cnt) throws Throwable {
+        return (Object) LazyLink.ARENA_ALLOCATE.invokeExact(arena, (long) cnt * POINTER_SIZE * 2, (long) POINTER_SIZE);
+    }
+
+    private static void set(Object iov, int idx, long base, long len) throws Throwable {
+        if (POINTER_SIZE == 8) {
+            LazyLink.SEGMENT_SET_LONG.invokeExact(iov, (long) idx << 4, base);
+            LazyLink.SEGMENT_SET_LONG.invokeExact(iov, ((long) idx << 4) + 8, len);
+        } else {
+            LazyLink.SEGMENT_SET_INT.invokeExact(iov, (long) idx << 3, (int) base);
+            LazyLink.SEGMENT_SET_INT.invokeExact(iov, ((long) idx << 3) + 4, (int) len);
+        }
+    }
+}
@@ -1,11 +1,125 @@
 package io.github.dmlloyd.autolinker;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.VarHandle;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.Buffer;
+import java.util.List;
+
 /**
  *
  */
 final class LazyLink {
     static final Class<?> ARENA;
     static final Class<?> MEMORY_SEGMENT;
+    static final Class<?> VALUE_LAYOUT;
+    static final Class<?> MEMORY_LAYOUT;
+    static final Class<?> FUNCTION_DESCRIPTOR;
+
+    /**
+     * {@code MemorySegment.NULL}.
+     */
+    static final Object SEGMENT_NULL;
+
+    /**
+     * {@code Arena.ofShared()}, as {@code ()Object}.
+     */
+    static final MethodHandle ARENA_OF_SHARED;
+    /**
+     * {@code Arena.ofAuto()}, as {@code ()Object}.
+     */
+    static final MethodHandle ARENA_OF_AUTO;
+    /**
+     * {@code Arena.ofConfined()}, as {@code ()Object}.
+     */
+    static final MethodHandle ARENA_OF_CONFINED;
+    /**
+     * {@code Arena.allocate(long, long)}, as {@code (Object, long, long)Object}.
+     */
+    static final MethodHandle ARENA_ALLOCATE;
+    /**
+     * {@code Arena.allocate(MemoryLayout)}, as {@code (Object, Object)Object}.
+     */
+    static final MethodHandle ARENA_ALLOCATE_LAYOUT;
+    /**
+     * {@code Arena.close()}, as {@code (Object)void}.
+     */
+    static final MethodHandle ARENA_CLOSE;
+    /**
+     * {@code MemorySegment.address()}, as {@code (Object)long}.
+     */
+    static final MethodHandle SEGMENT_ADDRESS;
+    /**
+     * {@code MemorySegment.copy(MemorySegment, long, MemorySegment, long, long)}, as {@code (Object, long, Object, long, long)void}.
+     */
+    static final MethodHandle SEGMENT_COPY;
+    /**
+     * {@code MemorySegment.copy(Object, int, MemorySegment, ValueLayout, long, int)}, as {@code (Object, int, Object, Object, long, int)void}.
+     */
+    static final MethodHandle SEGMENT_COPY_FROM_ARRAY;
+    /**
+     * {@code MemorySegment.copy(MemorySegment, ValueLayout, long, Object, int, int)}, as {@code (Object, Object, long, Object, int, int)void}.
+     */
+    static final MethodHandle SEGMENT_COPY_TO_ARRAY;
+    /**
+     * {@code MemorySegment.byteSize()}, as {@code (Object)long}.
+     */
+    static final MethodHandle SEGMENT_BYTE_SIZE;
+    /**
+     * {@code MemorySegment.isNative()}, as {@code (Object)boolean}.
+     */
+    static final MethodHandle SEGMENT_IS_NATIVE;
+    /**
+     * {@code MemorySegment.ofBuffer(Buffer)}, as {@code (Buffer)Object}.
+     */
+    static final MethodHandle SEGMENT_OF_BUFFER;
+    /**
+     * {@code MemorySegment.ofAddress(long)}, as {@code (long)Object}.
+     */
+    static final MethodHandle SEGMENT_OF_ADDRESS;
+    /**
+     * {@code MemorySegment.scope()}, as {@code (Object)Object}.
+     */
+    static final MethodHandle SEGMENT_SCOPE;
+    /**
+     * {@code Arena.scope()}, as {@code (Object)Object}.
+     */
+    static final MethodHandle ARENA_SCOPE;
+    /**
+     * {@code MemorySegment.asSlice(long, long)}, as {@code (Object, long, long)Object}.
+     */
+    static final MethodHandle SEGMENT_AS_SLICE;
+    /**
+     * {@code MemorySegment.isAccessibleBy(Thread)}, as {@code (Object, Thread)boolean}.
+     */
+    static final MethodHandle SEGMENT_IS_ACCESSIBLE_BY;
+    /**
+     * {@code MemorySegment.get(ValueLayout.JAVA_BYTE, long)}, as {@code (Object, long)byte}.
+     */
+    static final MethodHandle SEGMENT_GET_BYTE;
+    /**
+     * {@code MemorySegment.set(ValueLayout.JAVA_INT, long, int)}, as {@code (Object, long, int)void}.
+     */
+    static final MethodHandle SEGMENT_SET_INT;
+    /**
+     * {@code MemorySegment.set(ValueLayout.JAVA_LONG, long, long)}, as {@code (Object, long, long)void}.
+     */
+    static final MethodHandle SEGMENT_SET_LONG;
+
+    /**
+     * {@code Linker.Option.firstVariadicArg(int)}, as {@code (int)Object}.
+     */
+    static final MethodHandle OPTION_FIRST_VARIADIC_ARG;
+    /**
+     * {@code FunctionDescriptor.argumentLayouts()}, as {@code (Object)List}.
+     */
+    static final MethodHandle DESCRIPTOR_ARGUMENT_LAYOUTS;
+    /**
+     * {@code FunctionDescriptor.appendArgumentLayouts(MemoryLayout...)}, as {@code (Object, Object)Object}.
+     */
+    static final MethodHandle DESCRIPTOR_APPEND_ARGUMENT_LAYOUTS;
 
     private LazyLink() {}
 
@@ -13,8 +127,116 @@ final class LazyLink {
         try {
             ARENA = Class.forName("java.lang.foreign.Arena");
             MEMORY_SEGMENT = Class.forName("java.lang.foreign.MemorySegment");
-        } catch (ClassNotFoundException e) {
+            VALUE_LAYOUT = Class.forName("java.lang.foreign.ValueLayout");
+            MEMORY_LAYOUT = Class.forName("java.lang.foreign.MemoryLayout");
+            FUNCTION_DESCRIPTOR = Class.forName("java.lang.foreign.FunctionDescriptor");
+            SEGMENT_NULL = MEMORY_SEGMENT.getField("NULL").get(null);
+        } catch (ClassNotFoundException | NoSuchFieldException | IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            ARENA_OF_SHARED = lookup.findStatic(ARENA, "ofShared", MethodType.methodType(ARENA))
+                .asType(MethodType.methodType(Object.class));
+            ARENA_OF_AUTO = lookup.findStatic(ARENA, "ofAuto", MethodType.methodType(ARENA))
+                .asType(MethodType.methodType(Object.class));
+            ARENA_OF_CONFINED = lookup.findStatic(ARENA, "ofConfined", MethodType.methodType(ARENA))
+                .asType(MethodType.methodType(Object.class));
+            ARENA_ALLOCATE_LAYOUT = lookup.findVirtual(ARENA, "allocate", MethodType.methodType(MEMORY_SEGMENT, MEMORY_LAYOUT))
+                .asType(MethodType.methodType(Object.class, Object.class, Object.class));
+            ARENA_ALLOCATE = lookup.findVirtual(ARENA, "allocate", MethodType.methodType(MEMORY_SEGMENT, long.class, long.class))
+                .asType(MethodType.methodType(Object.class, Object.class, long.class, long.class));
+            ARENA_CLOSE = lookup.findVirtual(ARENA, "close", MethodType.methodType(void.class))
+                .asType(MethodType.methodType(void.class, Object.class));
+            SEGMENT_ADDRESS = lookup.findVirtual(MEMORY_SEGMENT, "address", MethodType.methodType(long.class))
+                .asType(MethodType.methodType(long.class, Object.class));
+            SEGMENT_COPY = lookup.findStatic(MEMORY_SEGMENT, "copy", MethodType.methodType(void.class, MEMORY_SEGMENT, long.class, MEMORY_SEGMENT, long.class, long.class))
+                .asType(MethodType.methodType(void.class, Object.class, long.class, Object.class, long.class, long.class));
+            SEGMENT_COPY_FROM_ARRAY = lookup.findStatic(MEMORY_SEGMENT, "copy", MethodType.methodType(void.class, Object.class, int.class, MEMORY_SEGMENT, VALUE_LAYOUT, long.class, int.class))
+                .asType(MethodType.methodType(void.class, Object.class, int.class, Object.class, Object.class, long.class, int.class));
+            SEGMENT_COPY_TO_ARRAY = lookup.findStatic(MEMORY_SEGMENT, "copy", MethodType.methodType(void.class, MEMORY_SEGMENT, VALUE_LAYOUT, long.class, Object.class, int.class, int.class))
+                .asType(MethodType.methodType(void.class, Object.class, Object.class, long.class, Object.class, int.class, int.class));
+            SEGMENT_BYTE_SIZE = lookup.findVirtual(MEMORY_SEGMENT, "byteSize", MethodType.methodType(long.class))
+                .asType(MethodType.methodType(long.class, Object.class));
+            SEGMENT_IS_NATIVE = lookup.findVirtual(MEMORY_SEGMENT, "isNative", MethodType.methodType(boolean.class))
+                .asType(MethodType.methodType(boolean.class, Object.class));
+            SEGMENT_OF_BUFFER = lookup.findStatic(MEMORY_SEGMENT, "ofBuffer", MethodType.methodType(MEMORY_SEGMENT, Buffer.class))
+                .asType(MethodType.methodType(Object.class, Buffer.class));
+            SEGMENT_OF_ADDRESS = lookup.findStatic(MEMORY_SEGMENT, "ofAddress", MethodType.methodType(MEMORY_SEGMENT, long.class))
+                .asType(MethodType.methodType(Object.class, long.class));
+            Class<?> scope = Class.forName("java.lang.foreign.MemorySegment$Scope");
+            SEGMENT_SCOPE = lookup.findVirtual(MEMORY_SEGMENT, "scope", MethodType.methodType(scope))
+                .asType(MethodType.methodType(Object.class, Object.class));
+            ARENA_SCOPE = lookup.findVirtual(ARENA, "scope", MethodType.methodType(scope))
+                .asType(MethodType.methodType(Object.class, Object.class));
+            SEGMENT_AS_SLICE = lookup.findVirtual(MEMORY_SEGMENT, "asSlice", MethodType.methodType(MEMORY_SEGMENT, long.class, long.class))
+                .asType(MethodType.methodType(Object.class, Object.class, long.class, long.class));
+            SEGMENT_IS_ACCESSIBLE_BY = lookup.findVirtual(MEMORY_SEGMENT, "isAccessibleBy", MethodType.methodType(boolean.class, Thread.class))
+                .asType(MethodType.methodType(boolean.class, Object.class, Thread.class));
+            Class<?> ofByte = Class.forName("java.lang.foreign.ValueLayout$OfByte");
+            SEGMENT_GET_BYTE = MethodHandles.insertArguments(lookup.findVirtual(MEMORY_SEGMENT, "get", MethodType.methodType(byte.class, ofByte, long.class)), 1, valueLayout("JAVA_BYTE"))
+                .asType(MethodType.methodType(byte.class, Object.class, long.class));
+            Class<?> ofInt = Class.forName("java.lang.foreign.ValueLayout$OfInt");
+            SEGMENT_SET_INT = MethodHandles.insertArguments(lookup.findVirtual(MEMORY_SEGMENT, "set", MethodType.methodType(void.class, ofInt, long.class, int.class)), 1, valueLayout("JAVA_INT"))
+                .asType(MethodType.methodType(void.class, Object.class, long.class, int.class));
+            Class<?> ofLong = Class.forName("java.lang.foreign.ValueLayout$OfLong");
+            SEGMENT_SET_LONG = MethodHandles.insertArguments(lookup.findVirtual(MEMORY_SEGMENT, "set", MethodType.methodType(void.class, ofLong, long.class, long.class)), 1, valueLayout("JAVA_LONG"))
+                .asType(MethodType.methodType(void.class, Object.class, long.class, long.class));
+            Class<?> option = Class.forName("java.lang.foreign.Linker$Option");
+            OPTION_FIRST_VARIADIC_ARG = lookup.findStatic(option, "firstVariadicArg", MethodType.methodType(option, int.class))
+                .asType(MethodType.methodType(Object.class, int.class));
+            DESCRIPTOR_ARGUMENT_LAYOUTS = lookup.findVirtual(FUNCTION_DESCRIPTOR, "argumentLayouts", MethodType.methodType(List.class))
+                .asType(MethodType.methodType(List.class, Object.class));
+            DESCRIPTOR_APPEND_ARGUMENT_LAYOUTS = lookup.findVirtual(FUNCTION_DESCRIPTOR, "appendArgumentLayouts", MethodType.methodType(FUNCTION_DESCRIPTOR, MEMORY_LAYOUT.arrayType()))
+                .asFixedArity()
+                .asType(MethodType.methodType(Object.class, Object.class, Object.class));
+        } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * {@return the value layout constant with the given name from {@code ValueLayout}}
+     *
+     * @param name the constant name (e.g. {@code JAVA_INT})
+     */
+    static Object valueLayout(String name) {
+        try {
+            return VALUE_LAYOUT.getField(name).get(null);
+        } catch (NoSuchFieldException | IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * {@return the var handle for the given value layout}
+     * The coordinates of the var handle are the segment and the offset.
+     *
+     * @param layout the value layout (must not be {@code null})
+     */
+    static VarHandle varHandle(Object layout) {
+        try {
+            return (VarHandle) VALUE_LAYOUT.getMethod("varHandle").invoke(layout);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new RuntimeException(e);
+        } catch (InvocationTargetException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * {@return the array element var handle for the given value layout}
+     * The coordinates of the var handle are the segment, the base offset, and the element index.
+     *
+     * @param layout the value layout (must not be {@code null})
+     */
+    static VarHandle arrayElementHandle(Object layout) {
+        try {
+            return (VarHandle) VALUE_LAYOUT.getMethod("arrayElementVarHandle", int[].class).invoke(layout, (Object) new int[0]);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
             throw new RuntimeException(e);
+        } catch (InvocationTargetException e) {
+            throw new RuntimeException(e.getCause());
         }
     }
 }
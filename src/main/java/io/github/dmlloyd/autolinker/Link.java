@@ -19,19 +19,19 @@ public @interface Link {
     String name() default "";
 
     @Retention(RetentionPolicy.RUNTIME)
-    @Target({ElementType.PARAMETER, ElementType.METHOD})
+    @Target({ElementType.PARAMETER, ElementType.METHOD, ElementType.RECORD_COMPONENT})
     @interface as {
         AsType value();
     }
 
     /**
-     * The direction of a parameter.
+     * The direction of a parameter, or of a component of a record which corresponds to a native structure.
      * This applies in cases where the value must be copied to or from the argument into a buffer.
      * In cases where a copy is not needed, all value parameters are effectively {@link Direction#in in}
      * and all pointer parameters are effectively {@link Direction#in_out in_out}.
      */
     @Retention(RetentionPolicy.RUNTIME)
-    @Target(ElementType.PARAMETER)
+    @Target({ElementType.PARAMETER, ElementType.RECORD_COMPONENT})
     @interface dir {
         /**
          * {@return the direction of this parameter}
@@ -39,6 +39,30 @@ public @interface Link {
         Direction value();
     }
 
+    /**
+     * Advance the positions of the buffers of the annotated {@code ByteBuffer[]} parameter
+     * (which must be passed {@linkplain AsType#iovec as an array of <code>struct iovec</code>})
+     * by the number of bytes which is returned by the function.
+     * The buffers are filled or drained in order, as the function would do.
+     * Negative return values (i.e. errors) do not change any positions.
+     * The function must return an integral value.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.PARAMETER)
+    @interface advance {}
+
+    /**
+     * Call the function whose address is given by the annotated {@code MemorySegment} or {@code long} parameter,
+     * rather than a function which is found by name.
+     * The address is not passed to the function.
+     * The other parameters and the return type of the method give the type of the function, as usual.
+     * This is useful for calling through function pointers which are obtained from native code,
+     * such as the entries of a table of functions.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.PARAMETER)
+    @interface target {}
+
     /**
      * Mark the first variadic argument of a variadic function call.
      */
@@ -46,6 +70,158 @@ public @interface Link {
     @Target(ElementType.PARAMETER)
     @interface va_start {}
 
+    /**
+     * Indicate that the annotated record class corresponds to a native structure,
+     * which may be passed to or returned from a function by value.
+     * The members of the structure correspond to the components of the record, in order,
+     * and are laid out using the natural alignment of each member.
+     * The native type of each member may be given using {@link as} on the record component.
+     * Components may be of any primitive type, {@code MemorySegment} (for pointers),
+     * or a type which implements {@link NativeEnum} or {@link NativeHandle},
+     * or may be another record which is annotated with this annotation.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.TYPE)
+    @interface struct {}
+
+    /**
+     * Give the size of the memory which is referred to by the pointer returned by the annotated method.
+     * The returned {@code MemorySegment} or {@code ByteBuffer} has the given size, rather than being empty.
+     * When given on the method, the value is the constant size in bytes.
+     * When given on a parameter, the value of that parameter (which must be of an integral type) is the size in bytes,
+     * and the value of the annotation is ignored.
+     * If the method has an {@code Arena} parameter, then the returned segment is associated with that arena;
+     * otherwise, the returned segment is always accessible.
+     * A {@code NULL} return value is returned as {@code MemorySegment.NULL} or {@code null}, respectively.
+     * <p>
+     * Methods which return {@code ByteBuffer} must be annotated.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target({ElementType.METHOD, ElementType.PARAMETER})
+    @interface returnSize {
+        /**
+         * {@return the size of the returned memory in bytes}
+         */
+        long value() default -1;
+    }
+
+    /**
+     * Indicate that the memory referred to by the pointer returned by the annotated method,
+     * or by the annotated {@code MemorySegment} component of a {@linkplain result result record}, is owned by the caller,
+     * and must be freed by calling the given function.
+     * The method must have an {@code Arena} parameter.
+     * The returned segment is associated with that arena, and the memory is freed when the arena is closed.
+     * Thus, many allocations may be freed together by closing a single arena, without any per-object cleaner.
+     * {@code NULL} pointers are never freed.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target({ElementType.METHOD, ElementType.RECORD_COMPONENT})
+    @interface owned {
+        /**
+         * {@return the name of the function which frees the memory}
+         * The function must accept the pointer as its only argument.
+         */
+        String free() default "free";
+    }
+
+    /**
+     * Configure the decoding of a {@code NUL}-terminated string which is returned by the annotated method.
+     * Methods which return {@code String} without this annotation use the default values.
+     * A {@code NULL} pointer is returned as {@code null}.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.METHOD)
+    @interface string {
+        /**
+         * {@return the maximum number of bytes to decode, not including the terminator}
+         * Longer strings are truncated.
+         */
+        int maxLength() default Integer.MAX_VALUE - 8;
+
+        /**
+         * {@return the name of the character set of the string}
+         */
+        String charset() default "UTF-8";
+
+        /**
+         * {@return the maximum number of decoded strings to cache by address, or zero to disable caching}
+         * Caching should only be enabled for functions which return pointers to strings which never change,
+         * such as {@code strerror} on most platforms.
+         * The cache size is rounded up to a power of two, and entries may be evicted when addresses collide.
+         */
+        int cacheSize() default 0;
+    }
+
+    /**
+     * Indicate that the annotated record component receives a result of a function.
+     * A method whose return type is a record with annotated components returns a new record instance
+     * which is constructed from the results of each call.
+     * <p>
+     * A component whose value is {@code -1} receives the return value of the function.
+     * Otherwise, the value is the index of a pointer parameter of the native function, which does not correspond
+     * to any parameter of the Java method.
+     * Instead, the pointer refers to temporary memory which is read into the component after the call.
+     * Components which share an index are laid out in order as the members of a structure at that pointer.
+     * If no component receives the return value of the function, then the native return type is given
+     * by {@link as} on the method, or {@code void} if none is given.
+     * <p>
+     * Components may be of any type which may be a member of a {@linkplain struct structure},
+     * and their native type may be given using {@link as}.
+     * Every component of the record must be annotated.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.RECORD_COMPONENT)
+    @interface result {
+        /**
+         * {@return the index of the native parameter which receives the component, or {@code -1} for the return value}
+         */
+        int value() default -1;
+    }
+
+    /**
+     * Indicate that the annotated method of a {@linkplain AutoLinker#newStructView(Class) structure view} interface
+     * reads or writes the structure member at the given offset.
+     * A method with no parameters and a non-{@code void} return type reads the member,
+     * and a method with one parameter and a {@code void} return type writes the member.
+     * The native type of the member may be given using {@link as} on the method.
+     * The member may be of any primitive type, {@code MemorySegment} (for pointers),
+     * or a type which implements {@link NativeEnum} or {@link NativeHandle}.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.METHOD)
+    @interface offset {
+        /**
+         * {@return the offset of the member from the start of the structure, in bytes}
+         */
+        long value();
+    }
+
+    /**
+     * Indicate that the annotated method of a {@linkplain AutoLinker#newStructView(Class) structure view} interface
+     * moves the view to a new position.
+     * The method must accept either a {@code MemorySegment} and a {@code long} offset,
+     * or only a {@code long} offset, in which case the view remains on the same segment.
+     * The method must return either {@code void} or the view interface type, in which case the view itself is returned.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.METHOD)
+    @interface rebase {}
+
+    /**
+     * Indicate that the annotated method reads or writes a native global variable, rather than calling a function.
+     * The name of the variable is given by {@link Link#name()}, or is the name of the method if none is given.
+     * A method with no parameters and a non-{@code void} return type reads the variable,
+     * and a method with one parameter and a {@code void} return type writes the variable.
+     * The native type of the variable may be given using {@link as} on the method.
+     * The variable may be of any primitive type, {@code MemorySegment} (for pointers),
+     * or a type which implements {@link NativeEnum} or {@link NativeHandle}.
+     * <p>
+     * The address of the variable is resolved on first access, after which each access is a plain memory access.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.METHOD)
+    @interface variable {}
+
     /**
      * Indicate that the method is critical.
      */
@@ -53,6 +229,123 @@ public @interface Link {
     @Target(ElementType.METHOD)
     @interface critical {
         boolean heap() default false;
+
+        /**
+         * {@return the maximum total size, in bytes, of the array arguments for which the heap is accessed directly}
+         * Calls whose array arguments are larger than this value are made using a non-critical
+         * linkage which copies the arrays instead, so that a long-running call does not hold off garbage collection.
+         * A negative value (the default) means that the heap is always accessed directly.
+         * This value is only used when {@link #heap()} is {@code true}.
+         */
+        int heapThreshold() default -1;
+    }
+
+    /**
+     * Indicate that the method may block for a long time (for example, waiting for I/O).
+     * A native call pins the carrier thread of a virtual thread until it returns,
+     * so when the method is called from a virtual thread, the call is made on a platform thread
+     * from a pool which is managed by the library, and the virtual thread waits for it without pinning its carrier.
+     * Calls from platform threads are made directly.
+     * The pool has at most 256 threads, unless the {@code io.github.dmlloyd.autolinker.maxThreads} system property
+     * gives a different maximum; when all of them are busy, calls wait for a free thread.
+     * <p>
+     * If any memory segment or arena argument is confined to the calling thread, the call is made directly.
+     * Call state which is captured by an {@link errno} method is available on the calling thread as usual.
+     * This annotation may not be combined with {@link critical}.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.METHOD)
+    @interface blocking {}
+
+    /**
+     * Indicate that calls of the method with many elements should be split into chunks which are processed in parallel.
+     * The arguments which are split are those which are annotated with {@link partition}.
+     * When the element count is larger than {@link #chunk()}, the function is called once for each chunk,
+     * using tasks in the common fork-join pool, with a slice of each partitioned argument and the element count of the chunk.
+     * Slices of arrays are copied, while slices of memory segments are views of the same memory.
+     * <p>
+     * If the method returns a value, the results of the calls are combined in order
+     * using the {@link #reduce() reducer}.
+     * If any memory segment or arena argument is confined to the calling thread, the call is not split.
+     * This annotation may not be combined with {@link blocking} or {@link errno}.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.METHOD)
+    @interface parallel {
+        /**
+         * {@return the largest number of elements which are processed by a single call}
+         */
+        int chunk();
+
+        /**
+         * {@return the name of the method which combines the results of two consecutive chunks}
+         * The method must be a non-private static method of the interface which declares this method,
+         * which accepts two values of the return type of this method and returns a value of that type.
+         * A reducer must be given if and only if the method returns a value.
+         */
+        String reduce() default "";
+    }
+
+    /**
+     * Indicate that the annotated parameter of a {@link parallel} method is partitioned.
+     * An integral parameter gives the number of elements, and is replaced by the number of elements of each chunk.
+     * An array or {@code MemorySegment} parameter is sliced into chunks.
+     * There must be exactly one element count parameter.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.PARAMETER)
+    @interface partition {
+        /**
+         * {@return the number of array elements (or bytes, for a memory segment) for each element which is counted}
+         * This value is ignored for the element count parameter.
+         */
+        int value() default 1;
+    }
+
+    /**
+     * Indicate that the value of {@code errno} should be captured after each call of the method.
+     * On Windows, the values of {@code GetLastError()} and {@code WSAGetLastError()} are also captured.
+     * The values are captured into a buffer which is managed by the library for each thread,
+     * and may be read using {@link AutoLinker#lastErrno()}, {@link AutoLinker#lastError()},
+     * and {@link AutoLinker#lastSocketError()}.
+     * This annotation may not be combined with a {@link capture} parameter.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.METHOD)
+    @interface errno {}
+
+    /**
+     * Indicate that the return value of the method should be checked for failure,
+     * in which case an exception is thrown.
+     * The exception is created by calling a {@code static} method named {@code create} on the {@link #exception()} class.
+     * This method must accept either an {@code int}, which is given the value of {@code errno},
+     * or a type which implements {@link NativeEnum}, in which case the value of {@code errno} is mapped
+     * using the {@code fromNativeCode} method of that type.
+     * The method must return an exception, which must be declared by the annotated method if it is a checked exception.
+     * <p>
+     * The value of {@code errno} is captured as if the method were annotated with {@link errno},
+     * unless the method has a {@link capture} parameter, in which case that parameter must capture {@code errno}.
+     * At least one failure condition must be given.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.METHOD)
+    @interface checkReturn {
+        /**
+         * {@return {@code true} if a negative return value indicates failure}
+         * The method must return an integral type.
+         */
+        boolean onNegative() default false;
+
+        /**
+         * {@return {@code true} if a {@code NULL} return value indicates failure}
+         * The method must return a pointer.
+         */
+        boolean onNull() default false;
+
+        /**
+         * {@return the class of the exception factory}
+         */
+        Class<?> exception();
     }
 
     /**
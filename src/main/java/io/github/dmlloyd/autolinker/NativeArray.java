@@ -0,0 +1,213 @@
+package io.github.dmlloyd.autolinker;
+
+import java.lang.reflect.UndeclaredThrowableException;
+
+import io.smallrye.common.constraint.Assert;
+
+/**
+ * An array of primitive values which is stored in native memory.
+ * <p>
+ * Native arrays are {@linkplain NativeHandle native handles}, so they may be passed to linked functions
+ * wherever a pointer is expected, in which case the address of the array is passed directly without copying,
+ * regardless of the declared {@linkplain Link.dir direction} of the parameter.
+ * This allows data to stay resident in native memory across many calls.
+ * <p>
+ * Native arrays are backed by a shared arena, so they may be read and written from any thread.
+ * However, native arrays are not thread-safe; in particular, {@link #resize(long)} and {@link #close()}
+ * must not be called concurrently with any other operation on the same array.
+ * The memory of the array is freed when the array is {@linkplain #close() closed}.
+ */
+public abstract sealed class NativeArray implements NativeHandle, AutoCloseable permits NativeByteArray, NativeCharArray, NativeShortArray, NativeIntArray, NativeLongArray, NativeFloatArray, NativeDoubleArray {
+    private final int elementSize;
+    private Object arena;
+    private Object segment;
+    private long address;
+    private long length;
+
+    NativeArray(final long length, final int elementSize) {
+        Assert.checkMinimumParameter("length", 0, length);
+        this.elementSize = elementSize;
+        Object arena = newArena();
+        Object segment = allocate(arena, Math.multiplyExact(length, elementSize), elementSize);
+        this.arena = arena;
+        this.segment = segment;
+        this.address = address(segment);
+        this.length = length;
+    }
+
+    /**
+     * {@return the number of elements in this array}
+     */
+    public final long length() {
+        return length;
+    }
+
+    /**
+     * {@return the size of this array in bytes}
+     */
+    public final long byteSize() {
+        return length * elementSize;
+    }
+
+    /**
+     * {@return the native address of the start of this array}
+     * The address changes when the array is {@linkplain #resize(long) resized}.
+     *
+     * @throws IllegalStateException if this array is closed
+     */
+    public final long address() {
+        if (segment == null) {
+            throw closed();
+        }
+        return address;
+    }
+
+    /**
+     * Change the number of elements in this array.
+     * Elements which are within the bounds of both the old and new length are preserved,
+     * and any new elements are zeroed.
+     * The array is moved to a new native address.
+     *
+     * @param newLength the new number of elements (must be at least zero)
+     * @throws IllegalStateException if this array is closed
+     */
+    public final void resize(long newLength) {
+        Assert.checkMinimumParameter("newLength", 0, newLength);
+        Object oldSegment = segment();
+        Object oldArena = arena;
+        Object newArena = newArena();
+        Object newSegment = allocate(newArena, Math.multiplyExact(newLength, elementSize), elementSize);
+        try {
+            LazyLink.SEGMENT_COPY.invokeExact(oldSegment, 0L, newSegment, 0L, Math.min(length, newLength) * elementSize);
+        } catch (RuntimeException | Error e) {
+            close(newArena);
+            throw e;
+        } catch (Throwable t) {
+            close(newArena);
+            throw new UndeclaredThrowableException(t);
+        }
+        arena = newArena;
+        segment = newSegment;
+        address = address(newSegment);
+        length = newLength;
+        close(oldArena);
+    }
+
+    /**
+     * Ensure that this array has at least the given number of elements, growing it if needed.
+     * When the array must grow, it grows by at least half of its current length
+     * so that repeated calls run in amortized constant time.
+     *
+     * @param minLength the minimum number of elements (must be at least zero)
+     * @throws IllegalStateException if this array is closed
+     */
+    public final void ensureLength(long minLength) {
+        Assert.checkMinimumParameter("minLength", 0, minLength);
+        long length = this.length;
+        if (minLength > length) {
+            resize(Math.max(minLength, length + (length >> 1)));
+        }
+    }
+
+    /**
+     * Free the memory of this array.
+     * Calling this method more than once has no additional effect.
+     */
+    public final void close() {
+        Object arena = this.arena;
+        if (arena != null) {
+            this.arena = null;
+            segment = null;
+            address = 0;
+            length = 0;
+            close(arena);
+        }
+    }
+
+    /**
+     * {@return the backing memory segment}
+     *
+     * @throws IllegalStateException if this array is closed
+     */
+    final Object segment() {
+        Object segment = this.segment;
+        if (segment == null) {
+            throw closed();
+        }
+        return segment;
+    }
+
+    final void copyFrom(Object layout, long index, Object array, int offs, int len) {
+        try {
+            LazyLink.SEGMENT_COPY_FROM_ARRAY.invokeExact(array, offs, segment(), layout, index * elementSize, len);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new UndeclaredThrowableException(t);
+        }
+    }
+
+    final void copyTo(Object layout, long index, Object array, int offs, int len) {
+        try {
+            LazyLink.SEGMENT_COPY_TO_ARRAY.invokeExact(segment(), layout, index * elementSize, array, offs, len);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new UndeclaredThrowableException(t);
+        }
+    }
+
+    final int intLength() {
+        long length = this.length;
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("Array is too large to copy to the heap");
+        }
+        return (int) length;
+    }
+
+    private static IllegalStateException closed() {
+        return new IllegalStateException("Native array is closed");
+    }
+
+    private static Object newArena() {
+        try {
+            return (Object) LazyLink.ARENA_OF_SHARED.invokeExact();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new UndeclaredThrowableException(t);
+        }
+    }
+
+    private static Object allocate(Object arena, long size, long align) {
+        try {
+            return (Object) LazyLink.ARENA_ALLOCATE.invokeExact(arena, size, align);
+        } catch (RuntimeException | Error e) {
+            close(arena);
+            throw e;
+        } catch (Throwable t) {
+            close(arena);
+            throw new UndeclaredThrowableException(t);
+        }
+    }
+
+    private static long address(Object segment) {
+        try {
+            return (long) LazyLink.SEGMENT_ADDRESS.invokeExact(segment);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new UndeclaredThrowableException(t);
+        }
+    }
+
+    private static void close(Object arena) {
+        try {
+            LazyLink.ARENA_CLOSE.invokeExact(arena);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new UndeclaredThrowableException(t);
+        }
+    }
+}
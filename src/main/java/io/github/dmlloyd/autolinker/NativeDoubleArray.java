@@ -0,0 +1,122 @@
+package io.github.dmlloyd.autolinker;
+
+import java.lang.invoke.VarHandle;
+
+import io.smallrye.common.constraint.Assert;
+
+/**
+ * A native array of {@code double} values.
+ * The elements of the array are stored in native byte order.
+ */
+public final class NativeDoubleArray extends NativeArray {
+    private static final Object LAYOUT = LazyLink.valueLayout("JAVA_DOUBLE");
+    private static final VarHandle HANDLE = LazyLink.arrayElementHandle(LAYOUT);
+
+    /**
+     * Construct a new instance.
+     * All of the elements of the new array are zeroed.
+     *
+     * @param length the number of elements (must be at least zero)
+     */
+    public NativeDoubleArray(final long length) {
+        super(length, Double.BYTES);
+    }
+
+    /**
+     * Construct a new instance containing a copy of the given values.
+     *
+     * @param values the values to copy (must not be {@code null})
+     */
+    public NativeDoubleArray(final double[] values) {
+        this(values.length);
+        set(0, values);
+    }
+
+    /**
+     * {@return the element at the given index}
+     *
+     * @param index the element index
+     * @throws IndexOutOfBoundsException if the index is out of bounds
+     * @throws IllegalStateException if this array is closed
+     */
+    public double get(long index) {
+        return (double) HANDLE.get(segment(), 0L, index);
+    }
+
+    /**
+     * Set the element at the given index.
+     *
+     * @param index the element index
+     * @param value the new value
+     * @throws IndexOutOfBoundsException if the index is out of bounds
+     * @throws IllegalStateException if this array is closed
+     */
+    public void set(long index, double value) {
+        HANDLE.set(segment(), 0L, index, value);
+    }
+
+    /**
+     * Copy elements from this array into the given heap array.
+     *
+     * @param index the index of the first element of this array to copy
+     * @param dest the destination array (must not be {@code null})
+     * @param offs the offset into the destination array
+     * @param len the number of elements to copy
+     * @throws IndexOutOfBoundsException if either range is out of bounds
+     * @throws IllegalStateException if this array is closed
+     */
+    public void get(long index, double[] dest, int offs, int len) {
+        Assert.checkNotNullParam("dest", dest);
+        copyTo(LAYOUT, index, dest, offs, len);
+    }
+
+    /**
+     * Fill the given heap array with elements from this array.
+     *
+     * @param index the index of the first element of this array to copy
+     * @param dest the destination array (must not be {@code null})
+     * @throws IndexOutOfBoundsException if the range is out of bounds
+     * @throws IllegalStateException if this array is closed
+     */
+    public void get(long index, double[] dest) {
+        get(index, dest, 0, dest.length);
+    }
+
+    /**
+     * Copy elements from the given heap array into this array.
+     *
+     * @param index the index of the first element of this array to copy into
+     * @param src the source array (must not be {@code null})
+     * @param offs the offset into the source array
+     * @param len the number of elements to copy
+     * @throws IndexOutOfBoundsException if either range is out of bounds
+     * @throws IllegalStateException if this array is closed
+     */
+    public void set(long index, double[] src, int offs, int len) {
+        Assert.checkNotNullParam("src", src);
+        copyFrom(LAYOUT, index, src, offs, len);
+    }
+
+    /**
+     * Copy all of the elements of the given heap array into this array.
+     *
+     * @param index the index of the first element of this array to copy into
+     * @param src the source array (must not be {@code null})
+     * @throws IndexOutOfBoundsException if the range is out of bounds
+     * @throws IllegalStateException if this array is closed
+     */
+    public void set(long index, double[] src) {
+        set(index, src, 0, src.length);
+    }
+
+    /**
+     * {@return a heap array containing a copy of all of the elements of this array}
+     *
+     * @throws IllegalStateException if this array is closed or is too large to copy to a heap array
+     */
+    public double[] toArray() {
+        double[] array = new double[intLength()];
+        get(0, array);
+        return array;
+    }
+}
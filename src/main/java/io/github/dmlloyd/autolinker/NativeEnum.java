@@ -217,17 +217,15 @@ public interface NativeEnum<T extends NativeEnum<T>> {
      */
     @SafeVarargs
     static <T extends NativeEnum<T>> NativeEnum<T> andAll(NativeEnum<T>... vals) {
-        return () -> {
-            int length = vals.length;
-            if (length == 0) {
-                return 0;
-            }
-            int res = vals[0].nativeCode();
-            for (int i = 1; i < length; i++) {
-                res &= vals[i].nativeCode();
-            }
-            return res;
-        };
+        int length = vals.length;
+        if (length == 0) {
+            return fromNativeCode(0);
+        }
+        int res = vals[0].nativeCode();
+        for (int i = 1; i < length; i++) {
+            res &= vals[i].nativeCode();
+        }
+        return fromNativeCode(res);
     }
 
     /**
@@ -237,17 +235,15 @@ public interface NativeEnum<T extends NativeEnum<T>> {
      */
     @SafeVarargs
     static <T extends NativeEnum<T>> NativeEnum<T> orAll(NativeEnum<T>... vals) {
-        return () -> {
-            int length = vals.length;
-            if (length == 0) {
-                return 0;
-            }
-            int res = vals[0].nativeCode();
-            for (int i = 1; i < length; i++) {
-                res |= vals[i].nativeCode();
-            }
-            return res;
-        };
+        int length = vals.length;
+        if (length == 0) {
+            return fromNativeCode(0);
+        }
+        int res = vals[0].nativeCode();
+        for (int i = 1; i < length; i++) {
+            res |= vals[i].nativeCode();
+        }
+        return fromNativeCode(res);
     }
 
     /**
@@ -257,17 +253,15 @@ public interface NativeEnum<T extends NativeEnum<T>> {
      */
     @SafeVarargs
     static <T extends NativeEnum<T>> NativeEnum<T> xorAll(NativeEnum<T>... vals) {
-        return () -> {
-            int length = vals.length;
-            if (length == 0) {
-                return 0;
-            }
-            int res = vals[0].nativeCode();
-            for (int i = 1; i < length; i++) {
-                res ^= vals[i].nativeCode();
-            }
-            return res;
-        };
+        int length = vals.length;
+        if (length == 0) {
+            return fromNativeCode(0);
+        }
+        int res = vals[0].nativeCode();
+        for (int i = 1; i < length; i++) {
+            res ^= vals[i].nativeCode();
+        }
+        return fromNativeCode(res);
     }
 
     /**
@@ -0,0 +1,248 @@
+package io.github.dmlloyd.autolinker;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.EnumSet;
+import java.util.Objects;
+import java.util.StringJoiner;
+
+/**
+ * An immutable set of bit flags, each of which is a constant of a Java {@code enum} which implements {@link NativeEnum}.
+ * The flags are held as a single {@code int} mask, which is the bitwise-OR of the native codes of the flags
+ * which are in the set.
+ * <p>
+ * Such sets may be used as function arguments and return types, in which case the mask is passed as an {@code int}.
+ * Unlike {@link NativeEnum#or} and {@link NativeEnum#orAll}, building a set only combines masks,
+ * and the native code of each constant is read from a table which is indexed by ordinal,
+ * so that the native codes of the constants are never recomputed.
+ * <p>
+ * A constant is considered to be in the set when all of the bits of its native code are set in the mask.
+ * Constants whose native code is zero are never considered to be in the set.
+ * The mask may also contain bits which do not correspond to any constant (for example, in a returned value);
+ * such bits are retained.
+ *
+ * @param <E> the enum type of the flags
+ */
+public final class NativeFlags<E extends Enum<E> & NativeEnum<E>> implements NativeEnum<E> {
+    static final MethodHandle MASK_OF;
+    static final MethodHandle ENUM_SET_OF;
+    static final MethodHandle FLAGS_OF;
+
+    static {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            MASK_OF = lookup.findStatic(NativeFlags.class, "maskOf", MethodType.methodType(int.class, int[].class, EnumSet.class));
+            ENUM_SET_OF = lookup.findStatic(NativeFlags.class, "enumSetOf", MethodType.methodType(EnumSet.class, Class.class, int[].class, int.class));
+            FLAGS_OF = lookup.findStatic(NativeFlags.class, "fromNativeCode", MethodType.methodType(NativeFlags.class, Class.class, int.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private final Class<E> type;
+    private final int mask;
+
+    private NativeFlags(final Class<E> type, final int mask) {
+        this.type = type;
+        this.mask = mask;
+    }
+
+    /**
+     * {@return an empty set of flags of the given type}
+     *
+     * @param type the enum type (must not be {@code null})
+     * @param <E> the enum type
+     */
+    public static <E extends Enum<E> & NativeEnum<E>> NativeFlags<E> noneOf(Class<E> type) {
+        return new NativeFlags<>(Objects.requireNonNull(type, "type"), 0);
+    }
+
+    /**
+     * {@return a set of flags which contains the given flag}
+     *
+     * @param flag the flag (must not be {@code null})
+     * @param <E> the enum type
+     */
+    public static <E extends Enum<E> & NativeEnum<E>> NativeFlags<E> of(E flag) {
+        return new NativeFlags<>(flag.getDeclaringClass(), code(flag));
+    }
+
+    /**
+     * {@return a set of flags which contains the given flags}
+     *
+     * @param flag1 the first flag (must not be {@code null})
+     * @param flag2 the second flag (must not be {@code null})
+     * @param <E> the enum type
+     */
+    public static <E extends Enum<E> & NativeEnum<E>> NativeFlags<E> of(E flag1, E flag2) {
+        return new NativeFlags<>(flag1.getDeclaringClass(), code(flag1) | code(flag2));
+    }
+
+    /**
+     * {@return a set of flags which contains the given flags}
+     *
+     * @param flag1 the first flag (must not be {@code null})
+     * @param flag2 the second flag (must not be {@code null})
+     * @param flag3 the third flag (must not be {@code null})
+     * @param <E> the enum type
+     */
+    public static <E extends Enum<E> & NativeEnum<E>> NativeFlags<E> of(E flag1, E flag2, E flag3) {
+        return new NativeFlags<>(flag1.getDeclaringClass(), code(flag1) | code(flag2) | code(flag3));
+    }
+
+    /**
+     * {@return a set of flags which contains the given flags}
+     *
+     * @param first the first flag (must not be {@code null})
+     * @param rest the remaining flags (must not be {@code null})
+     * @param <E> the enum type
+     */
+    @SafeVarargs
+    public static <E extends Enum<E> & NativeEnum<E>> NativeFlags<E> of(E first, E... rest) {
+        int mask = code(first);
+        for (E flag : rest) {
+            mask |= code(flag);
+        }
+        return new NativeFlags<>(first.getDeclaringClass(), mask);
+    }
+
+    /**
+     * {@return a set of flags which contains the flags of the given set}
+     *
+     * @param type the enum type (must not be {@code null})
+     * @param set the set (must not be {@code null})
+     * @param <E> the enum type
+     */
+    public static <E extends Enum<E> & NativeEnum<E>> NativeFlags<E> copyOf(Class<E> type, EnumSet<E> set) {
+        return new NativeFlags<>(Objects.requireNonNull(type, "type"), maskOf(EnumTable.codes(type), set));
+    }
+
+    /**
+     * {@return a set of flags with the given mask}
+     *
+     * @param type the enum type (must not be {@code null})
+     * @param mask the mask
+     * @param <E> the enum type
+     */
+    public static <E extends Enum<E> & NativeEnum<E>> NativeFlags<E> fromNativeCode(Class<E> type, int mask) {
+        return new NativeFlags<>(Objects.requireNonNull(type, "type"), mask);
+    }
+
+    /**
+     * {@return the enum type of the flags}
+     */
+    public Class<E> type() {
+        return type;
+    }
+
+    /**
+     * {@return the mask of this set}
+     */
+    public int nativeCode() {
+        return mask;
+    }
+
+    /**
+     * {@return <code>true</code> if this set contains the given flag, or <code>false</code> if it does not}
+     *
+     * @param flag the flag (must not be {@code null})
+     */
+    public boolean contains(E flag) {
+        int code = code(flag);
+        return code != 0 && (mask & code) == code;
+    }
+
+    /**
+     * {@return <code>true</code> if no bits are set in this set, or <code>false</code> otherwise}
+     */
+    public boolean isEmpty() {
+        return mask == 0;
+    }
+
+    /**
+     * {@return a set which contains the flags of this set and the given flag}
+     *
+     * @param flag the flag (must not be {@code null})
+     */
+    public NativeFlags<E> with(E flag) {
+        int mask = this.mask | code(flag);
+        return mask == this.mask ? this : new NativeFlags<>(type, mask);
+    }
+
+    /**
+     * {@return a set which contains the flags of this set and of the given set}
+     *
+     * @param other the other set (must not be {@code null})
+     */
+    public NativeFlags<E> with(NativeFlags<E> other) {
+        int mask = this.mask | other.mask;
+        return mask == this.mask ? this : mask == other.mask ? other : new NativeFlags<>(type, mask);
+    }
+
+    /**
+     * {@return a set which contains the flags of this set without the bits of the given flag}
+     *
+     * @param flag the flag (must not be {@code null})
+     */
+    public NativeFlags<E> without(E flag) {
+        int mask = this.mask & ~code(flag);
+        return mask == this.mask ? this : new NativeFlags<>(type, mask);
+    }
+
+    /**
+     * {@return a new {@code EnumSet} which contains each of the constants which are in this set}
+     */
+    @SuppressWarnings("unchecked")
+    public EnumSet<E> toEnumSet() {
+        return enumSetOf(type, EnumTable.codes(type), mask);
+    }
+
+    public boolean equals(final Object obj) {
+        return obj instanceof NativeFlags<?> other && type == other.type && mask == other.mask;
+    }
+
+    public int hashCode() {
+        return type.hashCode() * 31 + mask;
+    }
+
+    public String toString() {
+        StringJoiner joiner = new StringJoiner("|", type.getSimpleName() + "[", "]");
+        int rest = mask;
+        for (E constant : type.getEnumConstants()) {
+            if (contains(constant)) {
+                joiner.add(constant.name());
+                rest &= ~code(constant);
+            }
+        }
+        if (rest != 0) {
+            joiner.add("0x" + Integer.toHexString(rest));
+        }
+        return joiner.toString();
+    }
+
+    private static int code(Enum<?> flag) {
+        return EnumTable.codes(flag.getDeclaringClass())[flag.ordinal()];
+    }
+
+    static int maskOf(int[] codes, EnumSet<?> set) {
+        int mask = 0;
+        for (Enum<?> flag : set) {
+            mask |= codes[flag.ordinal()];
+        }
+        return mask;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    static EnumSet enumSetOf(Class type, int[] codes, int mask) {
+        EnumSet set = EnumSet.noneOf(type);
+        Object[] constants = EnumTable.constants(type);
+        for (int i = 0; i < codes.length; i ++) {
+            int code = codes[i];
+            if (code != 0 && (mask & code) == code) {
+                set.add(constants[i]);
+            }
+        }
+        return set;
+    }
+}
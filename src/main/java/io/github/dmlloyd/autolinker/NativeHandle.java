@@ -0,0 +1,31 @@
+package io.github.dmlloyd.autolinker;
+
+/**
+ * An interface for a class which wraps an opaque native pointer, such as a {@code FILE *}
+ * or a library context pointer.
+ * <p>
+ * Such classes may be used as function arguments wherever a pointer is expected,
+ * in which case the value returned by {@link #address()} is passed directly as a pointer-sized integer
+ * without creating a {@code MemorySegment}.
+ * To use such a class as a function return type, the class must have an accessible
+ * {@code static} method named {@code fromAddress} which accepts a {@code long}
+ * and returns a value of the appropriate type.
+ * The type {@code NativeHandle} itself may be used as a return type, in which case
+ * {@link #fromAddress(long)} is used.
+ */
+@FunctionalInterface
+public interface NativeHandle {
+    /**
+     * {@return the native address of this handle}
+     */
+    long address();
+
+    /**
+     * {@return a handle for the given native address}
+     *
+     * @param address the native address
+     */
+    static NativeHandle fromAddress(long address) {
+        return () -> address;
+    }
+}
@@ -0,0 +1,211 @@
+package io.github.dmlloyd.autolinker;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A call site of a function whose array arguments are partitioned into chunks, which are processed in parallel.
+ * One instance exists for each such call site.
+ * <p>
+ * Calls whose element count is larger than the chunk size are split into one call per chunk.
+ * Each call is given a slice of each partitioned argument along with the element count of its chunk,
+ * and the calls are run as tasks in the common fork-join pool.
+ * Slices of arrays are copied by the task of each chunk (and copied back after its call, unless the array is only read by the function),
+ * while slices of memory segments are views of the original segment.
+ * Each partitioned argument must be large enough for the whole element count.
+ * The results of the calls are combined in order using the reducer, if any.
+ * <p>
+ * If any argument is {@linkplain Blocking#isConfined confined}, the call is not split.
+ */
+final class Parallel {
+    private static final MethodHandle INVOKE;
+
+    // partition kinds
+    private static final int NONE = 0;
+    private static final int COUNT = 1;
+    private static final int ARRAY = 2;
+    private static final int ARRAY_IN = 3;
+    private static final int SEGMENT = 4;
+
+    static {
+        try {
+            INVOKE = MethodHandles.lookup().findVirtual(Parallel.class, "invoke", MethodType.methodType(Object.class, Object[].class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private final MethodHandle target;
+    private final MethodHandle reducer;
+    private final long chunk;
+    private final int[] kinds;
+    /**
+     * The number of array elements (or segment bytes) of each partitioned argument for each counted element.
+     */
+    private final int[] factors;
+    private final int countIdx;
+
+    /**
+     * Construct a new instance.
+     *
+     * @param target the method which makes the call (must not be {@code null})
+     * @param reducer the method which combines two results, or {@code null} if the target returns {@code void}
+     * @param chunk the number of elements of each chunk
+     * @param partitions the partitioning of each argument, separated by commas: {@code -} for none, {@code n} for the element count,
+     *     or {@code a}, {@code i} (for an array which is only read), or {@code s} (for a segment) followed by the factor
+     */
+    private Parallel(final MethodHandle target, final MethodHandle reducer, final int chunk, final String partitions) {
+        this.target = target.asType(target.type().generic());
+        this.reducer = reducer == null ? null : reducer.asType(reducer.type().generic());
+        this.chunk = chunk;
+        String[] tokens = partitions.split(",", -1);
+        kinds = new int[tokens.length];
+        factors = new int[tokens.length];
+        int countIdx = -1;
+        for (int i = 0; i < tokens.length; i ++) {
+            String token = tokens[i];
+            switch (token.charAt(0)) {
+                case 'n' -> {
+                    kinds[i] = COUNT;
+                    countIdx = i;
+                }
+                case 'a' -> kinds[i] = ARRAY;
+                case 'i' -> kinds[i] = ARRAY_IN;
+                case 's' -> kinds[i] = SEGMENT;
+                default -> kinds[i] = NONE;
+            }
+            if (kinds[i] >= ARRAY) {
+                factors[i] = Integer.parseInt(token.substring(1));
+            }
+        }
+        this.countIdx = countIdx;
+    }
+
+    /**
+     * {@return a method handle which calls the given target in chunks, whose type is the type of the target}
+     *
+     * @param target the method which makes the call (must not be {@code null})
+     * @param reducer the method which combines two results, or {@code null} if the target returns {@code void}
+     * @param chunk the number of elements of each chunk
+     * @param partitions the partitioning of each argument (must not be {@code null})
+     */
+    static MethodHandle handle(MethodHandle target, MethodHandle reducer, int chunk, String partitions) {
+        MethodType type = target.type();
+        return INVOKE.bindTo(new Parallel(target, reducer, chunk, partitions)).asCollector(Object[].class, type.parameterCount()).asType(type);
+    }
+
+    private Object invoke(Object[] args) throws Throwable {
+        long count = ((Number) args[countIdx]).longValue();
+        long chunk = this.chunk;
+        checkBounds(args, count);
+        if (count <= chunk || Blocking.isConfined(args)) {
+            return target.invokeWithArguments(args);
+        }
+        int n = Math.toIntExact((count + chunk - 1) / chunk);
+        Chunk[] chunks = new Chunk[n];
+        for (int c = 0; c < n; c ++) {
+            long start = c * chunk;
+            chunks[c] = new Chunk(args, start, Math.min(chunk, count - start));
+        }
+        ForkJoinTask.invokeAll(chunks);
+        for (Chunk c : chunks) {
+            if (c.problem != null) {
+                throw c.problem;
+            }
+        }
+        if (reducer == null) {
+            return null;
+        }
+        Object result = chunks[0].result;
+        for (int c = 1; c < n; c ++) {
+            result = (Object) reducer.invokeExact(result, chunks[c].result);
+        }
+        return result;
+    }
+
+    /**
+     * Ensure that each partitioned argument is large enough for the given element count,
+     * so that no chunk is sliced out of its bounds.
+     *
+     * @param args the arguments (must not be {@code null})
+     * @param count the element count
+     * @throws IndexOutOfBoundsException if an argument is too small
+     */
+    private void checkBounds(Object[] args, long count) throws Throwable {
+        for (int i = 0; i < args.length; i ++) {
+            Object arg = args[i];
+            if (arg == null || kinds[i] < ARRAY) {
+                continue;
+            }
+            long needed = Math.multiplyExact(count, factors[i]);
+            boolean segment = kinds[i] == SEGMENT;
+            long size = segment ? (long) LazyLink.SEGMENT_BYTE_SIZE.invokeExact(arg) : Array.getLength(arg);
+            if (needed > size) {
+                throw new IndexOutOfBoundsException("Argument " + i + " has " + size + (segment ? " bytes" : " elements")
+                    + ", but " + needed + " are needed for a count of " + count);
+            }
+        }
+    }
+
+    @SuppressWarnings("serial")
+    final class Chunk extends RecursiveAction {
+        final Object[] args;
+        final long start;
+        final long length;
+        Object result;
+        Throwable problem;
+
+        /**
+         * Construct a new instance.
+         *
+         * @param args the arguments of the whole call, which are not modified (must not be {@code null})
+         * @param start the index of the first element of the chunk
+         * @param length the number of elements of the chunk
+         */
+        Chunk(final Object[] args, final long start, final long length) {
+            this.args = args;
+            this.start = start;
+            this.length = length;
+        }
+
+        protected void compute() {
+            try {
+                // each chunk slices (and copies back) its own part of each argument
+                Object[] args = this.args;
+                Object[] chunkArgs = args.clone();
+                chunkArgs[countIdx] = args[countIdx] instanceof Long ? (Object) Long.valueOf(length) : (Object) Integer.valueOf((int) length);
+                for (int i = 0; i < args.length; i ++) {
+                    Object arg = args[i];
+                    if (arg == null) {
+                        continue;
+                    }
+                    int factor = factors[i];
+                    switch (kinds[i]) {
+                        case ARRAY, ARRAY_IN -> {
+                            int len = Math.toIntExact(length * factor);
+                            Object slice = Array.newInstance(arg.getClass().componentType(), len);
+                            System.arraycopy(arg, Math.toIntExact(start * factor), slice, 0, len);
+                            chunkArgs[i] = slice;
+                        }
+                        case SEGMENT -> chunkArgs[i] = (Object) LazyLink.SEGMENT_AS_SLICE.invokeExact(arg, start * factor, length * factor);
+                    }
+                }
+                result = target.invokeWithArguments(chunkArgs);
+                // copy back the slices of arrays which may have been written
+                for (int i = 0; i < args.length; i ++) {
+                    if (kinds[i] == ARRAY && args[i] != null) {
+                        Object slice = chunkArgs[i];
+                        System.arraycopy(slice, 0, args[i], Math.toIntExact(start * factors[i]), Array.getLength(slice));
+                    }
+                }
+            } catch (Throwable t) {
+                // rethrown by the calling thread
+                problem = t;
+            }
+        }
+    }
+}
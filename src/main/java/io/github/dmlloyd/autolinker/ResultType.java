@@ -0,0 +1,277 @@
+package io.github.dmlloyd.autolinker;
+
+import static io.github.dmlloyd.autolinker.AutoLinker.CD_MemorySegment;
+import static io.github.dmlloyd.autolinker.AutoLinker.CD_SegmentAllocator;
+
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.MethodTypeDesc;
+import java.lang.reflect.RecordComponent;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+
+import io.github.dmlloyd.classfile.CodeBuilder;
+import io.github.dmlloyd.classfile.TypeKind;
+
+/**
+ * The shape of a record class whose components are annotated with {@link Link.result}.
+ * Such a record may be returned from a linked method, in which case each component is read
+ * from a native out-parameter (or from the return value of the function) after the call.
+ * The out-parameters are backed by a single scratch allocation, in which the components
+ * which share a parameter are laid out together as a struct.
+ */
+final class ResultType {
+    private static final ClassValue<ResultType> resultTypes = new ClassValue<ResultType>() {
+        protected ResultType computeValue(final Class<?> type) {
+            return new ResultType(type);
+        }
+    };
+    private static final MethodTypeDesc MTD_MemorySegment_long_long = MethodTypeDesc.of(CD_MemorySegment, ConstantDescs.CD_long, ConstantDescs.CD_long);
+
+    private final Class<?> type;
+    /**
+     * The component which receives the function return value, or {@code null} if there is none.
+     */
+    private final RecordComponent returnComponent;
+    private final Transformation returnTransformation;
+    /**
+     * The out-parameters, in ascending order of native parameter index.
+     */
+    private final List<Group> groups;
+    private final long size;
+    private final long alignment;
+
+    private ResultType(final Class<?> type) {
+        if (! isResult(type)) {
+            throw new IllegalArgumentException(type + " is not a record with components annotated with @Link.result");
+        }
+        this.type = type;
+        RecordComponent returnComponent = null;
+        TreeMap<Integer, List<StructType.Member>> byIndex = new TreeMap<>();
+        for (RecordComponent component : type.getRecordComponents()) {
+            Link.result result = component.getAnnotation(Link.result.class);
+            if (result == null) {
+                throw new IllegalArgumentException("Record component " + component + " is not annotated with @Link.result");
+            }
+            if (result.value() == -1) {
+                if (returnComponent != null) {
+                    throw new IllegalArgumentException("Record " + type + " has more than one component for the function return value");
+                }
+                returnComponent = component;
+            } else if (result.value() < 0) {
+                throw new IllegalArgumentException("Record component " + component + " has an invalid parameter index");
+            } else {
+                byIndex.computeIfAbsent(Integer.valueOf(result.value()), i -> new ArrayList<>()).add(new StructType.Member(component));
+            }
+        }
+        this.returnComponent = returnComponent;
+        if (returnComponent != null) {
+            Class<?> componentType = returnComponent.getType();
+            if (StructType.valueType(componentType) == null) {
+                throw new IllegalArgumentException("Record component " + returnComponent + " cannot receive a return value");
+            }
+            Link.as linkAs = returnComponent.getAnnotation(Link.as.class);
+            returnTransformation = AutoLinker.addressTransformation(componentType, linkAs != null ? AutoLinker.transformationFor(linkAs.value()) : Transformation.forJavaType(componentType));
+        } else {
+            returnTransformation = null;
+        }
+        List<Group> groups = new ArrayList<>(byIndex.size());
+        long offset = 0;
+        long alignment = 1;
+        for (Map.Entry<Integer, List<StructType.Member>> entry : byIndex.entrySet()) {
+            Group group = new Group(entry.getKey().intValue(), entry.getValue());
+            offset = align(offset, group.alignment);
+            group.base = offset;
+            offset += group.size;
+            alignment = Math.max(alignment, group.alignment);
+            groups.add(group);
+        }
+        this.groups = groups;
+        this.size = offset;
+        this.alignment = alignment;
+    }
+
+    /**
+     * {@return the result type for the given record class}
+     *
+     * @param type the record class (must not be {@code null})
+     * @throws IllegalArgumentException if the class is not a result record, or has an unsupported component
+     */
+    static ResultType of(Class<?> type) {
+        return resultTypes.get(type);
+    }
+
+    /**
+     * {@return <code>true</code> if the given type is a record which has a component annotated with {@link Link.result}}
+     *
+     * @param type the type (must not be {@code null})
+     */
+    static boolean isResult(Class<?> type) {
+        if (type.isRecord() && ! StructType.isStruct(type)) {
+            for (RecordComponent component : type.getRecordComponents()) {
+                if (component.isAnnotationPresent(Link.result.class)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * {@return the transformation of the function return value, or {@code null} if no component receives it}
+     */
+    Transformation returnTransformation() {
+        return returnTransformation;
+    }
+
+    /**
+     * {@return the components of the record}
+     */
+    RecordComponent[] components() {
+        return type.getRecordComponents();
+    }
+
+    /**
+     * {@return the native parameter index of each out-parameter, in ascending order}
+     */
+    int[] parameterIndexes() {
+        return groups.stream().mapToInt(g -> g.index).toArray();
+    }
+
+    /**
+     * Emit code to allocate the scratch memory for the out-parameters, if any.
+     *
+     * @param cb the code builder (not {@code null})
+     * @param arenaVar the variable index of the allocation arena
+     * @return the variable index of the scratch segment, or {@code -1} if there are no out-parameters
+     */
+    int emitAllocate(CodeBuilder cb, int arenaVar) {
+        if (groups.isEmpty()) {
+            return -1;
+        }
+        int segSlot = cb.allocateLocal(TypeKind.REFERENCE);
+        cb.aload(arenaVar);
+        cb.ldc(Long.valueOf(size));
+        cb.ldc(Long.valueOf(alignment));
+        cb.invokeinterface(CD_SegmentAllocator, "allocate", MTD_MemorySegment_long_long);
+        cb.astore(segSlot);
+        return segSlot;
+    }
+
+    /**
+     * Emit code to push the pointer for the out-parameter with the given ordinal.
+     *
+     * @param cb the code builder (not {@code null})
+     * @param segVar the variable index of the scratch segment
+     * @param ordinal the ordinal of the out-parameter, in ascending order of native parameter index
+     */
+    void emitArgument(CodeBuilder cb, int segVar, int ordinal) {
+        Group group = groups.get(ordinal);
+        cb.aload(segVar);
+        if (groups.size() > 1) {
+            cb.ldc(Long.valueOf(group.base));
+            cb.ldc(Long.valueOf(group.size));
+            cb.invokeinterface(CD_MemorySegment, "asSlice", MTD_MemorySegment_long_long);
+        }
+    }
+
+    /**
+     * Emit code to construct the record from the function return value on the stack (if any) and the out-parameters,
+     * leaving the record on the stack.
+     *
+     * @param cb the code builder (not {@code null})
+     * @param segVar the variable index of the scratch segment, or {@code -1} if there is none
+     * @param nativeReturn the transformation of the native return value, which is on the stack unless it is {@code VOID}
+     * @param adjust the action to apply to the value of each component after it is loaded (must not be {@code null})
+     */
+    void emitConstruct(CodeBuilder cb, int segVar, Transformation nativeReturn, BiConsumer<CodeBuilder, RecordComponent> adjust) {
+        int returnSlot = -1;
+        if (returnComponent != null) {
+            Class<?> componentType = returnComponent.getType();
+            Class<?> valueType = StructType.valueType(componentType);
+            nativeReturn.emitReturn(cb, valueType);
+            StructType.emitFromValue(cb, componentType, valueType);
+            adjust.accept(cb, returnComponent);
+            TypeKind kind = TypeKind.from(componentType);
+            returnSlot = cb.allocateLocal(kind);
+            cb.storeLocal(kind, returnSlot);
+        } else {
+            // discard the return value, if any
+            nativeReturn.emitReturn(cb, void.class);
+        }
+        ClassDesc typeDesc = type.describeConstable().orElseThrow();
+        RecordComponent[] components = type.getRecordComponents();
+        cb.new_(typeDesc);
+        cb.dup();
+        ClassDesc[] ctorParams = new ClassDesc[components.length];
+        for (int i = 0; i < components.length; i++) {
+            RecordComponent component = components[i];
+            ctorParams[i] = component.getType().describeConstable().orElseThrow();
+            if (component.equals(returnComponent)) {
+                cb.loadLocal(TypeKind.from(component.getType()), returnSlot);
+            } else {
+                emitMemberLoad(cb, segVar, component);
+                adjust.accept(cb, component);
+            }
+        }
+        cb.invokespecial(typeDesc, "<init>", MethodTypeDesc.of(ConstantDescs.CD_void, ctorParams));
+    }
+
+    private void emitMemberLoad(final CodeBuilder cb, final int segVar, final RecordComponent component) {
+        for (Group group : groups) {
+            for (StructType.Member member : group.members) {
+                if (member.component.equals(component)) {
+                    long offset = group.base + member.offset;
+                    if (member.struct != null) {
+                        member.struct.emitLoad(cb, segVar, -1, offset, -1);
+                    } else {
+                        Class<?> memoryCarrier = member.memoryCarrier();
+                        Class<?> valueType = member.valueType();
+                        cb.aload(segVar);
+                        AutoLinker.emitValueLayout(cb, memoryCarrier);
+                        cb.ldc(Long.valueOf(offset));
+                        cb.invokeinterface(CD_MemorySegment, "get", MethodTypeDesc.of(memoryCarrier.describeConstable().orElseThrow(), AutoLinker.valueLayoutType(memoryCarrier), ConstantDescs.CD_long));
+                        member.transformation.emitReturn(cb, valueType);
+                        StructType.emitFromValue(cb, component.getType(), valueType);
+                    }
+                    return;
+                }
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+    private static long align(long offset, long alignment) {
+        return (offset + alignment - 1) & -alignment;
+    }
+
+    /**
+     * The components which are read from a single out-parameter, laid out as a struct.
+     */
+    static final class Group {
+        final int index;
+        final List<StructType.Member> members;
+        final long size;
+        final long alignment;
+        long base;
+
+        Group(final int index, final List<StructType.Member> members) {
+            this.index = index;
+            this.members = members;
+            long offset = 0;
+            long alignment = 1;
+            for (StructType.Member member : members) {
+                long memberAlignment = member.alignment();
+                offset = align(offset, memberAlignment);
+                member.offset = offset;
+                offset += member.size();
+                alignment = Math.max(alignment, memberAlignment);
+            }
+            this.size = align(offset, alignment);
+            this.alignment = alignment;
+        }
+    }
+}
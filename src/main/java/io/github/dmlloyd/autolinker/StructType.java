@@ -0,0 +1,491 @@
+package io.github.dmlloyd.autolinker;
+
+import static io.github.dmlloyd.autolinker.AutoLinker.BSM_fromNativeCode;
+import static io.github.dmlloyd.autolinker.AutoLinker.BSM_nativeCode;
+import static io.github.dmlloyd.autolinker.AutoLinker.CD_MemoryLayout;
+import static io.github.dmlloyd.autolinker.AutoLinker.CD_MemorySegment;
+import static io.github.dmlloyd.autolinker.AutoLinker.CD_SegmentAllocator;
+import static io.github.dmlloyd.autolinker.AutoLinker.pushInt;
+
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.DynamicCallSiteDesc;
+import java.lang.constant.MethodTypeDesc;
+import java.lang.reflect.RecordComponent;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+import io.github.dmlloyd.classfile.CodeBuilder;
+import io.github.dmlloyd.classfile.Label;
+import io.github.dmlloyd.classfile.TypeKind;
+import io.smallrye.common.cpu.CPU;
+
+/**
+ * The native layout of a record class which is annotated with {@link Link.struct}.
+ * Members are laid out in component order using the natural alignment of each member, as a C compiler would.
+ */
+final class StructType {
+    private static final ClassValue<StructType> structTypes = new ClassValue<StructType>() {
+        protected StructType computeValue(final Class<?> type) {
+            return new StructType(type);
+        }
+    };
+    private static final ClassDesc CD_StructLayout = ClassDesc.of("java.lang.foreign.StructLayout");
+    private static final MethodTypeDesc MTD_StructLayout_MemoryLayout_array = MethodTypeDesc.of(CD_StructLayout, CD_MemoryLayout.arrayType());
+    private static final MethodTypeDesc MTD_MemoryLayout_long = MethodTypeDesc.of(CD_MemoryLayout, ConstantDescs.CD_long);
+    private static final MethodTypeDesc MTD_MemorySegment_long_long = MethodTypeDesc.of(CD_MemorySegment, ConstantDescs.CD_long, ConstantDescs.CD_long);
+
+    private final Class<?> type;
+    private final List<Member> members;
+    private final long size;
+    private final long alignment;
+
+    private StructType(final Class<?> type) {
+        if (! isStruct(type)) {
+            throw new IllegalArgumentException(type + " is not a record annotated with @Link.struct");
+        }
+        this.type = type;
+        RecordComponent[] components = type.getRecordComponents();
+        List<Member> members = new ArrayList<>(components.length);
+        long offset = 0;
+        long alignment = 1;
+        for (RecordComponent component : components) {
+            Member member = new Member(component);
+            long memberAlignment = member.alignment();
+            offset = align(offset, memberAlignment);
+            member.offset = offset;
+            offset += member.size();
+            alignment = Math.max(alignment, memberAlignment);
+            members.add(member);
+        }
+        this.members = members;
+        this.size = align(offset, alignment);
+        this.alignment = alignment;
+    }
+
+    /**
+     * {@return the struct type for the given record class}
+     *
+     * @param type the record class (must not be {@code null})
+     * @throws IllegalArgumentException if the class is not a struct record, or has an unsupported component type
+     */
+    static StructType of(Class<?> type) {
+        return structTypes.get(type);
+    }
+
+    /**
+     * {@return <code>true</code> if the given type is a record which is annotated with {@link Link.struct}}
+     *
+     * @param type the type (must not be {@code null})
+     */
+    static boolean isStruct(Class<?> type) {
+        return type.isRecord() && type.isAnnotationPresent(Link.struct.class);
+    }
+
+    /**
+     * {@return the size of this struct in bytes, including trailing padding}
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * {@return the alignment of this struct in bytes}
+     */
+    long alignment() {
+        return alignment;
+    }
+
+    /**
+     * Emit code to produce the {@code StructLayout} for this struct, including padding.
+     *
+     * @param cb the code builder (not {@code null})
+     */
+    void emitLayout(CodeBuilder cb) {
+        List<Object> elements = new ArrayList<>(members.size() * 2);
+        long offset = 0;
+        for (Member member : members) {
+            if (member.offset > offset) {
+                elements.add(Long.valueOf(member.offset - offset));
+            }
+            elements.add(member);
+            offset = member.offset + member.size();
+        }
+        if (size > offset) {
+            elements.add(Long.valueOf(size - offset));
+        }
+        pushInt(cb, elements.size());
+        cb.anewarray(CD_MemoryLayout);
+        int idx = 0;
+        for (Object element : elements) {
+            cb.dup();
+            pushInt(cb, idx++);
+            if (element instanceof Long padding) {
+                cb.ldc(padding);
+                cb.invokestatic(CD_MemoryLayout, "paddingLayout", MTD_MemoryLayout_long, true);
+            } else {
+                Member member = (Member) element;
+                if (member.struct != null) {
+                    member.struct.emitLayout(cb);
+                } else {
+                    AutoLinker.emitValueLayout(cb, member.memoryCarrier());
+                }
+            }
+            cb.aastore();
+        }
+        cb.invokestatic(CD_MemoryLayout, "structLayout", MTD_StructLayout_MemoryLayout_array, true);
+    }
+
+    /**
+     * Emit code to allocate a native copy of the record in the given variable, leaving the segment on the stack.
+     *
+     * @param cb the code builder (not {@code null})
+     * @param recordVar the variable index of the record
+     * @param arenaVar the variable index of the allocation arena
+     */
+    void emitAllocate(CodeBuilder cb, int recordVar, int arenaVar) {
+        int segSlot = cb.allocateLocal(TypeKind.REFERENCE);
+        cb.aload(arenaVar);
+        cb.ldc(Long.valueOf(size));
+        cb.ldc(Long.valueOf(alignment));
+        cb.invokeinterface(CD_SegmentAllocator, "allocate", MTD_MemorySegment_long_long);
+        cb.astore(segSlot);
+        emitStore(cb, recordVar, segSlot, -1, 0, false);
+        cb.aload(segSlot);
+    }
+
+    /**
+     * Emit code to allocate a native array of structs which corresponds to the record array in the given variable,
+     * leaving the segment on the stack.
+     * The elements are copied in if the direction is {@code in}, and new records containing the
+     * values of the {@code out} members are stored back into the array after the call
+     * if the direction is {@code out}.
+     *
+     * @param cb the code builder (not {@code null})
+     * @param arrayVar the variable index of the record array
+     * @param arenaVar the variable index of the allocation arena
+     * @param dir the direction of the array (must not be {@code null})
+     * @return the post-call cleanup action, or {@code null} if none is needed
+     */
+    Consumer<CodeBuilder> emitArrayAllocate(CodeBuilder cb, int arrayVar, int arenaVar, Direction dir) {
+        int segSlot = cb.allocateLocal(TypeKind.REFERENCE);
+        cb.aload(arenaVar);
+        cb.ldc(Long.valueOf(size));
+        cb.aload(arrayVar);
+        cb.arraylength();
+        cb.i2l();
+        cb.lmul();
+        cb.ldc(Long.valueOf(alignment));
+        cb.invokeinterface(CD_SegmentAllocator, "allocate", MTD_MemorySegment_long_long);
+        cb.astore(segSlot);
+        if (dir.in()) {
+            // fill the array field by field
+            int elemSlot = cb.allocateLocal(TypeKind.REFERENCE);
+            int offsetSlot = cb.allocateLocal(TypeKind.LONG);
+            emitArrayLoop(cb, arrayVar, offsetSlot, idx -> {
+                cb.aload(arrayVar);
+                cb.iload(idx);
+                cb.aaload();
+                cb.astore(elemSlot);
+                emitStore(cb, elemSlot, segSlot, offsetSlot, 0, true);
+            });
+        }
+        cb.aload(segSlot);
+        if (dir.out()) {
+            return xb -> {
+                // write back only the members which may have been changed
+                ClassDesc typeDesc = type.describeConstable().orElseThrow();
+                int elemSlot = xb.allocateLocal(TypeKind.REFERENCE);
+                int offsetSlot = xb.allocateLocal(TypeKind.LONG);
+                boolean partial = hasDirections();
+                emitArrayLoop(xb, arrayVar, offsetSlot, idx -> {
+                    if (partial) {
+                        xb.aload(arrayVar);
+                        xb.iload(idx);
+                        xb.aaload();
+                        xb.astore(elemSlot);
+                    }
+                    xb.aload(arrayVar);
+                    xb.iload(idx);
+                    emitLoad(xb, segSlot, offsetSlot, 0, partial ? elemSlot : -1);
+                    xb.checkcast(typeDesc);
+                    xb.aastore();
+                });
+            };
+        }
+        return null;
+    }
+
+    private void emitArrayLoop(CodeBuilder cb, int arrayVar, int offsetSlot, IntConsumer body) {
+        int idx = cb.allocateLocal(TypeKind.INT);
+        cb.iconst_0();
+        cb.istore(idx);
+        cb.lconst_0();
+        cb.lstore(offsetSlot);
+        Label top = cb.newBoundLabel();
+        Label end = cb.newLabel();
+        cb.iload(idx);
+        cb.aload(arrayVar);
+        cb.arraylength();
+        cb.if_icmpge(end);
+        body.accept(idx);
+        cb.iinc(idx, 1);
+        cb.lload(offsetSlot);
+        cb.ldc(Long.valueOf(size));
+        cb.ladd();
+        cb.lstore(offsetSlot);
+        cb.goto_(top);
+        cb.labelBinding(end);
+    }
+
+    /**
+     * {@return <code>true</code> if any member of this struct has a declared direction}
+     */
+    private boolean hasDirections() {
+        for (Member member : members) {
+            if (member.dir != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Emit code to push the offset of a member.
+     */
+    private static void emitOffset(CodeBuilder cb, int offsetVar, long offset) {
+        if (offsetVar == -1) {
+            cb.ldc(Long.valueOf(offset));
+        } else {
+            cb.lload(offsetVar);
+            if (offset != 0) {
+                cb.ldc(Long.valueOf(offset));
+                cb.ladd();
+            }
+        }
+    }
+
+    /**
+     * Emit code to store each member of the record in the given variable into the segment in the given variable.
+     *
+     * @param cb the code builder (not {@code null})
+     * @param recordVar the variable index of the record
+     * @param segVar the variable index of the segment
+     * @param offsetVar the variable index of the {@code long} offset of the struct within the segment, or {@code -1} for none
+     * @param base the constant offset of the struct within the segment, relative to {@code offsetVar}
+     * @param skipOut {@code true} to skip members which are declared to be {@code out} only
+     */
+    void emitStore(CodeBuilder cb, int recordVar, int segVar, int offsetVar, long base, boolean skipOut) {
+        ClassDesc typeDesc = type.describeConstable().orElseThrow();
+        for (Member member : members) {
+            if (skipOut && member.dir != null && ! member.dir.in()) {
+                // the native memory is already zeroed
+                continue;
+            }
+            Class<?> componentType = member.component.getType();
+            ClassDesc componentDesc = componentType.describeConstable().orElseThrow();
+            MethodTypeDesc accessorDesc = MethodTypeDesc.of(componentDesc);
+            if (member.struct != null) {
+                int tmp = cb.allocateLocal(TypeKind.REFERENCE);
+                cb.aload(recordVar);
+                cb.invokevirtual(typeDesc, member.component.getName(), accessorDesc);
+                cb.astore(tmp);
+                member.struct.emitStore(cb, tmp, segVar, offsetVar, base + member.offset, skipOut);
+            } else {
+                Class<?> valueType = member.valueType();
+                TypeKind valueKind = TypeKind.from(valueType);
+                int tmp = cb.allocateLocal(valueKind);
+                cb.aload(recordVar);
+                cb.invokevirtual(typeDesc, member.component.getName(), accessorDesc);
+                emitToValue(cb, componentType, valueType);
+                cb.storeLocal(valueKind, tmp);
+                Class<?> memoryCarrier = member.memoryCarrier();
+                cb.aload(segVar);
+                AutoLinker.emitValueLayout(cb, memoryCarrier);
+                emitOffset(cb, offsetVar, base + member.offset);
+                member.transformation.applyArgument(cb, tmp, valueType, false, -1, Direction.in);
+                cb.invokeinterface(CD_MemorySegment, "set", MethodTypeDesc.of(ConstantDescs.CD_void, AutoLinker.valueLayoutType(memoryCarrier), ConstantDescs.CD_long, memoryCarrier.describeConstable().orElseThrow()));
+            }
+        }
+    }
+
+    /**
+     * Emit code to construct a new record from the members in the segment in the given variable,
+     * leaving the record on the stack.
+     *
+     * @param cb the code builder (not {@code null})
+     * @param segVar the variable index of the segment
+     * @param offsetVar the variable index of the {@code long} offset of the struct within the segment, or {@code -1} for none
+     * @param base the constant offset of the struct within the segment, relative to {@code offsetVar}
+     * @param originalVar the variable index of the original record whose values are used for members
+     *      which are not declared to be {@code out}, or {@code -1} to read every member from the segment
+     */
+    void emitLoad(CodeBuilder cb, int segVar, int offsetVar, long base, int originalVar) {
+        ClassDesc typeDesc = type.describeConstable().orElseThrow();
+        cb.new_(typeDesc);
+        cb.dup();
+        ClassDesc[] ctorParams = new ClassDesc[members.size()];
+        int i = 0;
+        for (Member member : members) {
+            Class<?> componentType = member.component.getType();
+            ClassDesc componentDesc = componentType.describeConstable().orElseThrow();
+            ctorParams[i++] = componentDesc;
+            if (originalVar != -1 && (member.dir == null || ! member.dir.out())) {
+                // unchanged by the call
+                cb.aload(originalVar);
+                cb.invokevirtual(typeDesc, member.component.getName(), MethodTypeDesc.of(componentDesc));
+            } else if (member.struct != null) {
+                member.struct.emitLoad(cb, segVar, offsetVar, base + member.offset, -1);
+            } else {
+                Class<?> memoryCarrier = member.memoryCarrier();
+                Class<?> valueType = member.valueType();
+                cb.aload(segVar);
+                AutoLinker.emitValueLayout(cb, memoryCarrier);
+                emitOffset(cb, offsetVar, base + member.offset);
+                cb.invokeinterface(CD_MemorySegment, "get", MethodTypeDesc.of(memoryCarrier.describeConstable().orElseThrow(), AutoLinker.valueLayoutType(memoryCarrier), ConstantDescs.CD_long));
+                member.transformation.emitReturn(cb, valueType);
+                emitFromValue(cb, componentType, valueType);
+            }
+        }
+        cb.invokespecial(typeDesc, "<init>", MethodTypeDesc.of(ConstantDescs.CD_void, ctorParams));
+    }
+
+    /**
+     * {@return the type of the value which is stored in memory for the given Java type, or {@code null} if the type cannot be stored}
+     * Native enumerations are stored as their {@code int} code, and native handles are stored as their {@code long} address.
+     *
+     * @param type the Java type (must not be {@code null})
+     */
+    static Class<?> valueType(Class<?> type) {
+        if (type == NativeFlags.class) {
+            // the enum type is not known
+            return null;
+        } else if (NativeEnum.class.isAssignableFrom(type)) {
+            return int.class;
+        } else if (NativeHandle.class.isAssignableFrom(type)) {
+            return long.class;
+        } else if (type.isPrimitive() && type != void.class || type == LazyLink.MEMORY_SEGMENT) {
+            return type;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * {@return the size in bytes of a value with the given memory carrier}
+     *
+     * @param memoryCarrier the memory carrier type (must not be {@code null})
+     */
+    static long memorySize(Class<?> memoryCarrier) {
+        return memoryCarrier == LazyLink.MEMORY_SEGMENT ? CPU.host().pointerSizeBits() >> 3 : AutoLinker.primitiveSize(memoryCarrier);
+    }
+
+    /**
+     * Emit code to convert the Java value on the stack to its {@linkplain #valueType(Class) value type}.
+     *
+     * @param cb the code builder (not {@code null})
+     * @param type the Java type (must not be {@code null})
+     * @param valueType the value type (must not be {@code null})
+     */
+    static void emitToValue(CodeBuilder cb, Class<?> type, Class<?> valueType) {
+        if (type.isEnum() && valueType == int.class) {
+            // look up the code by ordinal
+            cb.invokedynamic(DynamicCallSiteDesc.of(BSM_nativeCode, "nativeCode", MethodTypeDesc.of(ConstantDescs.CD_int, type.describeConstable().orElseThrow())));
+        } else if (valueType != type) {
+            // a native enum or handle
+            ClassDesc typeDesc = type.describeConstable().orElseThrow();
+            String method = valueType == int.class ? "nativeCode" : "address";
+            MethodTypeDesc methodDesc = MethodTypeDesc.of(valueType.describeConstable().orElseThrow());
+            if (type.isInterface()) {
+                cb.invokeinterface(typeDesc, method, methodDesc);
+            } else {
+                cb.invokevirtual(typeDesc, method, methodDesc);
+            }
+        }
+    }
+
+    /**
+     * Emit code to convert the value on the stack from its {@linkplain #valueType(Class) value type} to the Java type.
+     *
+     * @param cb the code builder (not {@code null})
+     * @param type the Java type (must not be {@code null})
+     * @param valueType the value type (must not be {@code null})
+     */
+    static void emitFromValue(CodeBuilder cb, Class<?> type, Class<?> valueType) {
+        if (type.isEnum() && valueType == int.class) {
+            // look up the constant by code
+            ClassDesc typeDesc = type.describeConstable().orElseThrow();
+            cb.invokedynamic(DynamicCallSiteDesc.of(BSM_fromNativeCode, "fromNativeCode", MethodTypeDesc.of(typeDesc, ConstantDescs.CD_int)));
+        } else if (valueType != type) {
+            // a native enum or handle
+            ClassDesc typeDesc = type.describeConstable().orElseThrow();
+            String method = valueType == int.class ? "fromNativeCode" : "fromAddress";
+            cb.invokestatic(typeDesc, method, MethodTypeDesc.of(typeDesc, valueType.describeConstable().orElseThrow()), type.isInterface());
+        }
+    }
+
+    private static long align(long offset, long alignment) {
+        return (offset + alignment - 1) & -alignment;
+    }
+
+    /**
+     * A member of a struct, which is either a nested struct or a scalar value.
+     */
+    static final class Member {
+        final RecordComponent component;
+        final StructType struct;
+        final Transformation transformation;
+        final Direction dir;
+        long offset;
+
+        Member(final RecordComponent component) {
+            this.component = component;
+            Link.dir dir = component.getAnnotation(Link.dir.class);
+            this.dir = dir == null ? null : dir.value();
+            Class<?> type = component.getType();
+            if (isStruct(type)) {
+                struct = of(type);
+                transformation = null;
+            } else {
+                struct = null;
+                Link.as linkAs = component.getAnnotation(Link.as.class);
+                // validate the component type
+                valueType();
+                Transformation transformation = linkAs != null ? AutoLinker.transformationFor(linkAs.value()) : Transformation.forJavaType(type);
+                transformation = AutoLinker.addressTransformation(type, transformation);
+                if (transformation.memoryCarrier() == null) {
+                    throw new IllegalArgumentException("Record component " + component + " cannot be stored in a struct");
+                }
+                this.transformation = transformation;
+            }
+        }
+
+        /**
+         * {@return the type of the value which is passed to or from the transformation}
+         */
+        Class<?> valueType() {
+            Class<?> valueType = StructType.valueType(component.getType());
+            if (valueType == null) {
+                throw new IllegalArgumentException("Record component " + component + " cannot be stored in a struct");
+            }
+            return valueType;
+        }
+
+        Class<?> memoryCarrier() {
+            return transformation.memoryCarrier();
+        }
+
+        long size() {
+            if (struct != null) {
+                return struct.size();
+            }
+            return memorySize(memoryCarrier());
+        }
+
+        long alignment() {
+            return struct != null ? struct.alignment() : size();
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package io.github.dmlloyd.autolinker;
+
+import static io.github.dmlloyd.autolinker.AutoLinker.CD_MemorySegment;
+import static io.github.dmlloyd.autolinker.AutoLinker.CD_ValueLayout;
+import static io.github.dmlloyd.autolinker.AutoLinker.MTD_void;
+
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.MethodTypeDesc;
+import java.lang.invoke.VarHandle;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import io.github.dmlloyd.classfile.ClassFile;
+import io.github.dmlloyd.classfile.CodeBuilder;
+import io.github.dmlloyd.classfile.TypeKind;
+import io.github.dmlloyd.classfile.extras.reflect.AccessFlag;
+
+/**
+ * The compiler for structure view interfaces.
+ * A structure view holds a memory segment and an offset within that segment,
+ * and each member accessor is implemented as an access through a constant var handle
+ * at a constant offset from the current offset of the view.
+ */
+final class StructView {
+    private static final ClassDesc CD_VarHandle = VarHandle.class.describeConstable().orElseThrow();
+    private static final MethodTypeDesc MTD_ValueLayout_long = MethodTypeDesc.of(CD_ValueLayout, ConstantDescs.CD_long);
+    private static final MethodTypeDesc MTD_VarHandle = MethodTypeDesc.of(CD_VarHandle);
+
+    private StructView() {}
+
+    /**
+     * Compile a structure view class for the given interface.
+     *
+     * @param interface_ the view interface (must not be {@code null})
+     * @param classDesc the descriptor of the class to generate (must not be {@code null})
+     * @return the class bytes
+     * @throws IllegalArgumentException if the interface has a method which cannot be implemented
+     */
+    static byte[] compile(final Class<?> interface_, final ClassDesc classDesc) {
+        if (! interface_.isInterface()) {
+            throw new IllegalArgumentException(interface_ + " is not an interface");
+        }
+        // validate everything before generating any code
+        Map<Method, Accessor> accessors = new LinkedHashMap<>();
+        // var handle field name -> accessor which defines it
+        Map<String, Accessor> varHandles = new LinkedHashMap<>();
+        HashSet<String> visited = new HashSet<>();
+        for (Method method : interface_.getMethods()) {
+            int mods = method.getModifiers();
+            if (Modifier.isStatic(mods) || ! Modifier.isAbstract(mods)) {
+                continue;
+            }
+            if (! visited.add(method.getName() + descriptorOf(method))) {
+                continue;
+            }
+            if (method.isAnnotationPresent(Link.rebase.class)) {
+                Class<?>[] paramTypes = method.getParameterTypes();
+                boolean ok = paramTypes.length == 2 && paramTypes[0] == LazyLink.MEMORY_SEGMENT && paramTypes[1] == long.class
+                    || paramTypes.length == 1 && paramTypes[0] == long.class;
+                Class<?> returnType = method.getReturnType();
+                if (! ok || returnType != void.class && ! returnType.isAssignableFrom(interface_)) {
+                    throw new IllegalArgumentException("Method " + method + " is not a valid rebase method");
+                }
+                accessors.put(method, null);
+            } else {
+                Link.offset offset = method.getAnnotation(Link.offset.class);
+                if (offset == null) {
+                    throw new IllegalArgumentException("Method " + method + " is not annotated with @Link.offset or @Link.rebase");
+                }
+                Accessor accessor = new Accessor(method, offset.value());
+                accessors.put(method, accessor);
+                varHandles.putIfAbsent(accessor.varHandleName(), accessor);
+            }
+        }
+        ClassFile cf = ClassFile.of(ClassFile.StackMapsOption.GENERATE_STACK_MAPS);
+        return cf.build(classDesc, zb -> {
+            zb.withFlags(AccessFlag.FINAL);
+            zb.withVersion(ClassFile.JAVA_22_VERSION, 0);
+            zb.withInterfaceSymbols(interface_.describeConstable().orElseThrow());
+            zb.withField("segment", CD_MemorySegment, ClassFile.ACC_PRIVATE);
+            zb.withField("offset", ConstantDescs.CD_long, ClassFile.ACC_PRIVATE);
+            for (String name : varHandles.keySet()) {
+                zb.withField(name, CD_VarHandle, ClassFile.ACC_PRIVATE | ClassFile.ACC_STATIC | ClassFile.ACC_FINAL);
+            }
+            zb.withMethod("<clinit>", MTD_void, ClassFile.ACC_STATIC, mb -> {
+                mb.withCode(cb -> {
+                    for (Map.Entry<String, Accessor> entry : varHandles.entrySet()) {
+                        Accessor accessor = entry.getValue();
+                        AutoLinker.emitValueLayout(cb, accessor.memoryCarrier());
+                        if (! accessor.aligned()) {
+                            cb.lconst_1();
+                            cb.invokeinterface(CD_ValueLayout, "withByteAlignment", MTD_ValueLayout_long);
+                        }
+                        cb.invokeinterface(CD_ValueLayout, "varHandle", MTD_VarHandle);
+                        cb.putstatic(classDesc, entry.getKey(), CD_VarHandle);
+                    }
+                    cb.return_();
+                });
+            });
+            // the view is initially unbound
+            zb.withMethod("<init>", MTD_void, ClassFile.ACC_PUBLIC, mb -> {
+                mb.withCode(cb -> {
+                    cb.aload(0);
+                    cb.invokespecial(ConstantDescs.CD_Object, "<init>", MTD_void);
+                    cb.aload(0);
+                    cb.getstatic(CD_MemorySegment, "NULL", CD_MemorySegment);
+                    cb.putfield(classDesc, "segment", CD_MemorySegment);
+                    cb.return_();
+                });
+            });
+            for (Map.Entry<Method, Accessor> entry : accessors.entrySet()) {
+                Method method = entry.getKey();
+                Accessor accessor = entry.getValue();
+                zb.withMethod(method.getName(), MethodTypeDesc.ofDescriptor(descriptorOf(method)), ClassFile.ACC_PUBLIC | ClassFile.ACC_FINAL, mb -> {
+                    mb.withCode(cb -> {
+                        if (accessor == null) {
+                            emitRebase(cb, classDesc, method);
+                        } else if (accessor.setter) {
+                            accessor.emitSet(cb, classDesc);
+                        } else {
+                            accessor.emitGet(cb, classDesc);
+                        }
+                    });
+                });
+            }
+        });
+    }
+
+    private static void emitRebase(final CodeBuilder cb, final ClassDesc classDesc, final Method method) {
+        int offsetVar = 1;
+        if (method.getParameterCount() == 2) {
+            cb.aload(0);
+            cb.aload(1);
+            cb.putfield(classDesc, "segment", CD_MemorySegment);
+            offsetVar = 2;
+        }
+        cb.aload(0);
+        cb.lload(offsetVar);
+        cb.putfield(classDesc, "offset", ConstantDescs.CD_long);
+        if (method.getReturnType() == void.class) {
+            cb.return_();
+        } else {
+            cb.aload(0);
+            cb.areturn();
+        }
+    }
+
+    private static void emitPosition(final CodeBuilder cb, final ClassDesc classDesc, final long offset) {
+        cb.aload(0);
+        cb.getfield(classDesc, "segment", CD_MemorySegment);
+        cb.aload(0);
+        cb.getfield(classDesc, "offset", ConstantDescs.CD_long);
+        if (offset != 0) {
+            cb.ldc(Long.valueOf(offset));
+            cb.ladd();
+        }
+    }
+
+    private static String descriptorOf(final Method method) {
+        StringBuilder b = new StringBuilder();
+        b.append('(');
+        for (Class<?> paramType : method.getParameterTypes()) {
+            b.append(paramType.descriptorString());
+        }
+        b.append(')');
+        b.append(method.getReturnType().descriptorString());
+        return b.toString();
+    }
+
+    static final class Accessor {
+        final Method method;
+        final long offset;
+        final boolean setter;
+        final Class<?> type;
+        final Class<?> valueType;
+        final Transformation transformation;
+
+        Accessor(final Method method, final long offset) {
+            this.method = method;
+            if (offset < 0) {
+                throw new IllegalArgumentException("Method " + method + " has a negative member offset");
+            }
+            this.offset = offset;
+            Class<?>[] paramTypes = method.getParameterTypes();
+            if (paramTypes.length == 0 && method.getReturnType() != void.class) {
+                setter = false;
+                type = method.getReturnType();
+            } else if (paramTypes.length == 1 && method.getReturnType() == void.class) {
+                setter = true;
+                type = paramTypes[0];
+            } else {
+                throw new IllegalArgumentException("Method " + method + " is neither a getter nor a setter");
+            }
+            valueType = StructType.valueType(type);
+            if (valueType == null) {
+                throw new IllegalArgumentException("Method " + method + " has a type which cannot be stored in memory");
+            }
+            Link.as linkAs = method.getAnnotation(Link.as.class);
+            Transformation transformation = linkAs != null ? AutoLinker.transformationFor(linkAs.value()) : Transformation.forJavaType(type);
+            transformation = AutoLinker.addressTransformation(type, transformation);
+            if (transformation.memoryCarrier() == null) {
+                throw new IllegalArgumentException("Method " + method + " has a type which cannot be stored in memory");
+            }
+            this.transformation = transformation;
+        }
+
+        Class<?> memoryCarrier() {
+            return transformation.memoryCarrier();
+        }
+
+        /**
+         * {@return <code>true</code> if the member is at its natural alignment within the structure}
+         */
+        boolean aligned() {
+            return offset % StructType.memorySize(memoryCarrier()) == 0;
+        }
+
+        /**
+         * {@return the name of the static field which holds the var handle for this member}
+         * Members which share a memory carrier and alignment share a var handle.
+         */
+        String varHandleName() {
+            Class<?> memoryCarrier = memoryCarrier();
+            String name = memoryCarrier == LazyLink.MEMORY_SEGMENT ? "ADDRESS" : memoryCarrier.getName().toUpperCase(Locale.ROOT);
+            return aligned() ? name : name + "_UNALIGNED";
+        }
+
+        void emitGet(final CodeBuilder cb, final ClassDesc classDesc) {
+            Class<?> memoryCarrier = memoryCarrier();
+            cb.getstatic(classDesc, varHandleName(), CD_VarHandle);
+            emitPosition(cb, classDesc, offset);
+            cb.invokevirtual(CD_VarHandle, "get", MethodTypeDesc.of(memoryCarrier.describeConstable().orElseThrow(), CD_MemorySegment, ConstantDescs.CD_long));
+            transformation.emitReturn(cb, valueType);
+            StructType.emitFromValue(cb, type, valueType);
+            cb.return_(TypeKind.from(type));
+        }
+
+        void emitSet(final CodeBuilder cb, final ClassDesc classDesc) {
+            Class<?> memoryCarrier = memoryCarrier();
+            int valueVar = 1;
+            if (valueType != type) {
+                TypeKind valueKind = TypeKind.from(valueType);
+                valueVar = cb.allocateLocal(valueKind);
+                cb.aload(1);
+                StructType.emitToValue(cb, type, valueType);
+                cb.storeLocal(valueKind, valueVar);
+            }
+            cb.getstatic(classDesc, varHandleName(), CD_VarHandle);
+            emitPosition(cb, classDesc, offset);
+            transformation.applyArgument(cb, valueVar, valueType, false, -1, Direction.in);
+            cb.invokevirtual(CD_VarHandle, "set", MethodTypeDesc.of(ConstantDescs.CD_void, CD_MemorySegment, ConstantDescs.CD_long, memoryCarrier.describeConstable().orElseThrow()));
+            cb.return_();
+        }
+    }
+}
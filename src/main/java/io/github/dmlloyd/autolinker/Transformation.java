@@ -2,7 +2,10 @@ package io.github.dmlloyd.autolinker;
 
 import static io.github.dmlloyd.autolinker.AutoLinker.CD_AddressLayout;
 import static io.github.dmlloyd.autolinker.AutoLinker.CD_Linker_Option;
+import static io.github.dmlloyd.autolinker.AutoLinker.CD_MemoryLayout;
 import static io.github.dmlloyd.autolinker.AutoLinker.CD_MemorySegment;
+import static io.github.dmlloyd.autolinker.AutoLinker.CD_Reference;
+import static io.github.dmlloyd.autolinker.AutoLinker.CD_SegmentAllocator;
 import static io.github.dmlloyd.autolinker.AutoLinker.CD_ValueLayout;
 import static io.github.dmlloyd.autolinker.AutoLinker.CD_ValueLayout_OfBoolean;
 import static io.github.dmlloyd.autolinker.AutoLinker.CD_ValueLayout_OfDouble;
@@ -17,11 +20,17 @@ import static io.github.dmlloyd.autolinker.Direction.in_out;
 
 import java.lang.constant.ClassDesc;
 import java.lang.constant.ConstantDescs;
+import java.lang.constant.DynamicCallSiteDesc;
 import java.lang.constant.MethodTypeDesc;
 import java.lang.reflect.Parameter;
+import java.nio.ByteBuffer;
+import java.util.EnumSet;
+import java.util.List;
 import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
 
 import io.github.dmlloyd.classfile.CodeBuilder;
+import io.github.dmlloyd.classfile.Label;
 import io.github.dmlloyd.classfile.TypeKind;
 
 /**
@@ -602,8 +611,15 @@ enum Transformation {
                                     };
                                 }
                             }
+                        } else if (componentType == String.class) {
+                            // the pointer table and the strings are copied together
+                            cb.aload(arenaVar);
+                            cb.aload(varIdx);
+                            cb.invokedynamic(DynamicCallSiteDesc.of(AutoLinker.BSM_stringArray, "stringArray", MethodTypeDesc.of(CD_MemorySegment, AutoLinker.CD_Arena, ConstantDescs.CD_String.arrayType())));
+                        } else if (StructType.isStruct(componentType)) {
+                            return StructType.of(componentType).emitArrayAllocate(cb, varIdx, arenaVar, dir == null ? in_out : dir);
                         } else {
-                            // todo: other structure types and arrays of structure types
+                            // todo: other structure types
                             throw invalidArgType(this, argType);
                         }
                     } else if (argType.isPrimitive()) {
@@ -622,6 +638,10 @@ enum Transformation {
                         }
                         cb.loadLocal(tk, varIdx);
                         cb.invokeinterface(AutoLinker.CD_SegmentAllocator, "allocateFrom", MethodTypeDesc.of(CD_MemorySegment, CD_ValueLayout, argType.describeConstable().orElseThrow()));
+                    } else if (argType == List.class) {
+                        cb.aload(arenaVar);
+                        cb.aload(varIdx);
+                        cb.invokedynamic(DynamicCallSiteDesc.of(AutoLinker.BSM_stringArray, "stringArray", MethodTypeDesc.of(CD_MemorySegment, AutoLinker.CD_Arena, ConstantDescs.CD_List)));
                     } else {
                         switch (argType.getName()) {
                             case "java.lang.foreign.MemorySegment" -> cb.aload(varIdx);
@@ -654,7 +674,7 @@ enum Transformation {
         }
 
         public boolean needsArena(final Class<?> argType, final boolean heap) {
-            return argType == String.class || argType.isArray() && ! heap || argType.isPrimitive();
+            return argType == String.class || argType == List.class || argType.isArray() && (! heap || ! argType.componentType().isPrimitive()) || argType.isPrimitive();
         }
 
         public void emitReturn(final CodeBuilder cb, final Class<?> returnType) {
@@ -662,7 +682,7 @@ enum Transformation {
                 case REFERENCE -> {
                     switch (returnType.getName()) {
                         case "java.lang.foreign.MemorySegment" -> {}
-                        case "java.nio.ByteBuffer" -> cb.invokestatic(AutoLinker.CD_MemorySegment, "asByteBuffer", MethodTypeDesc.of(AutoLinker.CD_ByteBuffer), true);
+                        case "java.nio.ByteBuffer" -> cb.invokeinterface(AutoLinker.CD_MemorySegment, "asByteBuffer", MethodTypeDesc.of(AutoLinker.CD_ByteBuffer));
                         default -> throw invalidReturnType(this, returnType);
                     }
                 }
@@ -675,6 +695,39 @@ enum Transformation {
             cb.getstatic(CD_ValueLayout, "ADDRESS", CD_AddressLayout);
         }
     },
+    /**
+     * A structure which is passed or returned by value.
+     * The Java type is a record class which is annotated with {@link Link.struct}.
+     */
+    STRUCT {
+        public Class<?> carrier() {
+            return LazyLink.MEMORY_SEGMENT;
+        }
+
+        public Consumer<CodeBuilder> applyArgument(final CodeBuilder cb, final int varIdx, final Class<?> argType, final boolean heap, final int arenaVar, final Direction dir) {
+            StructType.of(argType).emitAllocate(cb, varIdx, arenaVar);
+            return null;
+        }
+
+        public boolean needsArena(final Class<?> argType, final boolean heap) {
+            return true;
+        }
+
+        public void emitReturn(final CodeBuilder cb, final Class<?> returnType) {
+            int segSlot = cb.allocateLocal(TypeKind.REFERENCE);
+            cb.astore(segSlot);
+            StructType.of(returnType).emitLoad(cb, segSlot, -1, 0, -1);
+        }
+
+        public void emitLayout(final CodeBuilder cb) {
+            // callers always pass the Java type for layouts of arguments and return values
+            throw new IllegalStateException("Struct layout requested without the Java type of the struct; emitLayout(CodeBuilder, Class) must be used for STRUCT");
+        }
+
+        public void emitLayout(final CodeBuilder cb, final Class<?> type) {
+            StructType.of(type).emitLayout(cb);
+        }
+    },
     /**
      * A boolean value (i.e. C's {@code _Bool} type).
      */
@@ -801,6 +854,111 @@ enum Transformation {
             return null;
         }
     },
+    /**
+     * A pointer to an array of {@code struct iovec} which describes each element of a {@code ByteBuffer[]}
+     * or {@code MemorySegment[]} argument.
+     * Buffers are described from their position to their limit.
+     * <p>
+     * Only the addresses are passed, so the argument array is kept reachable until the call has returned,
+     * which keeps direct buffers and segments of automatic arenas from being freed during the call.
+     * Segments of shared arenas are not protected from being closed by another thread during the call.
+     */
+    IOVEC {
+        public Class<?> carrier() {
+            return LazyLink.MEMORY_SEGMENT;
+        }
+
+        public Consumer<CodeBuilder> applyArgument(final CodeBuilder cb, final int varIdx, final Class<?> argType, final boolean heap, final int arenaVar, final Direction dir) {
+            if (argType != ByteBuffer[].class && argType != LazyLink.MEMORY_SEGMENT.arrayType()) {
+                throw invalidArgType(this, argType);
+            }
+            cb.aload(arenaVar);
+            cb.aload(varIdx);
+            cb.invokedynamic(DynamicCallSiteDesc.of(AutoLinker.BSM_iovec, "iovec", MethodTypeDesc.of(CD_MemorySegment, AutoLinker.CD_Arena, argType.describeConstable().orElseThrow())));
+            return xb -> {
+                // the buffers and segments must not be freed before the call has returned
+                xb.aload(varIdx);
+                xb.invokestatic(CD_Reference, "reachabilityFence", MethodTypeDesc.of(ConstantDescs.CD_void, ConstantDescs.CD_Object));
+            };
+        }
+
+        public boolean needsArena(final Class<?> argType, final boolean heap) {
+            return true;
+        }
+
+        public void emitLayout(final CodeBuilder cb) {
+            PTR.emitLayout(cb);
+        }
+    },
+    /**
+     * A function pointer to an upcall stub which calls a {@linkplain Callback callback}.
+     * The Java type is an interface which is annotated with {@link FunctionalInterface}.
+     * The argument is applied by the stub generator, because the stub depends on the call site.
+     */
+    CALLBACK {
+        public Class<?> carrier() {
+            return LazyLink.MEMORY_SEGMENT;
+        }
+
+        public void emitLayout(final CodeBuilder cb) {
+            PTR.emitLayout(cb);
+        }
+    },
+    /**
+     * The address of the function to call through a {@linkplain FunctionPointer function pointer}.
+     * The argument is not passed to the function; it supplies the function address to the call site,
+     * so it has no layout.
+     */
+    TARGET {
+        public Class<?> carrier() {
+            return void.class;
+        }
+
+        public Consumer<CodeBuilder> applyArgument(final CodeBuilder cb, final int varIdx, final Class<?> argType, final boolean heap, final int arenaVar, final Direction dir) {
+            // the function address is passed before all other arguments
+            return null;
+        }
+
+        public boolean hasLayout() {
+            return false;
+        }
+    },
+    /**
+     * The trailing {@code Object[]} of a variadic function, whose elements are the variadic arguments.
+     * The array is passed as is and expanded by the {@linkplain Variadic call site} according to the types of its elements,
+     * so it has no layout of its own.
+     */
+    VARIADIC {
+        public Class<?> carrier() {
+            return Object[].class;
+        }
+
+        public Consumer<CodeBuilder> applyArgument(final CodeBuilder cb, final int varIdx, final Class<?> argType, final boolean heap, final int arenaVar, final Direction dir) {
+            // the arguments are classified and converted by the call site
+            cb.aload(varIdx);
+            return null;
+        }
+
+        public boolean hasLayout() {
+            return false;
+        }
+    },
+    /**
+     * A pointer to scratch memory which receives a component of a returned {@linkplain Link.result result record}.
+     */
+    RESULT {
+        public Class<?> carrier() {
+            return LazyLink.MEMORY_SEGMENT;
+        }
+
+        public void emitLayout(final CodeBuilder cb) {
+            PTR.emitLayout(cb);
+        }
+
+        public boolean consumeArgument() {
+            return false;
+        }
+    },
     ;
 
     private static IllegalArgumentException invalidArgType(final Transformation xform, final Class<?> argType) {
@@ -822,10 +980,14 @@ enum Transformation {
             case LONG -> S64;
             case DOUBLE -> F64;
             case REFERENCE -> {
-                if (type.isArray() || type == LazyLink.MEMORY_SEGMENT || type == String.class) {
+                if (type.isArray() || type == LazyLink.MEMORY_SEGMENT || type == String.class || type == ByteBuffer.class || type == List.class || NativeHandle.class.isAssignableFrom(type)) {
                     yield PTR;
-                } else if (NativeEnum.class.isAssignableFrom(type)) {
+                } else if (NativeEnum.class.isAssignableFrom(type) || type == EnumSet.class) {
                     yield S32;
+                } else if (StructType.isStruct(type)) {
+                    yield STRUCT;
+                } else if (Callback.isCallback(type)) {
+                    yield CALLBACK;
                 } else {
                     throw new IllegalArgumentException("No conversion for Java type " + type);
                 }
@@ -856,6 +1018,120 @@ enum Transformation {
         throw new IllegalArgumentException("This type cannot be used as an argument type");
     }
 
+    /**
+     * Apply a primitive array argument whose elements are each converted to this type into a call which is being built.
+     * The elements are converted into a temporary Java array of the memory carrier type, which is copied to
+     * native memory in bulk, and copied and converted back after the call if the direction is {@link Direction#out out}.
+     *
+     * @param cb       the code builder (not {@code null})
+     * @param varIdx   the argument's variable slot index
+     * @param argType  the type of the argument, which must be a primitive array type (not {@code null})
+     * @param arenaVar the variable index of the allocation arena
+     * @param dir      the direction of the argument, or {@code null} if none was given
+     * @return a post-call cleanup action to take, or {@code null} if none is needed
+     */
+    public Consumer<CodeBuilder> applyArrayArgument(CodeBuilder cb, final int varIdx, final Class<?> argType, final int arenaVar, Direction dir) {
+        Class<?> componentType = argType.componentType();
+        TypeKind componentKind = TypeKind.from(componentType);
+        Class<?> memoryCarrier = memoryCarrier();
+        if (memoryCarrier == null) {
+            throw invalidArgType(this, argType);
+        }
+        // there is no bulk copy of boolean arrays, but a boolean is stored as a byte
+        Class<?> copyType = memoryCarrier == boolean.class ? byte.class : memoryCarrier;
+        TypeKind copyKind = TypeKind.from(copyType);
+        ClassDesc copyArrayDesc = copyType.arrayType().describeConstable().orElseThrow();
+        if (dir == null) {
+            dir = in_out;
+        }
+        // the Java copy of the array, in the memory carrier type
+        int copySlot = cb.allocateLocal(TypeKind.REFERENCE);
+        cb.aload(varIdx);
+        cb.arraylength();
+        cb.newarray(copyKind);
+        cb.astore(copySlot);
+        if (dir.in()) {
+            // convert each element; this array-to-array loop is a good candidate for vectorization
+            int tmp = cb.allocateLocal(componentKind);
+            emitArrayLoop(cb, varIdx, (lb, idx) -> {
+                lb.aload(copySlot);
+                lb.iload(idx);
+                lb.aload(varIdx);
+                lb.iload(idx);
+                lb.arrayLoad(componentKind);
+                lb.storeLocal(componentKind, tmp);
+                applyArgument(lb, tmp, componentType, false, arenaVar, Direction.in);
+                lb.arrayStore(copyKind);
+            });
+            // then copy all of them at once
+            cb.aload(arenaVar);
+            AutoLinker.emitValueLayout(cb, copyType);
+            cb.aload(copySlot);
+            cb.invokeinterface(CD_SegmentAllocator, "allocateFrom", MethodTypeDesc.of(CD_MemorySegment, CD_ValueLayout, copyArrayDesc));
+        } else {
+            cb.aload(arenaVar);
+            AutoLinker.emitValueLayout(cb, copyType);
+            cb.aload(varIdx);
+            cb.arraylength();
+            cb.i2l();
+            cb.invokeinterface(CD_SegmentAllocator, "allocate", MethodTypeDesc.of(CD_MemorySegment, CD_MemoryLayout, ConstantDescs.CD_long));
+        }
+        int segSlot = cb.allocateLocal(TypeKind.REFERENCE);
+        cb.astore(segSlot);
+        cb.aload(segSlot);
+        if (dir.out()) {
+            return xb -> {
+                // copy all of the elements at once
+                xb.aload(segSlot);
+                AutoLinker.emitValueLayout(xb, copyType);
+                xb.lconst_0();
+                xb.aload(copySlot);
+                xb.iconst_0();
+                xb.aload(copySlot);
+                xb.arraylength();
+                xb.invokestatic(CD_MemorySegment, "copy", MethodTypeDesc.of(ConstantDescs.CD_void, CD_MemorySegment, CD_ValueLayout, ConstantDescs.CD_long, ConstantDescs.CD_Object, ConstantDescs.CD_int, ConstantDescs.CD_int), true);
+                // then convert each element back into the original array
+                emitArrayLoop(xb, varIdx, (lb, idx) -> {
+                    lb.aload(varIdx);
+                    lb.iload(idx);
+                    lb.aload(copySlot);
+                    lb.iload(idx);
+                    lb.arrayLoad(copyKind);
+                    if (memoryCarrier == boolean.class) {
+                        // any nonzero byte is true
+                        Label zero = lb.newLabel();
+                        Label done = lb.newLabel();
+                        lb.ifeq(zero);
+                        lb.iconst_1();
+                        lb.goto_(done);
+                        lb.labelBinding(zero);
+                        lb.iconst_0();
+                        lb.labelBinding(done);
+                    }
+                    emitReturn(lb, componentType);
+                    lb.arrayStore(componentKind);
+                });
+            };
+        }
+        return null;
+    }
+
+    private static void emitArrayLoop(final CodeBuilder cb, final int arrayVar, final ObjIntConsumer<CodeBuilder> body) {
+        int idx = cb.allocateLocal(TypeKind.INT);
+        cb.iconst_0();
+        cb.istore(idx);
+        Label top = cb.newBoundLabel();
+        Label end = cb.newLabel();
+        cb.iload(idx);
+        cb.aload(arrayVar);
+        cb.arraylength();
+        cb.if_icmpge(end);
+        body.accept(cb, idx);
+        cb.iinc(idx, 1);
+        cb.goto_(top);
+        cb.labelBinding(end);
+    }
+
     /**
      * Emit the return instruction for this transformation.
      *
@@ -892,6 +1168,35 @@ enum Transformation {
         cb.getstatic(CD_ValueLayout, "JAVA_INT", CD_ValueLayout_OfInt);
     }
 
+    /**
+     * Emit code to produce the layout for this value of the given Java type, if there is one.
+     *
+     * @param cb the code builder (not {@code null})
+     * @param type the Java type of the argument or return value, or {@code null} if this transformation does not consume an argument
+     */
+    public void emitLayout(final CodeBuilder cb, final Class<?> type) {
+        emitLayout(cb);
+    }
+
+    /**
+     * {@return the carrier type of a value of this type when it is stored in memory, or {@code null} if it cannot be stored}
+     * This may be narrower than {@link #carrier()}, which reflects the type used for passing arguments.
+     */
+    public Class<?> memoryCarrier() {
+        return switch (this) {
+            case U7, S8, U8 -> byte.class;
+            case S16 -> short.class;
+            case U16 -> char.class;
+            case S32, U32 -> int.class;
+            case S64, U64 -> long.class;
+            case F32 -> float.class;
+            case F64 -> double.class;
+            case BOOL -> boolean.class;
+            case PTR -> LazyLink.MEMORY_SEGMENT;
+            default -> null;
+        };
+    }
+
     /**
      * {@return true if there is a layout for this transformation, or false if there is not}
      */
@@ -0,0 +1,92 @@
+package io.github.dmlloyd.autolinker;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.UndeclaredThrowableException;
+
+/**
+ * The upcall stubs of a call site which passes a {@linkplain Callback callback}.
+ * One instance exists for each such call site.
+ * Recently used stubs are cached by callback instance and arena, so that passing the same callback
+ * (for example, a method reference to a static method, which is always the same instance) does not
+ * create a new upcall stub on each call.
+ */
+final class Upcall {
+    /**
+     * {@code Upcall.stub(Object, Object)}, as {@code (Upcall, Object, Object)Object}.
+     */
+    static final MethodHandle STUB;
+    private static final int CACHE_SIZE = 4;
+
+    static {
+        try {
+            STUB = MethodHandles.lookup().findVirtual(Upcall.class, "stub", MethodType.methodType(Object.class, Object.class, Object.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private final MethodHandle adapter;
+    private final Object descriptor;
+    private final MethodHandle upcallStub;
+    private final Entry[] cache = new Entry[CACHE_SIZE];
+    // racy, but any slot will do
+    private int next;
+
+    /**
+     * Construct a new instance.
+     *
+     * @param adapter the adapter method, whose first parameter is the callback instance (must not be {@code null})
+     * @param descriptor the {@code FunctionDescriptor} of the callback (must not be {@code null})
+     * @param upcallStub the generated method which creates an upcall stub (must not be {@code null})
+     */
+    Upcall(final MethodHandle adapter, final Object descriptor, final MethodHandle upcallStub) {
+        this.adapter = adapter;
+        this.descriptor = descriptor;
+        this.upcallStub = upcallStub.asType(MethodType.methodType(Object.class, MethodHandle.class, Object.class, Object.class));
+    }
+
+    /**
+     * Get the upcall stub for the given callback.
+     *
+     * @param callback the callback instance, or {@code null} to pass a {@code NULL} pointer
+     * @param arena the arena which owns the stub, or {@code null} to create a stub which is freed
+     *      when it is no longer reachable (after the call)
+     * @return the upcall stub segment (not {@code null})
+     */
+    Object stub(Object callback, Object arena) {
+        if (callback == null) {
+            return LazyLink.SEGMENT_NULL;
+        }
+        Entry[] cache = this.cache;
+        for (Entry entry : cache) {
+            if (entry != null && entry.callback == callback && entry.arena == arena) {
+                return entry.stub;
+            }
+        }
+        try {
+            Object stubArena = arena == null ? (Object) LazyLink.ARENA_OF_AUTO.invokeExact() : arena;
+            Object stub = (Object) upcallStub.invokeExact(adapter.bindTo(callback), descriptor, stubArena);
+            // racy publication is safe because entries are immutable
+            cache[next++ & CACHE_SIZE - 1] = new Entry(callback, arena, stub);
+            return stub;
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new UndeclaredThrowableException(t);
+        }
+    }
+
+    static final class Entry {
+        final Object callback;
+        final Object arena;
+        final Object stub;
+
+        Entry(final Object callback, final Object arena, final Object stub) {
+            this.callback = callback;
+            this.arena = arena;
+            this.stub = stub;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package io.github.dmlloyd.autolinker;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * A call site of a variadic function whose variadic arguments are given as a trailing {@code Object...} parameter.
+ * One instance exists for each such call site.
+ * <p>
+ * The native type of each variadic argument is determined from its run time type, using the default argument promotions of C.
+ * The downcall handle for each combination of argument types (the <em>shape</em> of the call) is linked on first use,
+ * and the handles of the most recently used shapes are kept in a small inline cache,
+ * so that calls whose shapes are stable do not link again.
+ */
+final class Variadic {
+    private static final MethodHandle INVOKE;
+    private static final int CACHE_SIZE = 8;
+    /**
+     * The most arguments whose shape fits into a key.
+     */
+    private static final int MAX_KEYED = 31;
+
+    // shape codes
+    private static final int INT = 0;
+    private static final int LONG = 1;
+    private static final int DOUBLE = 2;
+    private static final int ADDRESS = 3;
+
+    private static final Class<?>[] CARRIERS = { int.class, long.class, double.class, LazyLink.MEMORY_SEGMENT };
+    private static final Object[] LAYOUTS = {
+        LazyLink.valueLayout("JAVA_INT"),
+        LazyLink.valueLayout("JAVA_LONG"),
+        LazyLink.valueLayout("JAVA_DOUBLE"),
+        LazyLink.valueLayout("ADDRESS"),
+    };
+    private static final Object JAVA_BYTE = LazyLink.valueLayout("JAVA_BYTE");
+    private static final Object[] NO_ARGS = new Object[0];
+
+    static {
+        try {
+            INVOKE = MethodHandles.lookup().findVirtual(Variadic.class, "invoke", MethodType.methodType(Object.class, Object[].class, Object[].class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * The generated method which links a downcall handle, as {@code (Object, Object, Object)MethodHandle}.
+     */
+    private final MethodHandle downcall;
+    private final Object function;
+    private final Object descriptor;
+    private final Object[] options;
+    /**
+     * The type of the call without the variadic arguments.
+     */
+    private final MethodType fixedType;
+    /**
+     * The index of the first variadic argument, for {@code Linker.Option.firstVariadicArg}.
+     */
+    private final int firstVariadic;
+    private final Entry[] cache = new Entry[CACHE_SIZE];
+    // racy, but any slot will do
+    private int next;
+
+    /**
+     * Construct a new instance.
+     *
+     * @param downcall the generated method which links a downcall handle (must not be {@code null})
+     * @param function the function address segment (must not be {@code null})
+     * @param descriptor the function descriptor of the fixed arguments (must not be {@code null})
+     * @param options the linker options, as {@code Linker.Option[]} (must not be {@code null})
+     * @param type the call site type, whose last parameter is {@code Object[]} (must not be {@code null})
+     */
+    Variadic(final MethodHandle downcall, final Object function, final Object descriptor, final Object options, final MethodType type) {
+        this.downcall = downcall.asType(MethodType.methodType(MethodHandle.class, Object.class, Object.class, Object.class));
+        this.function = function;
+        this.descriptor = descriptor;
+        this.options = (Object[]) options;
+        fixedType = type.dropParameterTypes(type.parameterCount() - 1, type.parameterCount());
+        try {
+            firstVariadic = ((List<?>) LazyLink.DESCRIPTOR_ARGUMENT_LAYOUTS.invokeExact(descriptor)).size();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new RuntimeException(t);
+        }
+    }
+
+    /**
+     * {@return the method handle of this call site, whose type is the call site type}
+     */
+    MethodHandle handle() {
+        return INVOKE.bindTo(this).asCollector(0, Object[].class, fixedType.parameterCount()).asType(fixedType.appendParameterTypes(Object[].class));
+    }
+
+    Object invoke(Object[] fixed, Object[] args) throws Throwable {
+        if (args == null) {
+            args = NO_ARGS;
+        }
+        int nf = fixed.length;
+        int nv = args.length;
+        // two bits per argument, after a leading one bit which distinguishes the argument count; zero if too many to cache
+        long key = 0;
+        if (nv <= MAX_KEYED) {
+            key = 1;
+            for (int i = 0; i < nv; i ++) {
+                key = key << 2 | shapeOf(args[i]);
+            }
+        }
+        MethodHandle handle = key == 0 ? link(args) : lookup(key, args);
+        Object[] all = new Object[nf + nv];
+        System.arraycopy(fixed, 0, all, 0, nf);
+        Object arena = null;
+        try {
+            for (int i = 0; i < nv; i ++) {
+                Object arg = args[i];
+                Object value;
+                if (arg instanceof String) {
+                    if (arena == null) {
+                        arena = (Object) LazyLink.ARENA_OF_CONFINED.invokeExact();
+                    }
+                    value = allocateString(arena, (String) arg);
+                } else {
+                    value = convert(arg);
+                }
+                all[nf + i] = value;
+            }
+            return (Object) handle.invokeExact(all);
+        } finally {
+            if (arena != null) {
+                LazyLink.ARENA_CLOSE.invokeExact(arena);
+            }
+        }
+    }
+
+    private MethodHandle lookup(long key, Object[] args) throws Throwable {
+        Entry[] cache = this.cache;
+        for (Entry entry : cache) {
+            if (entry != null && entry.key == key) {
+                return entry.handle;
+            }
+        }
+        MethodHandle handle = link(args);
+        // racy publication is safe because entries are immutable
+        cache[next++ & CACHE_SIZE - 1] = new Entry(key, handle);
+        return handle;
+    }
+
+    /**
+     * Link the downcall handle for the shape of the given arguments.
+     *
+     * @return the handle, as {@code (Object[])Object} (not {@code null})
+     */
+    private MethodHandle link(Object[] args) throws Throwable {
+        int nv = args.length;
+        Object layouts = Array.newInstance(LazyLink.MEMORY_LAYOUT, nv);
+        Class<?>[] carriers = new Class<?>[nv];
+        for (int i = 0; i < nv; i ++) {
+            int shape = shapeOf(args[i]);
+            Array.set(layouts, i, LAYOUTS[shape]);
+            carriers[i] = CARRIERS[shape];
+        }
+        Object descriptor = (Object) LazyLink.DESCRIPTOR_APPEND_ARGUMENT_LAYOUTS.invokeExact(this.descriptor, layouts);
+        Object[] options = this.options;
+        Object[] allOptions = (Object[]) Array.newInstance(options.getClass().componentType(), options.length + 1);
+        System.arraycopy(options, 0, allOptions, 0, options.length);
+        allOptions[options.length] = (Object) LazyLink.OPTION_FIRST_VARIADIC_ARG.invokeExact(firstVariadic);
+        MethodHandle handle = (MethodHandle) downcall.invokeExact(function, descriptor, (Object) allOptions);
+        MethodType type = fixedType.appendParameterTypes(carriers);
+        return handle.asType(type).asType(type.generic()).asSpreader(Object[].class, type.parameterCount());
+    }
+
+    private static int shapeOf(Object arg) {
+        if (arg instanceof Integer || arg instanceof Short || arg instanceof Byte || arg instanceof Character || arg instanceof Boolean || arg instanceof NativeEnum) {
+            // promoted to int
+            return INT;
+        } else if (arg instanceof Long) {
+            return LONG;
+        } else if (arg instanceof Double || arg instanceof Float) {
+            // promoted to double
+            return DOUBLE;
+        } else if (arg == null || arg instanceof String || LazyLink.MEMORY_SEGMENT.isInstance(arg) || arg instanceof NativeHandle) {
+            return ADDRESS;
+        } else {
+            throw new IllegalArgumentException("Cannot pass variadic argument of " + arg.getClass());
+        }
+    }
+
+    private static Object convert(Object arg) throws Throwable {
+        if (arg == null) {
+            return LazyLink.SEGMENT_NULL;
+        } else if (arg instanceof Short || arg instanceof Byte) {
+            return Integer.valueOf(((Number) arg).intValue());
+        } else if (arg instanceof Character) {
+            return Integer.valueOf(((Character) arg).charValue());
+        } else if (arg instanceof Boolean) {
+            return Integer.valueOf(((Boolean) arg).booleanValue() ? 1 : 0);
+        } else if (arg instanceof NativeEnum) {
+            return Integer.valueOf(((NativeEnum<?>) arg).nativeCode());
+        } else if (arg instanceof Float) {
+            return Double.valueOf(((Float) arg).doubleValue());
+        } else if (arg instanceof NativeHandle) {
+            return (Object) LazyLink.SEGMENT_OF_ADDRESS.invokeExact(((NativeHandle) arg).address());
+        } else {
+            return arg;
+        }
+    }
+
+    private static Object allocateString(Object arena, String string) throws Throwable {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        // the memory is zeroed, so the terminator is already present
+        Object segment = (Object) LazyLink.ARENA_ALLOCATE.invokeExact(arena, (long) bytes.length + 1, 1L);
+        LazyLink.SEGMENT_COPY_FROM_ARRAY.invokeExact((Object) bytes, 0, segment, JAVA_BYTE, 0L, bytes.length);
+        return segment;
+    }
+
+    static final class Entry {
+        final long key;
+        final MethodHandle handle;
+
+        Entry(final long key, final MethodHandle handle) {
+            this.key = key;
+            this.handle = handle;
+        }
+    }
+}
@@ -7,6 +7,7 @@ import io.smallrye.common.os.OS;
  */
 @SuppressWarnings("SpellCheckingInspection")
 public enum Errno implements NativeEnum<Errno> {
+    EBADF,
     EDOM,
     ERANGE,
     EILSEQ,
@@ -14,6 +15,7 @@ public enum Errno implements NativeEnum<Errno> {
 
     public int nativeCode() {
         return switch (this) {
+            case EBADF -> 9;
             case EDOM -> 33;
             case ERANGE -> 34;
             case EILSEQ -> switch (OS.current()) {
@@ -27,6 +29,7 @@ public enum Errno implements NativeEnum<Errno> {
 
     public static Errno fromNativeCode(int code) {
         return switch (code) {
+            case 9 -> EBADF;
             case 33 -> EDOM;
             case 34 -> ERANGE;
             case 42, 84, 92 -> EILSEQ;
@@ -1,17 +1,27 @@
 package io.github.dmlloyd.autolinker;
 
 import static io.github.dmlloyd.autolinker.AsType.*;
+import static io.github.dmlloyd.autolinker.Direction.*;
 import static io.github.dmlloyd.autolinker.Link.*;
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.IOException;
 import java.lang.foreign.Arena;
 import java.lang.foreign.Linker;
+import java.lang.foreign.MemoryLayout;
 import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
 import java.lang.invoke.MethodHandles;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
-import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 
 /**
@@ -19,6 +29,8 @@ import org.junit.jupiter.api.Test;
  */
 public final class TestLibC {
 
+    private static final int EBADF = 9;
+
     private final AutoLinker autoLinker = new AutoLinker(MethodHandles.lookup());
 
     @Test
@@ -80,7 +92,96 @@ public final class TestLibC {
     }
 
     @Test
-    @Disabled("FFM presently disallows critical+capture")
+    public void testLinkErrno() throws InterruptedException {
+        LibCStuff x = autoLinker.autoLink(LibCStuff.class);
+        x.strtol("99999999999999999999999999", 0, 10);
+        assertEquals(Errno.ERANGE.nativeCode(), AutoLinker.lastErrno());
+        // errno is captured separately for each thread
+        int[] other = new int[1];
+        Thread thread = new Thread(() -> other[0] = AutoLinker.lastErrno());
+        thread.start();
+        thread.join();
+        assertEquals(0, other[0]);
+        assertEquals(Errno.ERANGE.nativeCode(), AutoLinker.lastErrno());
+    }
+
+    @Test
+    public void testBlocking() throws InterruptedException {
+        LibCStuff x = autoLinker.autoLink(LibCStuff.class);
+        // called directly on a platform thread
+        assertEquals(0, x.usleep(1000));
+        assertEquals(Long.MAX_VALUE, x.strtol_blocking("99999999999999999999999999", 0, 10));
+        assertEquals(Errno.ERANGE.nativeCode(), AutoLinker.lastErrno());
+        // called on another thread from a virtual thread, with errno copied back
+        long[] res = new long[3];
+        Thread thread = Thread.ofVirtual().start(() -> {
+            res[0] = x.usleep(1000);
+            res[1] = x.strtol_blocking("-99999999999999999999999999", 0, 10);
+            res[2] = AutoLinker.lastErrno();
+        });
+        thread.join();
+        assertEquals(0, res[0]);
+        assertEquals(Long.MIN_VALUE, res[1]);
+        assertEquals(Errno.ERANGE.nativeCode(), res[2]);
+        // confined memory is only accessible to the calling thread, so the call is made directly
+        Thread.ofVirtual().start(() -> {
+            try (Arena arena = Arena.ofConfined()) {
+                MemorySegment str = arena.allocate(5);
+                MemorySegment.copy("1234".getBytes(StandardCharsets.US_ASCII), 0, str, ValueLayout.JAVA_BYTE, 0, 4);
+                res[0] = x.atol_blocking(str);
+            }
+        }).join();
+        assertEquals(1234, res[0]);
+    }
+
+    @Test
+    public void testAsync() throws Exception {
+        LibCStuff x = autoLinker.autoLink(LibCStuff.class);
+        assertEquals(42, x.abs_async(-42).get());
+        byte[] src = { 1, 2, 3, 4 };
+        byte[] dest = new byte[4];
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CompletableFuture<Void> future = x.memcpy_async(dest, src, 4, executor);
+            // the input was already snapshotted
+            src[0] = 99;
+            future.get();
+            assertArrayEquals(new byte[] { 1, 2, 3, 4 }, dest);
+        } finally {
+            executor.shutdown();
+        }
+        // in/out arrays are written back before completion
+        byte[] buf = new byte[] { 1, 2, 3, 4 };
+        x.memset_async(buf, 'x', 2).get();
+        assertArrayEquals(new byte[] { 'x', 'x', 3, 4 }, buf);
+    }
+
+    @Test
+    public void testParallel() {
+        LibCStuff x = autoLinker.autoLink(LibCStuff.class);
+        byte[] buf = new byte[100_000];
+        x.memset_parallel(buf, 'x', buf.length - 1);
+        byte[] expected = new byte[buf.length];
+        Arrays.fill(expected, 0, buf.length - 1, (byte) 'x');
+        assertArrayEquals(expected, buf);
+        byte[] other = buf.clone();
+        assertEquals(0, x.memcmp_parallel(buf, other, buf.length));
+        // the first difference is found, even though later chunks differ the other way
+        other[77_777] = 'y';
+        other[99_999] = -1;
+        assertTrue(x.memcmp_parallel(buf, other, buf.length) < 0);
+        assertTrue(x.memcmp_parallel(other, buf, buf.length) > 0);
+        // small calls are not split
+        assertEquals(0, x.memcmp_parallel(buf, other, 10));
+        try (Arena arena = Arena.ofShared()) {
+            MemorySegment seg = arena.allocate(100_000);
+            x.memset_parallel_segment(seg, 'z', seg.byteSize());
+            assertEquals('z', seg.get(ValueLayout.JAVA_BYTE, 0));
+            assertEquals('z', seg.get(ValueLayout.JAVA_BYTE, 99_999));
+        }
+    }
+
+    @Test
     public void testCriticalWithCaptureErrno() {
         LibCStuff x = autoLinker.autoLink(LibCStuff.class);
         try (Arena arena = Arena.ofConfined()) {
@@ -88,6 +189,45 @@ public final class TestLibC {
         }
     }
 
+    @Test
+    public void testCriticalErrnoOnFailure() {
+        LibCStuff x = autoLinker.autoLink(LibCStuff.class);
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment state = arena.allocate(Linker.Option.captureStateLayout());
+            assertEquals(-1, x.close(state, -1));
+            int errno = (int) Linker.Option.captureStateLayout().varHandle(MemoryLayout.PathElement.groupElement("errno")).get(state, 0L);
+            assertEquals(EBADF, errno);
+        }
+        assertEquals(-1, x.close_errno(-1));
+        assertEquals(EBADF, AutoLinker.lastErrno());
+    }
+
+    @Test
+    public void testCriticalErrnoResultTypes() {
+        LibCStuff x = autoLinker.autoLink(LibCStuff.class);
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment state = arena.allocate(Linker.Option.captureStateLayout());
+            // lastErrno is ERANGE, while the errno of the thread is EBADF
+            x.strtol("99999999999999999999999999", 0, 10);
+            assertEquals(-1, x.close(state, -1));
+            assertEquals(Errno.ERANGE.nativeCode(), AutoLinker.lastErrno());
+            // a char result is never negative, so it never indicates a failure
+            assertEquals('A', x.toupper_errno('a'));
+            assertEquals(Errno.ERANGE.nativeCode(), AutoLinker.lastErrno());
+            // a non-NULL pointer result does not indicate a failure
+            assertNotNull(x.getenv_errno("PATH"));
+            assertEquals(Errno.ERANGE.nativeCode(), AutoLinker.lastErrno());
+            // a structure result cannot indicate a failure, so errno is always read
+            assertEquals(new DivResult(3, 2), x.div_errno(17, 5));
+            assertEquals(EBADF, AutoLinker.lastErrno());
+            // a NULL pointer result indicates a failure
+            x.strtol("99999999999999999999999999", 0, 10);
+            assertEquals(-1, x.close(state, -1));
+            assertNull(x.getenv_errno("AUTOLINKER_NON_EXISTENT_VARIABLE"));
+            assertEquals(EBADF, AutoLinker.lastErrno());
+        }
+    }
+
     @Test
     public void testMissing() {
         LibCStuff x = autoLinker.autoLink(LibCStuff.class);
@@ -110,6 +250,388 @@ public final class TestLibC {
         assertArrayEquals(expected, segArray);
     }
 
+    @Test
+    public void testAdaptiveHeap() {
+        LibCStuff x = autoLinker.autoLink(LibCStuff.class);
+        // small enough to use the heap directly
+        byte[] small = new byte[16];
+        x.memset_adaptive(small, 7, small.length);
+        byte[] expected = new byte[16];
+        Arrays.fill(expected, (byte) 7);
+        assertArrayEquals(expected, small);
+        // too big; copied instead
+        byte[] large = new byte[1000];
+        x.memset_adaptive(large, 9, large.length);
+        expected = new byte[1000];
+        Arrays.fill(expected, (byte) 9);
+        assertArrayEquals(expected, large);
+        // an input-only array is only written by the function when the heap is accessed directly,
+        // since the copying linkage does not copy it back
+        byte[] atThreshold = new byte[16];
+        x.memset_adaptive_in(atThreshold, 7, atThreshold.length);
+        expected = new byte[16];
+        Arrays.fill(expected, (byte) 7);
+        assertArrayEquals(expected, atThreshold);
+        byte[] overThreshold = new byte[17];
+        x.memset_adaptive_in(overThreshold, 7, overThreshold.length);
+        assertArrayEquals(new byte[17], overThreshold);
+    }
+
+    @Test
+    public void testConvertedArrays() {
+        LibCStuff x = autoLinker.autoLink(LibCStuff.class);
+        int[] src = { 1, 255, 256 + 3, -1 };
+        int[] dest = new int[4];
+        x.memcpy_u8(dest, src, 4);
+        assertArrayEquals(new int[] { 1, 255, 3, 255 }, dest);
+        long[] wide = { 1, -2, 0x1_0000_0003L };
+        long[] wideDest = new long[3];
+        x.memcpy_i32(wideDest, wide, 12);
+        assertArrayEquals(new long[] { 1, -2, 3 }, wideDest);
+    }
+
+    @Test
+    public void testNativeArrays() {
+        LibCStuff x = autoLinker.autoLink(LibCStuff.class);
+        try (NativeByteArray dest = new NativeByteArray(100)) {
+            x.memset_native(dest, 5, 100);
+            byte[] expected = new byte[100];
+            Arrays.fill(expected, (byte) 5);
+            assertArrayEquals(expected, dest.toArray());
+            try (NativeByteArray src = new NativeByteArray(new byte[] { 1, 2, 3, 4 })) {
+                x.memcpy_native(dest, src, 4);
+            }
+            assertEquals(1, dest.get(0));
+            assertEquals(4, dest.get(3));
+            assertEquals(5, dest.get(4));
+        }
+    }
+
+    @Test
+    public void testCheckReturn() {
+        LibCStuff x = autoLinker.autoLink(LibCStuff.class);
+        ErrnoException e = assertThrows(ErrnoException.class, () -> x.close_checked(-1));
+        assertEquals(Errno.EBADF, e.errno());
+        e = assertThrows(ErrnoException.class, () -> x.close_checked_critical(-1));
+        assertEquals(Errno.EBADF, e.errno());
+        IOException ioe = assertThrows(IOException.class, () -> x.close_checked_io(-1));
+        assertEquals("errno " + EBADF, ioe.getMessage());
+        assertThrows(ErrnoException.class, () -> x.fopen_checked("/does/not/exist", "r"));
+    }
+
+    static final class ErrnoException extends RuntimeException {
+        private final Errno errno;
+
+        ErrnoException(final Errno errno) {
+            super(String.valueOf(errno));
+            this.errno = errno;
+        }
+
+        Errno errno() {
+            return errno;
+        }
+
+        static ErrnoException create(Errno errno) {
+            return new ErrnoException(errno);
+        }
+    }
+
+    static final class IOExceptions {
+        static IOException create(int errno) {
+            return new IOException("errno " + errno);
+        }
+    }
+
+    @Test
+    public void testStructReturn() {
+        LibCStuff x = autoLinker.autoLink(LibCStuff.class);
+        assertEquals(new DivResult(3, 2), x.div(17, 5));
+        assertEquals(new DivResult(-3, -2), x.div(-17, 5));
+        assertEquals(new LongDivResult(3_000_000_000L, 1), x.lldiv(9_000_000_001L, 3));
+    }
+
+    @struct
+    record DivResult(int quot, int rem) {}
+
+    @struct
+    record LongDivResult(@as(long_long) long quot, @as(long_long) long rem) {}
+
+    @Test
+    public void testStructArray() {
+        LibCStuff x = autoLinker.autoLink(LibCStuff.class);
+        int[] fds = new int[2];
+        assertEquals(0, x.pipe(fds));
+        try {
+            assertEquals(1, x.write(fds[1], new byte[] { 42 }, 1));
+            PollFd[] pollFds = {
+                new PollFd(fds[0], POLLIN, (short) -1),
+                new PollFd(-1, POLLIN, (short) -1),
+                new PollFd(fds[1], POLLOUT, (short) -1),
+            };
+            assertEquals(2, x.poll(pollFds, pollFds.length, 0));
+            assertEquals(new PollFd(fds[0], POLLIN, POLLIN), pollFds[0]);
+            // negative descriptors are ignored, and the input value of revents is never passed in
+            assertEquals(new PollFd(-1, POLLIN, (short) 0), pollFds[1]);
+            assertEquals(new PollFd(fds[1], POLLOUT, POLLOUT), pollFds[2]);
+        } finally {
+            x.close_errno(fds[0]);
+            x.close_errno(fds[1]);
+        }
+    }
+
+    @Test
+    public void testIoVec() {
+        LibCStuff x = autoLinker.autoLink(LibCStuff.class);
+        int[] fds = new int[2];
+        assertEquals(0, x.pipe(fds));
+        try (Arena arena = Arena.ofConfined()) {
+            ByteBuffer hello = ByteBuffer.allocateDirect(16).put("hello, ".getBytes(StandardCharsets.UTF_8)).flip();
+            MemorySegment world = arena.allocate(5).copyFrom(MemorySegment.ofArray("world".getBytes(StandardCharsets.UTF_8)));
+            assertEquals(12, x.writev(fds[1], new ByteBuffer[] { hello }, 1) + x.writev_segments(fds[1], new MemorySegment[] { world }, 1));
+            // the position is not advanced without @advance
+            assertEquals(0, hello.position());
+            ByteBuffer first = ByteBuffer.allocateDirect(4);
+            ByteBuffer second = ByteBuffer.allocateDirect(16);
+            ByteBuffer[] buffers = { first, second };
+            assertEquals(12, x.readv(fds[0], buffers, buffers.length));
+            assertEquals(4, first.position());
+            assertEquals(8, second.position());
+            byte[] bytes = new byte[12];
+            first.flip().get(bytes, 0, 4);
+            second.flip().get(bytes, 4, 8);
+            assertEquals("hello, world", new String(bytes, StandardCharsets.UTF_8));
+            // heap buffers cannot be described
+            assertThrows(IllegalArgumentException.class, () -> x.writev(fds[1], new ByteBuffer[] { ByteBuffer.allocate(1) }, 1));
+        } finally {
+            x.close_errno(fds[0]);
+            x.close_errno(fds[1]);
+        }
+    }
+
+    @Test
+    public void testVariable() {
+        LibCStuff x = autoLinker.autoLink(LibCStuff.class);
+        assertNotEquals(MemorySegment.NULL, x.environ());
+        int old = x.opterr();
+        try {
+            x.opterr(0);
+            assertEquals(0, x.opterr());
+            x.opterr(2);
+            assertEquals(2, x.opterr());
+        } finally {
+            x.opterr(old);
+        }
+        assertThrows(UnsatisfiedLinkError.class, x::non_existent_variable);
+    }
+
+    @Test
+    public void testCallback() {
+        LibCStuff x = autoLinker.autoLink(LibCStuff.class);
+        int[] array = { 5, 3, 9, 1, 7 };
+        x.qsort(array, array.length, Integer.BYTES, TestLibC::compareInts);
+        assertArrayEquals(new int[] { 1, 3, 5, 7, 9 }, array);
+        // the same callback again, which reuses its upcall stub
+        x.qsort(array, array.length, Integer.BYTES, TestLibC::compareInts);
+        assertArrayEquals(new int[] { 1, 3, 5, 7, 9 }, array);
+        // a capturing callback
+        int sign = -1;
+        x.qsort(array, array.length, Integer.BYTES, (a, b) -> sign * compareInts(a, b));
+        assertArrayEquals(new int[] { 9, 7, 5, 3, 1 }, array);
+        try (Arena arena = Arena.ofConfined()) {
+            x.qsort(arena, array, array.length, Integer.BYTES, TestLibC::compareInts);
+            assertArrayEquals(new int[] { 1, 3, 5, 7, 9 }, array);
+        }
+    }
+
+    @Test
+    public void testVariadicObjects() {
+        LibCStuff x = autoLinker.autoLink(LibCStuff.class);
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment buf = arena.allocate(64);
+            assertEquals(9, x.snprintf(buf, 64, "%d-%ld-%s", 12, 345L, "ab"));
+            assertEquals("12-345-ab", buf.getString(0));
+            // a different shape through the same call site
+            assertEquals(9, x.snprintf(buf, 64, "%.2f %c %d", 1.5f, 'z', (short) -3));
+            assertEquals("1.50 z -3", buf.getString(0));
+            // and the first shape again
+            x.snprintf(buf, 64, "%d-%ld-%s", 6, 78L, "cd");
+            assertEquals("6-78-cd", buf.getString(0));
+            x.snprintf(buf, 64, "none");
+            assertEquals("none", buf.getString(0));
+            assertThrows(IllegalArgumentException.class, () -> x.snprintf(buf, 64, "%d", new Object()));
+        }
+    }
+
+    @Test
+    public void testTarget() {
+        LibCStuff x = autoLinker.autoLink(LibCStuff.class);
+        MemorySegment abs = Linker.nativeLinker().defaultLookup().find("abs").orElseThrow();
+        MemorySegment toupper = Linker.nativeLinker().defaultLookup().find("toupper").orElseThrow();
+        assertEquals(5, x.call_int(abs, -5));
+        assertEquals('Q', x.call_int(toupper, 'q'));
+        // again, through the cached handles
+        assertEquals(7, x.call_int(abs, -7));
+        assertEquals('R', x.call_int(toupper, 'r'));
+        assertEquals(9, x.call_int(abs.address(), -9));
+        // enough distinct functions to overflow the cache
+        for (String name : List.of("tolower", "isdigit", "isalpha", "isspace", "abs")) {
+            MemorySegment fn = Linker.nativeLinker().defaultLookup().find(name).orElseThrow();
+            x.call_int(fn, 'A');
+        }
+        assertEquals(3, x.call_int(abs, -3));
+    }
+
+    static int compareInts(MemorySegment a, MemorySegment b) {
+        return Integer.compare(a.reinterpret(Integer.BYTES).get(ValueLayout.JAVA_INT, 0), b.reinterpret(Integer.BYTES).get(ValueLayout.JAVA_INT, 0));
+    }
+
+    @FunctionalInterface
+    interface Compare {
+        int compare(MemorySegment a, MemorySegment b);
+    }
+
+    @Test
+    public void testResultRecord() {
+        LibCStuff x = autoLinker.autoLink(LibCStuff.class);
+        assertEquals(new Frexp(0.75, 4), x.frexp(12.0));
+        assertEquals(new Frexp(0.0, 0), x.frexp(0.0));
+        Pipe pipe = x.pipe();
+        try {
+            assertNotEquals(pipe.readFd(), pipe.writeFd());
+            assertEquals(1, x.write(pipe.writeFd(), new byte[] { 42 }, 1));
+        } finally {
+            x.close_errno(pipe.readFd());
+            x.close_errno(pipe.writeFd());
+        }
+    }
+
+    @Test
+    public void testStringReturn() {
+        LibCStuff x = autoLinker.autoLink(LibCStuff.class);
+        assertEquals(System.getenv("PATH"), x.getenv("PATH"));
+        assertNull(x.getenv("AUTOLINKER_NON_EXISTENT_VARIABLE"));
+        String message = x.strerror(EBADF);
+        assertFalse(message.isEmpty());
+        assertEquals(message.substring(0, 3), x.strerror_short(EBADF));
+        String cached = x.strerror_cached(EBADF);
+        assertEquals(message, cached);
+        assertSame(cached, x.strerror_cached(EBADF));
+    }
+
+    @Test
+    public void testReturnSize() {
+        LibCStuff x = autoLinker.autoLink(LibCStuff.class);
+        MemorySegment seg = x.malloc_sized(24);
+        try {
+            assertEquals(24, seg.byteSize());
+            seg.fill((byte) 7);
+            assertEquals(7, seg.get(ValueLayout.JAVA_BYTE, 23));
+        } finally {
+            x.free_segment(seg);
+        }
+        ByteBuffer buf = x.malloc_page(4096);
+        try {
+            assertTrue(buf.isDirect());
+            assertEquals(4096, buf.capacity());
+            buf.putLong(4088, 1234);
+            assertEquals(1234, buf.getLong(4088));
+        } finally {
+            x.free_segment(MemorySegment.ofBuffer(buf));
+        }
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment scoped = x.malloc_scoped(arena, 8);
+            try {
+                assertEquals(8, scoped.byteSize());
+                assertEquals(arena.scope(), scoped.scope());
+            } finally {
+                x.free_segment(scoped);
+            }
+        }
+    }
+
+    @Test
+    public void testOwned() {
+        LibCStuff x = autoLinker.autoLink(LibCStuff.class);
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment seg = x.malloc_owned(arena, 32);
+            assertEquals(32, seg.byteSize());
+            assertEquals(arena.scope(), seg.scope());
+            seg.fill((byte) 1);
+            AlignedMemory aligned = x.posix_memalign(arena, 64, 128);
+            assertEquals(0, aligned.error());
+            assertEquals(0, aligned.memory().address() % 64);
+            assertEquals(arena.scope(), aligned.memory().scope());
+            // both are freed here
+        }
+    }
+
+    @Test
+    public void testStringArray() {
+        LibCStuff x = autoLinker.autoLink(LibCStuff.class);
+        try (Arena arena = Arena.ofConfined()) {
+            // memmove returns its destination, which is the copied pointer table
+            MemorySegment table = x.memmove_strings(arena, new String[] { "one", "", "three" }, MemorySegment.NULL, 0).reinterpret(4 * ValueLayout.ADDRESS.byteSize());
+            assertEquals("one", table.getAtIndex(ValueLayout.ADDRESS, 0).reinterpret(Long.MAX_VALUE).getString(0));
+            assertEquals("", table.getAtIndex(ValueLayout.ADDRESS, 1).reinterpret(Long.MAX_VALUE).getString(0));
+            assertEquals("three", table.getAtIndex(ValueLayout.ADDRESS, 2).reinterpret(Long.MAX_VALUE).getString(0));
+            assertEquals(MemorySegment.NULL, table.getAtIndex(ValueLayout.ADDRESS, 3));
+            table = x.memmove_strings(arena, List.of("four"), MemorySegment.NULL, 0).reinterpret(2 * ValueLayout.ADDRESS.byteSize());
+            assertEquals("four", table.getAtIndex(ValueLayout.ADDRESS, 0).reinterpret(Long.MAX_VALUE).getString(0));
+            assertEquals(MemorySegment.NULL, table.getAtIndex(ValueLayout.ADDRESS, 1));
+        }
+    }
+
+    record AlignedMemory(@result int error, @result(0) @owned MemorySegment memory) {}
+
+    record Frexp(@result double fraction, @result(1) int exponent) {}
+
+    record Pipe(@result(0) int readFd, @result(0) int writeFd) {}
+
+    static final short POLLIN = 1;
+    static final short POLLOUT = 4;
+
+    @struct
+    record PollFd(int fd, short events, @dir(out) short revents) {}
+
+    @Test
+    public void testAddresses() {
+        LibCStuff x = autoLinker.autoLink(LibCStuff.class);
+        long ptr = x.malloc(16);
+        assertNotEquals(0, ptr);
+        try {
+            x.memset_addr(ptr, 3, 16);
+            byte[] expected = new byte[16];
+            Arrays.fill(expected, (byte) 3);
+            assertArrayEquals(expected, MemorySegment.ofAddress(ptr).reinterpret(16).toArray(ValueLayout.JAVA_BYTE));
+        } finally {
+            x.free(ptr);
+        }
+    }
+
+    @Test
+    public void testNativeHandles() {
+        LibCStuff x = autoLinker.autoLink(LibCStuff.class);
+        Buffer buf = x.malloc_buffer(16);
+        assertNotEquals(0, buf.address());
+        try {
+            x.memset_buffer(buf, 4, 16);
+            byte[] expected = new byte[16];
+            Arrays.fill(expected, (byte) 4);
+            assertArrayEquals(expected, MemorySegment.ofAddress(buf.address()).reinterpret(16).toArray(ValueLayout.JAVA_BYTE));
+        } finally {
+            x.free_buffer(buf);
+        }
+        NativeHandle handle = x.malloc_handle(16);
+        assertNotEquals(0, handle.address());
+        x.free_handle(handle);
+    }
+
+    record Buffer(long address) implements NativeHandle {
+        static Buffer fromAddress(long address) {
+            return new Buffer(address);
+        }
+    }
+
     @Test
     public void testNativeEnums() {
         LibCStuff x = autoLinker.autoLink(LibCStuff.class);
@@ -118,6 +640,19 @@ public final class TestLibC {
         assertEquals(Errno.EDOM, x.abs((NativeEnum<Errno>) Errno.EDOM).as(Errno.class));
         assertEquals(Errno.ERANGE, x.abs(Errno.ERANGE));
         assertEquals(Errno.ERANGE, x.abs((NativeEnum<Errno>) Errno.ERANGE).as(Errno.class));
+        assertEquals(Errno.EBADF, x.abs_errno(-9));
+        // not a known code
+        assertNull(x.abs_errno(-10));
+    }
+
+    @Test
+    public void testFlags() {
+        LibCStuff x = autoLinker.autoLink(LibCStuff.class);
+        // another pass-through
+        assertEquals(EnumSet.of(Bit.BIT_1, Bit.BIT_4), x.abs_set(EnumSet.of(Bit.BIT_1, Bit.BIT_4)));
+        assertEquals(EnumSet.noneOf(Bit.class), x.abs_set(EnumSet.noneOf(Bit.class)));
+        assertEquals(NativeFlags.of(Bit.BIT_2, Bit.BIT_8), x.abs_flags(NativeFlags.of(Bit.BIT_2, Bit.BIT_8)));
+        assertEquals(NativeFlags.of(Bit.BIT_2, Bit.BIT_8), x.abs_flags(EnumSet.of(Bit.BIT_2, Bit.BIT_8)));
     }
 
     @SuppressWarnings("SpellCheckingInspection")
@@ -150,6 +685,19 @@ public final class TestLibC {
         // another bad example, just here to test stuff
         NativeEnum<Errno> abs(NativeEnum<Errno> n);
 
+        @Link(name = "abs")
+        @critical
+        Errno abs_errno(int n);
+
+        @Link(name = "abs")
+        EnumSet<Bit> abs_set(EnumSet<Bit> flags);
+
+        @Link(name = "abs")
+        NativeFlags<Bit> abs_flags(NativeFlags<Bit> flags);
+
+        @Link(name = "abs")
+        NativeFlags<Bit> abs_flags(EnumSet<Bit> flags);
+
         @Link
         @as(int_) short abs(@as(int_) short n);
 
@@ -179,11 +727,245 @@ public final class TestLibC {
         @critical
         double sin(@capture("errno") MemorySegment buf, double arg);
 
+        @Link
+        @errno
+        @as(long_) long strtol(String str, @as(ptr) long endPtr, int base);
+
+        @Link
+        @critical
+        int close(@capture("errno") MemorySegment state, int fd);
+
+        @Link(name = "strtol")
+        @blocking
+        @errno
+        @as(long_) long strtol_blocking(String str, @as(ptr) long endPtr, int base);
+
+        @Link(name = "atol")
+        @blocking
+        @as(long_) long atol_blocking(MemorySegment str);
+
+        @Link
+        @blocking
+        int usleep(@as(unsigned_int) int usec);
+
+        @Link(name = "close")
+        @critical
+        @errno
+        int close_errno(int fd);
+
+        @Link(name = "toupper")
+        @critical
+        @errno
+        @as(int_) char toupper_errno(@as(int_) char c);
+
+        @Link(name = "getenv")
+        @critical
+        @errno
+        String getenv_errno(String name);
+
+        @Link(name = "div")
+        @critical
+        @errno
+        DivResult div_errno(int numer, int denom);
+
+        @Link(name = "close")
+        @checkReturn(onNegative = true, exception = ErrnoException.class)
+        int close_checked(int fd);
+
+        @Link(name = "close")
+        @critical
+        @checkReturn(onNegative = true, exception = ErrnoException.class)
+        int close_checked_critical(int fd);
+
+        @Link(name = "close")
+        @checkReturn(onNegative = true, exception = IOExceptions.class)
+        int close_checked_io(int fd) throws IOException;
+
+        @Link(name = "fopen")
+        @checkReturn(onNull = true, exception = ErrnoException.class)
+        NativeHandle fopen_checked(String path, String mode);
+
+        @Link
+        @critical
+        DivResult div(int numer, int denom);
+
+        @Link
+        LongDivResult lldiv(@as(long_long) long numer, @as(long_long) long denom);
+
+        @Link
+        int pipe(@dir(out) int[] fds);
+
+        @Link
+        @as(ssize_t) long write(int fd, @dir(in) byte[] buf, @as(size_t) int count);
+
+        @Link
+        @as(ssize_t) long writev(int fd, @as(iovec) ByteBuffer[] iov, int iovcnt);
+
+        @Link(name = "writev")
+        @as(ssize_t) long writev_segments(int fd, @as(iovec) MemorySegment[] iov, int iovcnt);
+
+        @Link
+        @as(ssize_t) long readv(int fd, @as(iovec) @advance ByteBuffer[] iov, int iovcnt);
+
+        @Link
+        int poll(PollFd[] fds, @as(unsigned_long) int nfds, int timeout);
+
+        @Link
+        Frexp frexp(double x);
+
+        @Link(name = "malloc")
+        MemorySegment malloc_sized(@returnSize @as(size_t) long size);
+
+        @Link(name = "malloc")
+        MemorySegment malloc_scoped(Arena arena, @returnSize @as(size_t) long size);
+
+        @Link(name = "malloc")
+        @returnSize(4096)
+        ByteBuffer malloc_page(@as(size_t) long size);
+
+        @Link(name = "free")
+        void free_segment(MemorySegment ptr);
+
+        @Link(name = "malloc")
+        @owned(free = "free")
+        MemorySegment malloc_owned(Arena arena, @returnSize @as(size_t) long size);
+
+        @Link
+        AlignedMemory posix_memalign(Arena arena, @as(size_t) long alignment, @as(size_t) long size);
+
+        @Link(name = "memmove")
+        MemorySegment memmove_strings(Arena arena, String[] dest, MemorySegment src, @as(size_t) long n);
+
+        @Link(name = "memmove")
+        MemorySegment memmove_strings(Arena arena, List<String> dest, MemorySegment src, @as(size_t) long n);
+
+        @Link
+        String getenv(String name);
+
+        @Link
+        String strerror(int errnum);
+
+        @Link(name = "strerror")
+        @string(maxLength = 3)
+        String strerror_short(int errnum);
+
+        @Link(name = "strerror")
+        @string(cacheSize = 16)
+        String strerror_cached(int errnum);
+
+        @Link
+        @as(int_)
+        @checkReturn(onNegative = true, exception = ErrnoException.class)
+        Pipe pipe();
+
+        @Link
+        void qsort(int[] base, @as(size_t) long nmemb, @as(size_t) long size, Compare compar);
+
+        @Link
+        void qsort(Arena arena, int[] base, @as(size_t) long nmemb, @as(size_t) long size, Compare compar);
+
         @Link
         void non_existent();
 
+        @Link
+        @variable
+        MemorySegment environ();
+
+        @Link
+        @variable
+        int opterr();
+
+        @Link
+        @variable
+        void opterr(int value);
+
+        @Link
+        @variable
+        int non_existent_variable();
+
         @Link
         @critical(heap = true)
         @as(ptr) void memset(MemorySegment dest, int ch, @as(size_t) int count);
+
+        @Link(name = "memset")
+        @critical(heap = true, heapThreshold = 64)
+        @as(ptr) void memset_adaptive(byte[] dest, int ch, @as(size_t) int count);
+
+        @Link(name = "memset")
+        @critical(heap = true, heapThreshold = 16)
+        @as(ptr) void memset_adaptive_in(@dir(in) byte[] dest, int ch, @as(size_t) int count);
+
+        @Link(name = "memset")
+        @parallel(chunk = 8192)
+        @as(ptr) void memset_parallel(@partition byte[] buf, @as(int_) char c, @partition @as(size_t) int count);
+
+        @Link(name = "memset")
+        @parallel(chunk = 8192)
+        @as(ptr) void memset_parallel_segment(@partition MemorySegment buf, @as(int_) char c, @partition @as(size_t) long count);
+
+        @Link(name = "memcmp")
+        @parallel(chunk = 8192, reduce = "firstDifference")
+        int memcmp_parallel(@partition @dir(in) byte[] a, @partition @dir(in) byte[] b, @partition @as(size_t) int count);
+
+        static int firstDifference(int a, int b) {
+            return a != 0 ? a : b;
+        }
+
+        @Link(name = "abs")
+        CompletableFuture<Integer> abs_async(int n);
+
+        @Link(name = "memcpy")
+        @as(ptr) CompletableFuture<Void> memcpy_async(@dir(out) byte[] dest, @dir(in) byte[] src, @as(size_t) int count, Executor executor);
+
+        @Link(name = "memset")
+        @as(ptr) CompletableFuture<Void> memset_async(byte[] buf, @as(int_) char c, @as(size_t) int count);
+
+        @Link(name = "memcpy")
+        @as(ptr) void memcpy_u8(@dir(out) @as(uint8_t) int[] dest, @dir(in) @as(uint8_t) int[] src, @as(size_t) int count);
+
+        @Link(name = "memcpy")
+        @as(ptr) void memcpy_i32(@dir(out) @as(int32_t) long[] dest, @dir(in) @as(int32_t) long[] src, @as(size_t) int count);
+
+        @Link(name = "memset")
+        @critical
+        @as(ptr) void memset_native(NativeByteArray dest, int ch, @as(size_t) int count);
+
+        @Link(name = "memcpy")
+        @as(ptr) void memcpy_native(NativeByteArray dest, NativeByteArray src, @as(size_t) int count);
+
+        @Link
+        @as(ptr) long malloc(@as(size_t) long size);
+
+        @Link
+        void free(@as(ptr) long address);
+
+        @Link(name = "memset")
+        @critical
+        @as(ptr) void memset_addr(@as(ptr) long dest, int ch, @as(size_t) int count);
+
+        @Link(name = "malloc")
+        Buffer malloc_buffer(@as(size_t) long size);
+
+        @Link(name = "free")
+        void free_buffer(Buffer buf);
+
+        @Link(name = "memset")
+        @critical
+        @as(ptr) void memset_buffer(Buffer dest, int ch, @as(size_t) int count);
+
+        @Link(name = "malloc")
+        NativeHandle malloc_handle(@as(size_t) long size);
+
+        @Link(name = "free")
+        void free_handle(NativeHandle handle);
+
+        @Link
+        int call_int(@target MemorySegment function, int value);
+
+        @Link
+        int call_int(@target long function, int value);
+
+        @Link
+        int snprintf(MemorySegment buf, @as(size_t) long size, String format, Object... args);
     }
 }
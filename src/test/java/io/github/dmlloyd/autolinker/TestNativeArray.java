@@ -0,0 +1,68 @@
+package io.github.dmlloyd.autolinker;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+public class TestNativeArray {
+
+    @Test
+    public void testGetSet() {
+        try (NativeIntArray array = new NativeIntArray(4)) {
+            assertEquals(4, array.length());
+            assertEquals(16, array.byteSize());
+            assertNotEquals(0, array.address());
+            assertArrayEquals(new int[4], array.toArray());
+            array.set(0, 10);
+            array.set(3, -1);
+            assertEquals(10, array.get(0));
+            assertEquals(0, array.get(1));
+            assertEquals(-1, array.get(3));
+            assertThrows(IndexOutOfBoundsException.class, () -> array.get(4));
+            assertThrows(IndexOutOfBoundsException.class, () -> array.set(-1, 0));
+        }
+    }
+
+    @Test
+    public void testBulk() {
+        try (NativeDoubleArray array = new NativeDoubleArray(new double[] { 1.0, 2.0, 3.0 })) {
+            assertArrayEquals(new double[] { 1.0, 2.0, 3.0 }, array.toArray());
+            array.set(1, new double[] { 9.0, 8.0, 7.0 }, 1, 2);
+            double[] dest = new double[4];
+            array.get(0, dest, 1, 3);
+            assertArrayEquals(new double[] { 0.0, 1.0, 8.0, 7.0 }, dest);
+            assertThrows(IndexOutOfBoundsException.class, () -> array.set(2, new double[2]));
+        }
+    }
+
+    @Test
+    public void testResize() {
+        try (NativeLongArray array = new NativeLongArray(new long[] { 1, 2, 3 })) {
+            array.resize(5);
+            assertArrayEquals(new long[] { 1, 2, 3, 0, 0 }, array.toArray());
+            array.resize(2);
+            assertArrayEquals(new long[] { 1, 2 }, array.toArray());
+            array.ensureLength(1);
+            assertEquals(2, array.length());
+            array.ensureLength(3);
+            assertEquals(3, array.length());
+            array.ensureLength(4);
+            assertEquals(4, array.length());
+            array.ensureLength(5);
+            assertEquals(6, array.length());
+            assertArrayEquals(new long[] { 1, 2, 0, 0, 0, 0 }, array.toArray());
+        }
+    }
+
+    @Test
+    public void testClose() {
+        NativeByteArray array = new NativeByteArray(8);
+        array.close();
+        assertEquals(0, array.length());
+        assertThrows(IllegalStateException.class, array::address);
+        assertThrows(IllegalStateException.class, () -> array.get(0));
+        assertThrows(IllegalStateException.class, () -> array.resize(4));
+        // idempotent
+        array.close();
+    }
+}
@@ -2,6 +2,11 @@ package io.github.dmlloyd.autolinker;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.EnumSet;
+
 import org.junit.jupiter.api.Test;
 
 public class TestNativeEnum {
@@ -66,4 +71,58 @@ public class TestNativeEnum {
         assertEquals(Bit.BIT_8, Bit.BIT_8.xor(Bit.BIT_0));
         assertEquals(Bit.BIT_8, Bit.BIT_0.xor(Bit.BIT_8));
     }
+
+    @Test
+    public void testTables() throws Throwable {
+        // dense codes
+        MethodHandle encode = Bootstraps.nativeCode(MethodHandles.lookup(), "nativeCode", MethodType.methodType(int.class, Bit.class)).dynamicInvoker();
+        MethodHandle decode = Bootstraps.fromNativeCode(MethodHandles.lookup(), "fromNativeCode", MethodType.methodType(Bit.class, int.class)).dynamicInvoker();
+        for (Bit bit : Bit.values()) {
+            assertEquals(bit.nativeCode(), (int) encode.invokeExact(bit));
+            assertEquals(bit, (Bit) decode.invokeExact(bit.nativeCode()));
+        }
+        // codes which are not in the table still go to fromNativeCode
+        assertThrows(IllegalArgumentException.class, () -> {
+            Bit ignored = (Bit) decode.invokeExact(7);
+        });
+        // sparse codes
+        MethodHandle encodeErrno = Bootstraps.nativeCode(MethodHandles.lookup(), "nativeCode", MethodType.methodType(int.class, Errno.class)).dynamicInvoker();
+        MethodHandle decodeErrno = Bootstraps.fromNativeCode(MethodHandles.lookup(), "fromNativeCode", MethodType.methodType(Errno.class, int.class)).dynamicInvoker();
+        for (Errno errno : Errno.values()) {
+            assertEquals(errno.nativeCode(), (int) encodeErrno.invokeExact(errno));
+            assertEquals(errno, (Errno) decodeErrno.invokeExact(errno.nativeCode()));
+        }
+        assertNull((Errno) decodeErrno.invokeExact(0));
+        assertNull((Errno) decodeErrno.invokeExact(-12345));
+        assertThrows(NullPointerException.class, () -> {
+            int ignored = (int) encodeErrno.invokeExact((Errno) null);
+        });
+    }
+
+    @Test
+    public void testFlags() {
+        NativeFlags<Bit> flags = NativeFlags.of(Bit.BIT_1, Bit.BIT_4);
+        assertEquals(5, flags.nativeCode());
+        assertTrue(flags.contains(Bit.BIT_1));
+        assertTrue(flags.contains(Bit.BIT_4));
+        assertFalse(flags.contains(Bit.BIT_2));
+        // zero flags are never contained
+        assertFalse(flags.contains(Bit.BIT_0));
+        assertEquals(EnumSet.of(Bit.BIT_1, Bit.BIT_4), flags.toEnumSet());
+        assertEquals(flags, NativeFlags.copyOf(Bit.class, EnumSet.of(Bit.BIT_1, Bit.BIT_4)));
+        assertEquals(flags, NativeFlags.noneOf(Bit.class).with(Bit.BIT_4).with(Bit.BIT_1));
+        assertSame(flags, flags.with(Bit.BIT_1));
+        assertEquals(NativeFlags.of(Bit.BIT_4), flags.without(Bit.BIT_1));
+        assertEquals(15, flags.with(NativeFlags.of(Bit.BIT_2, Bit.BIT_8)).nativeCode());
+        assertEquals(15, NativeFlags.of(Bit.BIT_1, Bit.BIT_2, Bit.BIT_4, Bit.BIT_8).nativeCode());
+        assertTrue(NativeFlags.noneOf(Bit.class).isEmpty());
+        // unknown bits are retained
+        NativeFlags<Bit> extra = NativeFlags.fromNativeCode(Bit.class, 0x31);
+        assertEquals(EnumSet.of(Bit.BIT_1), extra.toEnumSet());
+        assertEquals(0x31, extra.nativeCode());
+        assertEquals("Bit[BIT_1|0x30]", extra.toString());
+        // usable as a native enum
+        assertTrue(flags.isSet(Bit.BIT_4));
+        assertEquals(Bit.BIT_4, flags.and(Bit.BIT_4));
+    }
 }
@@ -0,0 +1,52 @@
+package io.github.dmlloyd.autolinker;
+
+import static io.github.dmlloyd.autolinker.AsType.*;
+import static io.github.dmlloyd.autolinker.Link.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+import org.junit.jupiter.api.Test;
+
+public class TestStructType {
+
+    @struct
+    record Padded(byte a, int b, short c) {}
+
+    @struct
+    record Converted(@as(uint8_t) int a, @as(uint16_t) int b, Errno c) {}
+
+    @struct
+    record Nested(byte a, Padded b, double c) {}
+
+    @struct
+    record Pointer(byte a, MemorySegment b) {}
+
+    record NotAStruct(int a) {}
+
+    @struct
+    record BadComponent(String a) {}
+
+    @Test
+    public void testLayout() {
+        StructType padded = StructType.of(Padded.class);
+        assertEquals(12, padded.size());
+        assertEquals(4, padded.alignment());
+        StructType converted = StructType.of(Converted.class);
+        assertEquals(8, converted.size());
+        assertEquals(4, converted.alignment());
+        StructType nested = StructType.of(Nested.class);
+        assertEquals(24, nested.size());
+        assertEquals(8, nested.alignment());
+        StructType pointer = StructType.of(Pointer.class);
+        assertEquals(2 * ValueLayout.ADDRESS.byteSize(), pointer.size());
+    }
+
+    @Test
+    public void testInvalid() {
+        assertFalse(StructType.isStruct(NotAStruct.class));
+        assertThrows(IllegalArgumentException.class, () -> StructType.of(NotAStruct.class));
+        assertThrows(IllegalArgumentException.class, () -> StructType.of(BadComponent.class));
+    }
+}
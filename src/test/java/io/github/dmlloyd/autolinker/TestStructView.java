@@ -0,0 +1,123 @@
+package io.github.dmlloyd.autolinker;
+
+import static io.github.dmlloyd.autolinker.AsType.*;
+import static io.github.dmlloyd.autolinker.Link.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandles;
+
+import org.junit.jupiter.api.Test;
+
+public class TestStructView {
+    private static final AutoLinker autoLinker = new AutoLinker(MethodHandles.lookup());
+
+    @Test
+    public void testGetSet() {
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment seg = arena.allocate(PollFdView.SIZE);
+            PollFdView view = autoLinker.newStructView(PollFdView.class);
+            view.rebase(seg, 0);
+            view.fd(7);
+            view.events((short) 5);
+            assertEquals(7, seg.get(ValueLayout.JAVA_INT, 0));
+            assertEquals(5, seg.get(ValueLayout.JAVA_SHORT, 4));
+            seg.set(ValueLayout.JAVA_SHORT, 6, (short) -1);
+            assertEquals(7, view.fd());
+            assertEquals(5, view.events());
+            // unsigned conversion
+            assertEquals(0xffff, view.revents());
+        }
+    }
+
+    @Test
+    public void testIterate() {
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment seg = arena.allocate(PollFdView.SIZE * 16);
+            PollFdView view = autoLinker.newStructView(PollFdView.class);
+            view.rebase(seg, 0);
+            for (long offset = 0; offset < seg.byteSize(); offset += PollFdView.SIZE) {
+                view.move(offset).fd((int) offset);
+            }
+            for (int i = 0; i < 16; i ++) {
+                assertEquals(i * PollFdView.SIZE, seg.get(ValueLayout.JAVA_INT, i * PollFdView.SIZE));
+            }
+        }
+    }
+
+    @Test
+    public void testUnaligned() {
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment seg = arena.allocate(12);
+            EpollEventView view = autoLinker.newStructView(EpollEventView.class);
+            view.rebase(seg, 0);
+            view.events(1);
+            view.data(0x1234_5678_9abc_def0L);
+            assertEquals(1, view.events());
+            assertEquals(0x1234_5678_9abc_def0L, view.data());
+        }
+    }
+
+    @Test
+    public void testUnbound() {
+        PollFdView view = autoLinker.newStructView(PollFdView.class);
+        assertThrows(IndexOutOfBoundsException.class, view::fd);
+    }
+
+    @Test
+    public void testInvalid() {
+        assertThrows(IllegalArgumentException.class, () -> autoLinker.newStructView(Invalid.class));
+    }
+
+    public interface PollFdView {
+        long SIZE = 8;
+
+        @rebase
+        void rebase(MemorySegment segment, long offset);
+
+        @rebase
+        PollFdView move(long offset);
+
+        @offset(0)
+        int fd();
+
+        @offset(0)
+        void fd(int fd);
+
+        @offset(4)
+        short events();
+
+        @offset(4)
+        void events(short events);
+
+        @offset(6)
+        @as(uint16_t)
+        int revents();
+    }
+
+    // a packed structure
+    public interface EpollEventView {
+        @rebase
+        void rebase(MemorySegment segment, long offset);
+
+        @offset(0)
+        @as(uint32_t)
+        long events();
+
+        @offset(0)
+        @as(uint32_t)
+        void events(long events);
+
+        @offset(4)
+        long data();
+
+        @offset(4)
+        void data(long data);
+    }
+
+    public interface Invalid {
+        int notAnnotated();
+    }
+}